@@ -24,8 +24,7 @@
 
 package edu.cmu.sv.isstac.canopy;
 
-import java.util.ArrayList;
-
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.search.TerminationType;
 import gov.nasa.jpf.search.Search;
 import gov.nasa.jpf.vm.ChoiceGenerator;
@@ -35,7 +34,7 @@ import gov.nasa.jpf.vm.VM;
  * @author Kasper Luckow
  */
 public interface AnalysisStrategy {
-  void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices);
+  void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices);
   void newSampleStarted(Search samplingSearch);
   void pathTerminated(TerminationType termType, long reward, long pathVolume,
                       long amplifiedReward, Search searchState, boolean hasBeenExploredBefore);
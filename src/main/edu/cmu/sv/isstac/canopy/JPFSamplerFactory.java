@@ -24,32 +24,19 @@
 
 package edu.cmu.sv.isstac.canopy;
 
-import java.util.logging.Logger;
-
 import edu.cmu.sv.isstac.canopy.search.BacktrackingSamplingSearch;
-import edu.cmu.sv.isstac.canopy.search.SamplingSearch;
 import gov.nasa.jpf.Config;
 import gov.nasa.jpf.JPF;
-import gov.nasa.jpf.util.JPFLogger;
 
 /**
  * @author Kasper Luckow
  */
 public class JPFSamplerFactory implements JPFFactory {
 
-  private static final Logger logger = JPFLogger.getLogger(JPFSamplerFactory.class.getName());
-
   @Override
   public JPF buildInstance(Config jpfConfig) {
-    Class<?> samplingSearch;
-    if(jpfConfig.getBoolean(Options.USE_BACKTRACKING_SEARCH,
-        Options.DEFAULT_USE_BACKTRACKING_SEARCH)) {
-      logger.info("Using backtracking-enabled sampling search");
-      samplingSearch = BacktrackingSamplingSearch.class;
-    } else {
-      logger.info("Using sampling search without backtracking ability");
-      samplingSearch = SamplingSearch.class;
-    }
+    // The search both backtracks and restores (see canopy.restartpolicy)
+    Class<?> samplingSearch = BacktrackingSamplingSearch.class;
 
     //Substitute search object to use our sampler
     //There is no other way than using the string name of the class and rely
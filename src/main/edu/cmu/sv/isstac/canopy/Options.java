@@ -70,10 +70,106 @@ public class Options {
 
   public static final String STATE_CACHE = SAMPLING_CONF_PREFIX + ".statecache";
   public static final Class<? extends StateCache> DEFAULT_STATE_CACHE = TrieCache.class;
+  // Budget of the bounded state cache (see BoundedTrieCache)
+  public static final String STATE_CACHE_MAX_ENTRIES = SAMPLING_CONF_PREFIX +
+      ".statecache.maxentries";
+  public static final String STATE_CACHE_MAX_BYTES = SAMPLING_CONF_PREFIX + ".statecache.maxbytes";
+
+  // Directory of the memory-mapped files used by the off-heap tries
+  public static final String OFFHEAP_DIR = SAMPLING_CONF_PREFIX + ".offheap.dir";
+  public static final String DEFAULT_OFFHEAP_DIR = System.getProperty("java.io.tmpdir");
+
+  // Restore samples to the entry of symbolic.method instead of the start of the VM
+  public static final String SNAPSHOT_AT_METHOD = SAMPLING_CONF_PREFIX + ".snapshotatmethod";
+
+  // Bounded cache of states in the search tree from which samples can be resumed (MCTS only)
+  public static final String SNAPSHOT_CACHE_CAPACITY = SAMPLING_CONF_PREFIX +
+      ".snapshotcache.capacity";
+  public static final String SNAPSHOT_CACHE_MIN_FREE_HEAP = SAMPLING_CONF_PREFIX +
+      ".snapshotcache.minfreeheap";
+
+  // Weights (mnemonic:weight) of the instructions counted by WeightedInstructionRewardFunction
+  public static final String COST_WEIGHTS = SAMPLING_CONF_PREFIX + ".cost.weights";
+
+  // Solve the path condition every k branches (and at path end) instead of at every branch
+  public static final String DEFERRED_CHECKS_INTERVAL = SAMPLING_CONF_PREFIX +
+      ".deferredchecks.interval";
+
+  // File of the solver results kept across runs. See PersistentSolverCache
+  public static final String SOLVER_CACHE_FILE = SAMPLING_CONF_PREFIX + ".solvercache.file";
+  public static final String SOLVER_CACHE_CAPACITY = SAMPLING_CONF_PREFIX +
+      ".solvercache.capacity";
+
+  // Pop the incremental solver stack to the common prefix of samples instead of resetting it
+  public static final String INCREMENTAL_KEEP_STACK = SAMPLING_CONF_PREFIX +
+      ".incremental.keepstack";
+
+  // Upper bound of the rewards for branch-and-bound pruning. See RewardBound
+  public static final String REWARD_BOUND = SAMPLING_CONF_PREFIX + ".rewardbound";
+
+  // Per-sample budgets of executed instructions and wall-clock time (ms). See SampleWatchdog
+  public static final String WATCHDOG_INSTRUCTIONS = SAMPLING_CONF_PREFIX +
+      ".watchdog.instructions";
+  public static final String WATCHDOG_TIME = SAMPLING_CONF_PREFIX + ".watchdog.time";
+
+  // Sheds caches, strategy trees and the pruning trie under heap pressure. See MemoryGovernor
+  public static final String MEMORY_GOVERNOR = SAMPLING_CONF_PREFIX + ".memory.governor";
+  public static final String MEMORY_THRESHOLDS = SAMPLING_CONF_PREFIX + ".memory.thresholds";
+  public static final String MEMORY_COLLAPSE_DEPTH = SAMPLING_CONF_PREFIX +
+      ".memory.collapsedepth";
+
+  // Worker processes of the parallel exhaustive analysis and the JVM arguments they are run with
+  public static final String PARALLEL_WORKERS = SAMPLING_CONF_PREFIX + ".parallel.workers";
+  public static final String PARALLEL_JVM_ARGS = SAMPLING_CONF_PREFIX + ".parallel.jvmargs";
+
+  // Expose the metrics of the analysis as a JMX MBean. See MetricsRegistry
+  public static final String METRICS_JMX = SAMPLING_CONF_PREFIX + ".metrics.jmx";
 
   public static final String USE_BACKTRACKING_SEARCH = SAMPLING_CONF_PREFIX + ".backtrackingsearch";
 
+  // How the sampling search continues from dead ends: backtrack, restore or adaptive
+  public static final String RESTART_POLICY = SAMPLING_CONF_PREFIX + ".restartpolicy";
+
+  // Switch from sampling to enumerating the remaining paths
+  public static final String EXHAUSTIVE_THRESHOLD = SAMPLING_CONF_PREFIX + ".exhaustive.threshold";
+  public static final String EXHAUSTIVE_MIN_SAMPLES = SAMPLING_CONF_PREFIX +
+      ".exhaustive.minsamples";
+
+  // Checkpointing is enabled by setting the checkpoint file
+  public static final String CHECKPOINT_FILE = SAMPLING_CONF_PREFIX + ".checkpoint.file";
+  public static final String CHECKPOINT_INTERVAL = SAMPLING_CONF_PREFIX + ".checkpoint.interval";
+  public static final String CHECKPOINT_RESUME = SAMPLING_CONF_PREFIX + ".checkpoint.resume";
+
   public static final boolean DEFAULT_USE_BACKTRACKING_SEARCH = true;
+  // A budget of 0 is unlimited
+  public static final long DEFAULT_STATE_CACHE_MAX_ENTRIES = 1000000;
+  public static final long DEFAULT_STATE_CACHE_MAX_BYTES = 0;
+  public static final String DEFAULT_RESTART_POLICY = "backtrack";
+  public static final boolean DEFAULT_SNAPSHOT_AT_METHOD = false;
+  // A capacity of 0 disables the snapshot cache
+  public static final int DEFAULT_SNAPSHOT_CACHE_CAPACITY = 0;
+  // Fraction of the max heap that snapshots are evicted to keep free
+  public static final double DEFAULT_SNAPSHOT_CACHE_MIN_FREE_HEAP = 0.2;
+  // An interval of 0 solves at every branch
+  public static final int DEFAULT_DEFERRED_CHECKS_INTERVAL = 0;
+  public static final boolean DEFAULT_INCREMENTAL_KEEP_STACK = true;
+  // Results, i.e. a 64MB (sparse) file
+  public static final long DEFAULT_SOLVER_CACHE_CAPACITY = 3000000;
+  // A budget of 0 is unlimited
+  public static final long DEFAULT_WATCHDOG_INSTRUCTIONS = 0;
+  public static final long DEFAULT_WATCHDOG_TIME = 0;
+  public static final boolean DEFAULT_MEMORY_GOVERNOR = false;
+  // Fractions of the max heap for clearing caches, collapsing trees and compacting pruning
+  public static final String DEFAULT_MEMORY_THRESHOLDS = "0.75,0.85,0.95";
+  public static final int DEFAULT_MEMORY_COLLAPSE_DEPTH = 10;
+  public static final int DEFAULT_PARALLEL_WORKERS = Runtime.getRuntime().availableProcessors();
+  public static final boolean DEFAULT_METRICS_JMX = true;
+  // A threshold of 0 never switches
+  public static final double DEFAULT_EXHAUSTIVE_THRESHOLD = 0;
+  public static final long DEFAULT_EXHAUSTIVE_MIN_SAMPLES = 100;
+  // Seconds between checkpoints
+  public static final long DEFAULT_CHECKPOINT_INTERVAL = 600;
+  public static final boolean DEFAULT_CHECKPOINT_RESUME = false;
   public static final boolean DEFAULT_USE_MODELCOUNT_AMPLIFICATION = false;
 
   public static final boolean DEFAULT_SHOW_STATISTICS = true;
@@ -86,7 +182,7 @@ public class Options {
   public static final boolean DEFAULT_RANDOM_SEED = false;
 
 
-  //TODO: Fix this state. It is added because we cannot obtain an instance of SamplingSearch and
+  //TODO: Fix this state. It is added because we cannot obtain an instance of the search and
   // thus we have to pass "parameters" to it as statics
   public static ChoicesStrategy choicesStrategy;
 
@@ -24,6 +24,7 @@
 
 package edu.cmu.sv.isstac.canopy;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,21 +35,31 @@ import java.util.logging.Logger;
 import edu.cmu.sv.isstac.canopy.analysis.AnalysisEventObserver;
 import edu.cmu.sv.isstac.canopy.analysis.LiveAnalysisStatistics;
 import edu.cmu.sv.isstac.canopy.analysis.SampleStatisticsOutputter;
+import edu.cmu.sv.isstac.canopy.bytecode.CostCounters;
+import edu.cmu.sv.isstac.canopy.bytecode.CostCountingInstructionFactory;
 import edu.cmu.sv.isstac.canopy.exploration.ChoicesStrategy;
 import edu.cmu.sv.isstac.canopy.exploration.Path;
+import edu.cmu.sv.isstac.canopy.exploration.TrieBasedPruningStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.cache.SharedTrieCache;
 import edu.cmu.sv.isstac.canopy.exploration.cache.StateCache;
+import edu.cmu.sv.isstac.canopy.exploration.cache.TrieCache;
 import edu.cmu.sv.isstac.canopy.quantification.ConcretePathQuantifier;
 import edu.cmu.sv.isstac.canopy.quantification.ModelCounterCreationException;
 import edu.cmu.sv.isstac.canopy.quantification.ModelCounterFactory;
 import edu.cmu.sv.isstac.canopy.quantification.ModelCountingPathQuantifier;
 import edu.cmu.sv.isstac.canopy.quantification.PathQuantifier;
 import edu.cmu.sv.isstac.canopy.quantification.SPFModelCounter;
+import edu.cmu.sv.isstac.canopy.reward.InstructionCostRewardFunction;
+import edu.cmu.sv.isstac.canopy.reward.RewardBound;
 import edu.cmu.sv.isstac.canopy.reward.RewardFunction;
+import edu.cmu.sv.isstac.canopy.search.Checkpointer;
 import edu.cmu.sv.isstac.canopy.search.FrontierSamplingAnalysisListener;
+import edu.cmu.sv.isstac.canopy.search.MethodEntrySnapshot;
 import edu.cmu.sv.isstac.canopy.search.SamplingAnalysisListener;
 import edu.cmu.sv.isstac.canopy.termination.CompositeTerminationStrategy;
 import edu.cmu.sv.isstac.canopy.termination.SampleSizeTerminationStrategy;
 import edu.cmu.sv.isstac.canopy.termination.TerminationStrategy;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
 import gov.nasa.jpf.Config;
 import gov.nasa.jpf.JPF;
 import gov.nasa.jpf.JPFListener;
@@ -69,14 +80,21 @@ public class SamplingAnalysis {
     private Collection<TerminationStrategy> terminationStrategies = new HashSet<>();
     private PathQuantifier pathQuantifier = null;
     private RewardFunction rewardFunction = null;
+    private RewardBound rewardBound = null;
     private StateCache stateCache = null;
     private Path frontierNode = null;
+    private Checkpointer checkpointer = null;
 
     public Builder setRewardFunction(RewardFunction rewardFunction) {
       this.rewardFunction = rewardFunction;
       return this;
     }
 
+    public Builder setRewardBound(RewardBound rewardBound) {
+      this.rewardBound = rewardBound;
+      return this;
+    }
+
     public Builder addListener(JPFListener listener) {
       this.listeners.add(listener);
       return this;
@@ -107,6 +125,11 @@ public class SamplingAnalysis {
       return this;
     }
 
+    public Builder setCheckpointer(Checkpointer checkpointer) {
+      this.checkpointer = checkpointer;
+      return this;
+    }
+
     public Builder setPathQuantifier(PathQuantifier pathQuantifier) {
       this.pathQuantifier = pathQuantifier;
       return this;
@@ -131,6 +154,17 @@ public class SamplingAnalysis {
         jpfListeners.add((JPFListener) this.rewardFunction);
       }
 
+      // Instruction cost rewards are counted by the instructions themselves, so we swap in the
+      // counting factory unless the user has configured another (counting) factory
+      if(this.rewardFunction instanceof InstructionCostRewardFunction) {
+        if(SymbolicInstructionFactory.class.getName().equals(
+            jpfConfig.getString("jvm.insn_factory.class"))) {
+          jpfConfig.setProperty("jvm.insn_factory.class",
+              CostCountingInstructionFactory.class.getName());
+        }
+        jpfListeners.add(CostCounters.getInstance());
+      }
+
       if(terminationStrategies.isEmpty()) {
         this.terminationStrategies.add(jpfConfig.getInstance(Options.TERMINATION_STRATEGY,
             TerminationStrategy.class, Options.DEFAULT_TERMINATION_STRATEGY));
@@ -146,16 +180,19 @@ public class SamplingAnalysis {
       if (choicesStrategy == null) {
         if (jpfConfig.hasValue(Options.CHOICES_STRATEGY)) {
           choicesStrategy = jpfConfig.getInstance(Options.CHOICES_STRATEGY, ChoicesStrategy.class);
+          //The search object will pick up the pruning strategy from here, e.g., when the
+          // array-backed pruning is used
+          Options.choicesStrategy = choicesStrategy;
         } else {
           //This is pretty ugly, but right now I'm not sure how we can get around it
-          //because SamplingSearch cannot be instantiated :/
+          //because the search cannot be instantiated :/
           choicesStrategy = Options.DEFAULT_CHOICES_STRATEGY;
           Options.choicesStrategy = choicesStrategy;
         }
       } else {
         choicesStrategy = Options.DEFAULT_CHOICES_STRATEGY;
         //This is pretty ugly, but right now I'm not sure how we can get around it
-        //because SamplingSearch cannot be instantiated :/
+        //because the search cannot be instantiated :/
         Options.choicesStrategy = choicesStrategy;
       }
 
@@ -163,12 +200,29 @@ public class SamplingAnalysis {
         stateCache = jpfConfig.getInstance(Options.STATE_CACHE, StateCache.class, Options
             .DEFAULT_STATE_CACHE.getName());
       }
+      if(stateCache instanceof SharedTrieCache &&
+          choicesStrategy != TrieBasedPruningStrategy.getInstance()) {
+        // There is no pruning trie to share, so the cache needs a trie of its own
+        logger.info("Choices strategy does not keep a shared trie. Using " +
+            TrieCache.class.getName() + " for state caching");
+        stateCache = new TrieCache();
+      }
       //TODO: We should log the entire config
       logger.info("Using state caching implemented by class: " + stateCache.getClass().getName());
 
       if(!stateCache.supportsPCOptimization()) {
         logger.info("State cache does not support CG optimization. Disabling CG optimization");
         jpfConfig.setProperty("symbolic.optimizechoices", "false");
+      } else if(jpfConfig.hasValue(Options.SOLVER_CACHE_FILE)) {
+        // With the optimization, SPF solves the branches before the sampling listener sees them
+        logger.info("Solver cache is used. Disabling CG optimization");
+        jpfConfig.setProperty("symbolic.optimizechoices", "false");
+      } else if(jpfConfig.getInt(Options.DEFERRED_CHECKS_INTERVAL,
+          Options.DEFAULT_DEFERRED_CHECKS_INTERVAL) > 0) {
+        // Deferred branches are replayed, which with the optimization would register CGs for
+        // branches with only one satisfiable outcome
+        logger.info("Feasibility checks are deferred. Disabling CG optimization");
+        jpfConfig.setProperty("symbolic.optimizechoices", "false");
       }
 
       if (pathQuantifier == null) {
@@ -223,15 +277,45 @@ public class SamplingAnalysis {
       CompositeTerminationStrategy terminationStrategy =
           new CompositeTerminationStrategy(terminationStrategies);
 
+      if(checkpointer == null && jpfConfig.hasValue(Options.CHECKPOINT_FILE)) {
+        checkpointer = new Checkpointer(new File(jpfConfig.getString(Options.CHECKPOINT_FILE)),
+            1000 * jpfConfig.getLong(Options.CHECKPOINT_INTERVAL,
+                Options.DEFAULT_CHECKPOINT_INTERVAL),
+            jpfConfig.getBoolean(Options.CHECKPOINT_RESUME, Options.DEFAULT_CHECKPOINT_RESUME));
+      }
+
       SamplingAnalysisListener samplingListener;
       if(frontierNode != null) {
         //Decorate sampling listener with frontier node capabilities
-        jpfListeners.add(new FrontierSamplingAnalysisListener(analysisStrategy, rewardFunction,
+        samplingListener = new FrontierSamplingAnalysisListener(analysisStrategy, rewardFunction,
             pathQuantifier, terminationStrategy, choicesStrategy, stateCache, eventObservers,
-            frontierNode));
+            frontierNode);
       } else {
-        jpfListeners.add(new SamplingAnalysisListener(analysisStrategy, rewardFunction,
-            pathQuantifier, terminationStrategy, choicesStrategy, stateCache, eventObservers));
+        samplingListener = new SamplingAnalysisListener(analysisStrategy, rewardFunction,
+            pathQuantifier, terminationStrategy, choicesStrategy, stateCache, eventObservers);
+      }
+      if(rewardBound == null && jpfConfig.hasValue(Options.REWARD_BOUND)) {
+        rewardBound = jpfConfig.getInstance(Options.REWARD_BOUND, RewardBound.class);
+      }
+      if(rewardBound != null) {
+        logger.info("Pruning subtrees with reward bound " + rewardBound.getClass().getName());
+      }
+      samplingListener.setRewardBound(rewardBound);
+      samplingListener.setCheckpointer(checkpointer);
+      jpfListeners.add(samplingListener);
+      if(stateCache instanceof JPFListener) {
+        // E.g. caches that follow the execution between choices
+        jpfListeners.add((JPFListener) stateCache);
+      }
+
+      if(jpfConfig.getBoolean(Options.SNAPSHOT_AT_METHOD, Options.DEFAULT_SNAPSHOT_AT_METHOD)) {
+        if(jpfConfig.hasValue("symbolic.method")) {
+          jpfListeners.add(new MethodEntrySnapshot(JPFUtil.extractSimpleMethodNames(
+              jpfConfig.getStringArray("symbolic.method"))));
+        } else {
+          logger.warning(Options.SNAPSHOT_AT_METHOD + " is set, but symbolic.method is not. " +
+              "Samples are restored to the initial state");
+        }
       }
 
       //Add additional listeners
@@ -252,9 +336,9 @@ public class SamplingAnalysis {
                            JPFFactory jpfFactory) {
     // Check that config object is using the symbolic instruction factory
     Class<?> instrFactory = config.getClass("jvm.insn_factory.class");
-    if(!instrFactory.equals(SymbolicInstructionFactory.class)) {
-      String msg = "Incorrect instruction factory " + instrFactory.getName() + ". Must be an " +
-          "instance " + SymbolicInstructionFactory.class.getName() + ". Is your site.properties, " +
+    if(!SymbolicInstructionFactory.class.isAssignableFrom(instrFactory)) {
+      String msg = "Incorrect instruction factory " + instrFactory.getName() + ". Must be (a " +
+          "subclass of) " + SymbolicInstructionFactory.class.getName() + ". Is your site.properties, " +
           "jpf.properties or app properties file incorrect?";
       logger.severe(msg);
       throw new AnalysisException(msg);
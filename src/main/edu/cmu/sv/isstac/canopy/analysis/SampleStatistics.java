@@ -27,11 +27,18 @@ package edu.cmu.sv.isstac.canopy.analysis;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
 
+import org.apache.commons.math3.stat.descriptive.AggregateSummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import edu.cmu.sv.isstac.canopy.distributed.WorkerStatistics;
+import edu.cmu.sv.isstac.canopy.search.PersistentSolverCache;
 import gov.nasa.jpf.search.Search;
 import gov.nasa.jpf.util.JPFLogger;
 
@@ -59,8 +66,16 @@ public class SampleStatistics implements AnalysisEventObserver {
   private SummaryStatistics sumStats = new SummaryStatistics();
   private int numberOfBestRewards = 0;
 
+  // Reward statistics of the analyses merged into these statistics, e.g. by parallel workers
+  private final List<StatisticalSummary> mergedRewardStats = new ArrayList<>();
+
   private SamplingResult finalResult;
 
+  // The solver cache is shared by the analyses of the JVM, so we count the lookups of this one
+  private PersistentSolverCache solverCache;
+  private long solverCacheHits = 0;
+  private long solverCacheLookups = 0;
+
   @Override
   public void sampleDone(Search searchState, long samples, long propagatedReward,
                          long pathVolume, SamplingResult.ResultContainer currentBestResult,
@@ -99,6 +114,10 @@ public class SampleStatistics implements AnalysisEventObserver {
       }
 
       this.finalResult = result;
+      if(this.solverCache != null) {
+        solverCacheHits += solverCache.getHits();
+        solverCacheLookups += solverCache.getLookups();
+      }
     }
   }
 
@@ -106,23 +125,68 @@ public class SampleStatistics implements AnalysisEventObserver {
   public void analysisStarted(Search search) {
     synchronized (this) {
       this.stopwatch = Stopwatch.createStarted();
+      this.solverCache = (search == null) ? null :
+          PersistentSolverCache.getOpened(search.getConfig());
+      if(this.solverCache != null) {
+        // The lookups so far are subtracted when the analysis is done
+        solverCacheHits = -solverCache.getHits();
+        solverCacheLookups = -solverCache.getLookups();
+      }
+    }
+  }
+
+  /**
+   * Merges the statistics of an analysis of a disjoint part of the tree, e.g. by a parallel
+   * worker. The other analysis was started startTime (in {@link #getTimeUnit()}) after this one.
+   * Note that the sample number of the best reward is the one of the other analysis.
+   */
+  public synchronized void merge(WorkerStatistics other, long startTime) {
+    totalSampleNum += other.getTotalSampleNum();
+    long n = other.getUniqueSampleNum();
+    if(n == 0) {
+      return;
+    }
+    uniqueSampleNum += n;
+    mergedRewardStats.add(new StatisticalSummaryValues(other.getRewardMean(),
+        other.getRewardVariance(), n, other.getBestReward(), other.getMinReward(),
+        other.getRewardMean() * n));
+
+    if(other.getBestReward() > bestReward) {
+      bestReward = other.getBestReward();
+      bestRewardSampleNum = other.getBestRewardSampleNum();
+      bestRewardTime = startTime + TIMEUNIT.convert(other.getBestRewardTime(),
+          other.getTimeUnit());
+      numberOfBestRewards = other.getNumberOfBestRewards();
+    } else if(other.getBestReward() == bestReward) {
+      numberOfBestRewards += other.getNumberOfBestRewards();
     }
   }
 
+  private StatisticalSummary getRewardStats() {
+    if(mergedRewardStats.isEmpty()) {
+      return this.sumStats;
+    }
+    List<StatisticalSummary> stats = new ArrayList<>(mergedRewardStats);
+    if(this.sumStats.getN() > 0) {
+      stats.add(this.sumStats.getSummary());
+    }
+    return AggregateSummaryStatistics.aggregate(stats);
+  }
+
   public synchronized double getRewardVariance() {
-    return this.sumStats.getVariance();
+    return getRewardStats().getVariance();
   }
 
   public synchronized double getRewardStandardDeviation() {
-    return this.sumStats.getStandardDeviation();
+    return getRewardStats().getStandardDeviation();
   }
 
   public synchronized double getRewardMean() {
-    return this.sumStats.getMean();
+    return getRewardStats().getMean();
   }
 
   public synchronized double getMinReward() {
-    return this.sumStats.getMin();
+    return getRewardStats().getMin();
   }
 
   public synchronized int getNumberOfBestRewards() {
@@ -157,6 +221,15 @@ public class SampleStatistics implements AnalysisEventObserver {
     return totalAnalysisTime;
   }
 
+  public synchronized SamplingResult getFinalResult() {
+    return finalResult;
+  }
+
+  // Fraction of the solver queries of the analysis that were answered by the solver cache
+  public synchronized double getSolverCacheHitRate() {
+    return (solverCacheLookups <= 0) ? 0 : (double) solverCacheHits / solverCacheLookups;
+  }
+
   public synchronized TimeUnit getTimeUnit() {
     return TIMEUNIT;
   }
@@ -177,6 +250,7 @@ public class SampleStatistics implements AnalysisEventObserver {
           .add("reward mean", getRewardMean())
           .add("reward variance", getRewardVariance())
           .add("reward stddev", getRewardStandardDeviation())
+          .add("solver cache hit rate", getSolverCacheHitRate())
           .add("final result", this.finalResult)
           .toString();
     }
@@ -26,6 +26,12 @@ package edu.cmu.sv.isstac.canopy.analysis;
 
 import com.google.common.base.MoreObjects;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import edu.cmu.sv.isstac.canopy.exploration.Checkpointable;
 import edu.cmu.sv.isstac.canopy.exploration.Path;
 import gov.nasa.jpf.symbc.numeric.PathCondition;
 
@@ -33,7 +39,7 @@ import gov.nasa.jpf.symbc.numeric.PathCondition;
  * @author Kasper Luckow
  *
  */
-public class SamplingResult {
+public class SamplingResult implements Checkpointable {
 
   // It would be much better with an immutable
   // result state here, but it clutters a bit
@@ -43,6 +49,8 @@ public class SamplingResult {
     private long sampleNumber = Long.MIN_VALUE;
     private Path path = null;
     private PathCondition pc = null;
+    // Set for results restored from a checkpoint, since path conditions cannot be restored
+    private String pcDescription = null;
 
     public ResultContainer() {
 
@@ -70,6 +78,7 @@ public class SamplingResult {
 
     public void setPathCondition(PathCondition pc) {
       this.pc = pc;
+      this.pcDescription = null;
     }
 
     public long getReward() {
@@ -93,17 +102,62 @@ public class SamplingResult {
     }
 
     public ResultContainer copy() {
-      return new ResultContainer(this.reward, this.sampleNumber,
-          this.path.copy(), this.pc.make_copy());
+      ResultContainer copy = new ResultContainer(this.reward, this.sampleNumber,
+          (this.path != null) ? this.path.copy() : null,
+          (this.pc != null) ? this.pc.make_copy() : null);
+      copy.pcDescription = this.pcDescription;
+      return copy;
+    }
+
+    private void writeCheckpoint(DataOutput out) throws IOException {
+      out.writeLong(reward);
+      out.writeLong(sampleNumber);
+      out.writeBoolean(path != null);
+      if(path != null) {
+        Checkpointable.writeVarInt(out, path.length());
+        for(int i = 0; i < path.length(); i++) {
+          Checkpointable.writeVarInt(out, path.getChoice(i));
+        }
+      }
+      String pcString = (pc != null) ? pc.toString() : pcDescription;
+      out.writeBoolean(pcString != null);
+      if(pcString != null) {
+        // writeUTF is limited to 64K, which large path conditions exceed
+        byte[] bytes = pcString.getBytes(StandardCharsets.UTF_8);
+        Checkpointable.writeVarInt(out, bytes.length);
+        out.write(bytes);
+      }
+    }
+
+    private void readCheckpoint(DataInput in) throws IOException {
+      this.reward = in.readLong();
+      this.sampleNumber = in.readLong();
+      this.path = null;
+      if(in.readBoolean()) {
+        this.path = new Path();
+        int length = Checkpointable.readVarInt(in);
+        for(int i = 0; i < length; i++) {
+          this.path.addChoice(Checkpointable.readVarInt(in));
+        }
+      }
+      this.pc = null;
+      this.pcDescription = null;
+      if(in.readBoolean()) {
+        byte[] bytes = new byte[Checkpointable.readVarInt(in)];
+        in.readFully(bytes);
+        this.pcDescription = new String(bytes, StandardCharsets.UTF_8);
+      }
     }
 
     @Override
     public String toString() {
+      String pcString = (pc != null) ? pc.toString() :
+          ((pcDescription != null) ? pcDescription : "");
       return isSet() ? MoreObjects.toStringHelper(this).
           add("reward", reward).
           add("samplesNumber", sampleNumber).
           add("path", path.toString()).
-          add("pc", (pc != null) ? pc.toString() : "").
+          add("pc", pcString).
           toString() : "";
     }
   }
@@ -144,6 +198,34 @@ public class SamplingResult {
     return this.numberOfSamples;
   }
   
+  // Merges the result of an analysis of a disjoint part of the tree, e.g. by a parallel worker
+  public void merge(SamplingResult other) {
+    this.numberOfSamples += other.numberOfSamples;
+    this.maxSuccState = max(this.maxSuccState, other.maxSuccState);
+    this.maxFailState = max(this.maxFailState, other.maxFailState);
+    this.maxGreyState = max(this.maxGreyState, other.maxGreyState);
+  }
+
+  private static ResultContainer max(ResultContainer current, ResultContainer other) {
+    return (other.getReward() > current.getReward()) ? other.copy() : current;
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    out.writeLong(this.numberOfSamples);
+    this.maxSuccState.writeCheckpoint(out);
+    this.maxFailState.writeCheckpoint(out);
+    this.maxGreyState.writeCheckpoint(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    this.numberOfSamples = in.readLong();
+    this.maxSuccState.readCheckpoint(in);
+    this.maxFailState.readCheckpoint(in);
+    this.maxGreyState.readCheckpoint(in);
+  }
+
   // Same as copy ctor
   public SamplingResult copy() {
     return new SamplingResult(this);
@@ -45,7 +45,9 @@ import edu.cmu.sv.isstac.canopy.Options;
 import edu.cmu.sv.isstac.canopy.SamplingAnalysis;
 import edu.cmu.sv.isstac.canopy.analysis.RewardDataSetGenerator;
 import edu.cmu.sv.isstac.canopy.analysis.SampleStatistics;
+import edu.cmu.sv.isstac.canopy.exploration.cache.BranchOutcomeCache;
 import edu.cmu.sv.isstac.canopy.exploration.cache.NoCache;
+import edu.cmu.sv.isstac.canopy.exploration.cache.TrieCache;
 import edu.cmu.sv.isstac.canopy.termination.SampleSizeTerminationStrategy;
 import edu.cmu.sv.isstac.canopy.termination.TimeBoundedTerminationStrategy;
 import gov.nasa.jpf.Config;
@@ -88,6 +90,14 @@ public class BatchProcessorIncreasingSize {
     str2exp.put("mcts100pnc", new CachingDecorator(new MCTSExperiment(true, false, false, 100), NoCache.class));
 
 
+    // State caching together with choice optimization vs. either of them alone
+    str2exp.put("mcts5pbo", new CachingDecorator(new BacktrackingDecorator(
+        new MCTSExperiment(true, false, false, 5), true, true), BranchOutcomeCache.class));
+    str2exp.put("mcts5pnco", new CachingDecorator(new BacktrackingDecorator(
+        new MCTSExperiment(true, false, false, 5), true, true), NoCache.class));
+    str2exp.put("mcts5ptc", new CachingDecorator(new MCTSExperiment(true, false, false, 5),
+        TrieCache.class));
+
     str2exp.put("mcts2p", new MCTSExperiment(true, false, false, Math.sqrt(2)));
     str2exp.put("mcts5p", new MCTSExperiment(true, false, false, 5));
     str2exp.put("mcts10p", new MCTSExperiment(true, false, false, 10));
@@ -357,7 +367,8 @@ public class BatchProcessorIncreasingSize {
             "seed," +
             "rewardMean," +
             "rewardVariance," +
-            "rewardStdDev" +
+            "rewardStdDev," +
+            "solverCacheHitRate" +
             "\n");
       } catch (IOException e) {
         throw new BatchProcessorException(e);
@@ -381,7 +392,8 @@ public class BatchProcessorIncreasingSize {
         .append(seed).append(',')
         .append(doubleFormat.format(statistics.getRewardMean())).append(',')
         .append(doubleFormat.format(statistics.getRewardVariance())).append(',')
-        .append(doubleFormat.format(statistics.getRewardStandardDeviation()))
+        .append(doubleFormat.format(statistics.getRewardStandardDeviation())).append(',')
+        .append(doubleFormat.format(statistics.getSolverCacheHitRate()))
         .append('\n');
     //Append results to file
 
@@ -0,0 +1,219 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.bytecode;
+
+import java.util.Arrays;
+
+import edu.cmu.sv.isstac.canopy.search.SamplingListener;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.search.SearchListenerAdapter;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.StackFrame;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Cost counters of the current sample. They are updated directly by the instructions of
+ * {@link CostCountingInstructionFactory}, such that cost-based reward functions do not have to
+ * listen to every executed instruction.
+ *
+ * The counters are saved for every state along the path and restored when the search
+ * backtracks. They are reset when a new sample is started. Note that this is a search listener
+ * only, so it is not notified of executed instructions.
+ */
+public class CostCounters extends SearchListenerAdapter implements SamplingListener {
+
+  public static final int DEFAULT_WEIGHT = 1;
+
+  private static final CostCounters instance = new CostCounters();
+
+  public static CostCounters getInstance() {
+    return instance;
+  }
+
+  private static final int COUNTERS = 4;
+
+  // Executed branch instructions (if*), including executions that register a choice generator
+  private long branches = 0;
+  // Executed branch and compare instructions with symbolic operands
+  private long symbolicBranches = 0;
+  // Total milliseconds passed to Thread.sleep
+  private long sleepTime = 0;
+  // Sum of the weights of the executed (instrumented) instructions
+  private long weightedCost = 0;
+
+  // Weights indexed by opcode
+  private final int[] weights = new int[256];
+
+  // The counters of the states on the path, COUNTERS longs per depth
+  private long[] saved = new long[COUNTERS * 64];
+
+  private CostCounters() {
+    Arrays.fill(weights, DEFAULT_WEIGHT);
+  }
+
+  public void setWeight(int opcode, int weight) {
+    this.weights[opcode] = weight;
+  }
+
+  public int getWeight(int opcode) {
+    return this.weights[opcode];
+  }
+
+  /*
+   * Called by the instructions. Instructions are counted once they complete, not when they are
+   * executed to register a choice generator or to initialize a class (see isReExecuted). The
+   * number of branches is the exception: like the listener that counted IfInstructions before,
+   * it includes the execution of a symbolic branch that registers its choice generator.
+   */
+
+  Instruction branchExecuted(Instruction insn, ThreadInfo ti, Instruction next,
+                             boolean symbolic) {
+    branches++;
+    if(!isReExecuted(ti, insn, next)) {
+      if(symbolic) {
+        symbolicBranches++;
+      }
+      weightedCost += weights[insn.getByteCode()];
+    }
+    return next;
+  }
+
+  Instruction compareExecuted(Instruction insn, ThreadInfo ti, Instruction next,
+                              boolean symbolic) {
+    if(!isReExecuted(ti, insn, next)) {
+      if(symbolic) {
+        symbolicBranches++;
+      }
+      weightedCost += weights[insn.getByteCode()];
+    }
+    return next;
+  }
+
+  Instruction sleepExecuted(Instruction insn, ThreadInfo ti, Instruction next, long millis) {
+    if(!isReExecuted(ti, insn, next)) {
+      sleepTime += millis;
+    }
+    return executed(insn, ti, next);
+  }
+
+  Instruction executed(Instruction insn, ThreadInfo ti, Instruction next) {
+    if(!isReExecuted(ti, insn, next)) {
+      weightedCost += weights[insn.getByteCode()];
+    }
+    return next;
+  }
+
+  /**
+   * True if insn did not complete and will be executed again. An instruction that registers a
+   * choice generator returns itself. An instruction that has to initialize or load a class, e.g.
+   * new or invokestatic, pushes direct call frames for this and continues with them; the frames
+   * return to the instruction.
+   */
+  static boolean isReExecuted(ThreadInfo ti, Instruction insn, Instruction next) {
+    if(next == insn) {
+      return true;
+    }
+    StackFrame top = ti.getTopFrame();
+    return top != null && top.isDirectCallFrame();
+  }
+
+  // True if the operand at slot (from the top of the operand stack) has a symbolic attribute
+  static boolean hasSymbolicOperand(ThreadInfo ti, int slot) {
+    // The top frame can be null, and getting operand attributes of a frame without any throws
+    StackFrame sf = ti.getTopFrame();
+    return sf != null && sf.hasOperandAttr() && sf.getOperandAttr(slot) != null;
+  }
+
+  static boolean hasSymbolicOperand(ThreadInfo ti, int slot1, int slot2) {
+    StackFrame sf = ti.getTopFrame();
+    return sf != null && sf.hasOperandAttr() &&
+        (sf.getOperandAttr(slot1) != null || sf.getOperandAttr(slot2) != null);
+  }
+
+  public long getBranches() {
+    return branches;
+  }
+
+  public long getSymbolicBranches() {
+    return symbolicBranches;
+  }
+
+  public long getSleepTime() {
+    return sleepTime;
+  }
+
+  public long getWeightedCost() {
+    return weightedCost;
+  }
+
+  public void reset() {
+    branches = 0;
+    symbolicBranches = 0;
+    sleepTime = 0;
+    weightedCost = 0;
+  }
+
+  @Override
+  public void searchStarted(Search search) {
+    reset();
+  }
+
+  @Override
+  public void newSampleStarted(Search samplingSearch) {
+    reset();
+    // The search may backtrack to the start state of the sample
+    save(samplingSearch.getDepth());
+  }
+
+  @Override
+  public void stateAdvanced(Search search) {
+    save(search.getDepth());
+  }
+
+  private void save(int depth) {
+    int idx = COUNTERS * depth;
+    if(idx + COUNTERS > saved.length) {
+      saved = Arrays.copyOf(saved, Math.max(idx + COUNTERS, saved.length * 2));
+    }
+    saved[idx] = branches;
+    saved[idx + 1] = symbolicBranches;
+    saved[idx + 2] = sleepTime;
+    saved[idx + 3] = weightedCost;
+  }
+
+  @Override
+  public void stateBacktracked(Search search) {
+    int idx = COUNTERS * search.getDepth();
+    if(idx + COUNTERS > saved.length) {
+      return;
+    }
+    branches = saved[idx];
+    symbolicBranches = saved[idx + 1];
+    sleepTime = saved[idx + 2];
+    weightedCost = saved[idx + 3];
+  }
+}
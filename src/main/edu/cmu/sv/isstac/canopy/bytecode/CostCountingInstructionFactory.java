@@ -0,0 +1,350 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.bytecode;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.symbc.SymbolicInstructionFactory;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.Instruction;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Symbolic instruction factory whose branch, compare, static invoke and allocation instructions
+ * update the {@link CostCounters} themselves. The instructions are created by
+ * SymbolicInstructionFactory and replaced by counting subclasses of the same class (see
+ * {@link CountingInstructions} and {@link CountingJVMInstructions}). This replaces
+ * listeners that inspect every executed instruction. The weights of the instrumented opcodes,
+ * which make up the weighted cost, are configured with canopy.cost.weights, e.g.
+ * if_icmplt:2,new:10
+ */
+public class CostCountingInstructionFactory extends SymbolicInstructionFactory {
+  private static final Logger logger =
+      JPFLogger.getLogger(CostCountingInstructionFactory.class.getName());
+
+  // The instrumented opcodes
+  private static final Map<String, Integer> OPCODES = new HashMap<>();
+  static {
+    OPCODES.put("fcmpl", 0x95);
+    OPCODES.put("fcmpg", 0x96);
+    OPCODES.put("dcmpl", 0x97);
+    OPCODES.put("dcmpg", 0x98);
+    OPCODES.put("ifeq", 0x99);
+    OPCODES.put("ifne", 0x9a);
+    OPCODES.put("iflt", 0x9b);
+    OPCODES.put("ifge", 0x9c);
+    OPCODES.put("ifgt", 0x9d);
+    OPCODES.put("ifle", 0x9e);
+    OPCODES.put("if_icmpeq", 0x9f);
+    OPCODES.put("if_icmpne", 0xa0);
+    OPCODES.put("if_icmplt", 0xa1);
+    OPCODES.put("if_icmpge", 0xa2);
+    OPCODES.put("if_icmpgt", 0xa3);
+    OPCODES.put("if_icmple", 0xa4);
+    OPCODES.put("if_acmpeq", 0xa5);
+    OPCODES.put("if_acmpne", 0xa6);
+    OPCODES.put("invokestatic", 0xb8);
+    OPCODES.put("new", 0xbb);
+    OPCODES.put("newarray", 0xbc);
+    OPCODES.put("anewarray", 0xbd);
+    OPCODES.put("multianewarray", 0xc5);
+    OPCODES.put("ifnull", 0xc6);
+    OPCODES.put("ifnonnull", 0xc7);
+  }
+
+  // Classes of instructions that were not replaced, which are logged once
+  private final Set<Class<?>> notCounted = new HashSet<>();
+
+  public CostCountingInstructionFactory(Config conf) {
+    super(conf);
+
+    CostCounters counters = CostCounters.getInstance();
+    for(int opcode : OPCODES.values()) {
+      counters.setWeight(opcode, CostCounters.DEFAULT_WEIGHT);
+    }
+    String[] weights = conf.getStringArray(Options.COST_WEIGHTS);
+    if(weights != null) {
+      for(String entry : weights) {
+        int sep = entry.indexOf(':');
+        Integer opcode = (sep < 0) ? null : OPCODES.get(entry.substring(0, sep).trim());
+        if(opcode == null) {
+          throw new IllegalArgumentException("Invalid weight " + entry + " (option " +
+              Options.COST_WEIGHTS + "). Must be <mnemonic>:<weight> with one of the " +
+              "instrumented instructions " + OPCODES.keySet());
+        }
+        counters.setWeight(opcode, Integer.parseInt(entry.substring(sep + 1).trim()));
+      }
+      logger.info("Using instruction weights " + String.join(",", weights));
+    }
+  }
+
+  @Override
+  public Instruction ifeq(int targetPc) {
+    return counting(super.ifeq(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IFEQ.class,
+        () -> new CountingInstructions.IFEQ(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFEQ.class,
+        () -> new CountingJVMInstructions.IFEQ(targetPc));
+  }
+
+  @Override
+  public Instruction ifne(int targetPc) {
+    return counting(super.ifne(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IFNE.class,
+        () -> new CountingInstructions.IFNE(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFNE.class,
+        () -> new CountingJVMInstructions.IFNE(targetPc));
+  }
+
+  @Override
+  public Instruction iflt(int targetPc) {
+    return counting(super.iflt(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IFLT.class,
+        () -> new CountingInstructions.IFLT(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFLT.class,
+        () -> new CountingJVMInstructions.IFLT(targetPc));
+  }
+
+  @Override
+  public Instruction ifge(int targetPc) {
+    return counting(super.ifge(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IFGE.class,
+        () -> new CountingInstructions.IFGE(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFGE.class,
+        () -> new CountingJVMInstructions.IFGE(targetPc));
+  }
+
+  @Override
+  public Instruction ifgt(int targetPc) {
+    return counting(super.ifgt(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IFGT.class,
+        () -> new CountingInstructions.IFGT(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFGT.class,
+        () -> new CountingJVMInstructions.IFGT(targetPc));
+  }
+
+  @Override
+  public Instruction ifle(int targetPc) {
+    return counting(super.ifle(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IFLE.class,
+        () -> new CountingInstructions.IFLE(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFLE.class,
+        () -> new CountingJVMInstructions.IFLE(targetPc));
+  }
+
+  @Override
+  public Instruction if_icmpeq(int targetPc) {
+    return counting(super.if_icmpeq(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IF_ICMPEQ.class,
+        () -> new CountingInstructions.IF_ICMPEQ(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ICMPEQ.class,
+        () -> new CountingJVMInstructions.IF_ICMPEQ(targetPc));
+  }
+
+  @Override
+  public Instruction if_icmpne(int targetPc) {
+    return counting(super.if_icmpne(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IF_ICMPNE.class,
+        () -> new CountingInstructions.IF_ICMPNE(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ICMPNE.class,
+        () -> new CountingJVMInstructions.IF_ICMPNE(targetPc));
+  }
+
+  @Override
+  public Instruction if_icmplt(int targetPc) {
+    return counting(super.if_icmplt(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IF_ICMPLT.class,
+        () -> new CountingInstructions.IF_ICMPLT(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ICMPLT.class,
+        () -> new CountingJVMInstructions.IF_ICMPLT(targetPc));
+  }
+
+  @Override
+  public Instruction if_icmpge(int targetPc) {
+    return counting(super.if_icmpge(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IF_ICMPGE.class,
+        () -> new CountingInstructions.IF_ICMPGE(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ICMPGE.class,
+        () -> new CountingJVMInstructions.IF_ICMPGE(targetPc));
+  }
+
+  @Override
+  public Instruction if_icmpgt(int targetPc) {
+    return counting(super.if_icmpgt(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IF_ICMPGT.class,
+        () -> new CountingInstructions.IF_ICMPGT(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ICMPGT.class,
+        () -> new CountingJVMInstructions.IF_ICMPGT(targetPc));
+  }
+
+  @Override
+  public Instruction if_icmple(int targetPc) {
+    return counting(super.if_icmple(targetPc),
+        gov.nasa.jpf.symbc.bytecode.IF_ICMPLE.class,
+        () -> new CountingInstructions.IF_ICMPLE(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ICMPLE.class,
+        () -> new CountingJVMInstructions.IF_ICMPLE(targetPc));
+  }
+
+  @Override
+  public Instruction if_acmpeq(int targetPc) {
+    return counting(super.if_acmpeq(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ACMPEQ.class,
+        () -> new CountingJVMInstructions.IF_ACMPEQ(targetPc));
+  }
+
+  @Override
+  public Instruction if_acmpne(int targetPc) {
+    return counting(super.if_acmpne(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IF_ACMPNE.class,
+        () -> new CountingJVMInstructions.IF_ACMPNE(targetPc));
+  }
+
+  @Override
+  public Instruction ifnull(int targetPc) {
+    return counting(super.ifnull(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFNULL.class,
+        () -> new CountingJVMInstructions.IFNULL(targetPc));
+  }
+
+  @Override
+  public Instruction ifnonnull(int targetPc) {
+    return counting(super.ifnonnull(targetPc),
+        gov.nasa.jpf.jvm.bytecode.IFNONNULL.class,
+        () -> new CountingJVMInstructions.IFNONNULL(targetPc));
+  }
+
+  @Override
+  public Instruction fcmpl() {
+    return counting(super.fcmpl(),
+        gov.nasa.jpf.symbc.bytecode.FCMPL.class,
+        () -> new CountingInstructions.FCMPL(),
+        gov.nasa.jpf.jvm.bytecode.FCMPL.class,
+        () -> new CountingJVMInstructions.FCMPL());
+  }
+
+  @Override
+  public Instruction fcmpg() {
+    return counting(super.fcmpg(),
+        gov.nasa.jpf.symbc.bytecode.FCMPG.class,
+        () -> new CountingInstructions.FCMPG(),
+        gov.nasa.jpf.jvm.bytecode.FCMPG.class,
+        () -> new CountingJVMInstructions.FCMPG());
+  }
+
+  @Override
+  public Instruction dcmpl() {
+    return counting(super.dcmpl(),
+        gov.nasa.jpf.symbc.bytecode.DCMPL.class,
+        () -> new CountingInstructions.DCMPL(),
+        gov.nasa.jpf.jvm.bytecode.DCMPL.class,
+        () -> new CountingJVMInstructions.DCMPL());
+  }
+
+  @Override
+  public Instruction dcmpg() {
+    return counting(super.dcmpg(),
+        gov.nasa.jpf.symbc.bytecode.DCMPG.class,
+        () -> new CountingInstructions.DCMPG(),
+        gov.nasa.jpf.jvm.bytecode.DCMPG.class,
+        () -> new CountingJVMInstructions.DCMPG());
+  }
+
+  @Override
+  public Instruction invokestatic(String clsName, String methodName, String methodSignature) {
+    return counting(super.invokestatic(clsName, methodName, methodSignature),
+        gov.nasa.jpf.symbc.bytecode.INVOKESTATIC.class,
+        () -> new CountingInstructions.INVOKESTATIC(clsName, methodName, methodSignature),
+        gov.nasa.jpf.jvm.bytecode.INVOKESTATIC.class,
+        () -> new CountingJVMInstructions.INVOKESTATIC(clsName, methodName, methodSignature));
+  }
+
+  @Override
+  public Instruction new_(String clsName) {
+    return counting(super.new_(clsName),
+        gov.nasa.jpf.jvm.bytecode.NEW.class,
+        () -> new CountingJVMInstructions.NEW(clsName));
+  }
+
+  @Override
+  public Instruction newarray(int typeCode) {
+    return counting(super.newarray(typeCode),
+        gov.nasa.jpf.symbc.bytecode.NEWARRAY.class,
+        () -> new CountingInstructions.NEWARRAY(typeCode),
+        gov.nasa.jpf.jvm.bytecode.NEWARRAY.class,
+        () -> new CountingJVMInstructions.NEWARRAY(typeCode));
+  }
+
+  @Override
+  public Instruction anewarray(String clsName) {
+    return counting(super.anewarray(clsName),
+        gov.nasa.jpf.symbc.bytecode.ANEWARRAY.class,
+        () -> new CountingInstructions.ANEWARRAY(clsName),
+        gov.nasa.jpf.jvm.bytecode.ANEWARRAY.class,
+        () -> new CountingJVMInstructions.ANEWARRAY(clsName));
+  }
+
+  @Override
+  public Instruction multianewarray(String clsName, int dimensions) {
+    return counting(super.multianewarray(clsName, dimensions),
+        gov.nasa.jpf.jvm.bytecode.MULTIANEWARRAY.class,
+        () -> new CountingJVMInstructions.MULTIANEWARRAY(clsName, dimensions));
+  }
+
+  /**
+   * The counting version of the instruction that SymbolicInstructionFactory created, i.e. the
+   * counting instruction that extends exactly the class of insn. It has the same semantics, and
+   * SPF's filter and choice of symbolic instructions are kept. Instructions of other classes,
+   * e.g. of another symbolic version of the opcode, are not counted.
+   */
+  private Instruction counting(Instruction insn, Class<? extends Instruction> symbolic,
+                               Supplier<Instruction> countingSymbolic,
+                               Class<? extends Instruction> concrete,
+                               Supplier<Instruction> countingConcrete) {
+    if(insn.getClass() == symbolic) {
+      return countingSymbolic.get();
+    }
+    return counting(insn, concrete, countingConcrete);
+  }
+
+  private Instruction counting(Instruction insn, Class<? extends Instruction> concrete,
+                               Supplier<Instruction> countingConcrete) {
+    if(insn.getClass() == concrete) {
+      return countingConcrete.get();
+    }
+    if(notCounted.add(insn.getClass())) {
+      logger.warning("Instructions of " + insn.getClass().getName() + " are not counted");
+    }
+    return insn;
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.bytecode;
+
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Counting versions of the symbolic instructions of SPF. {@link CostCountingInstructionFactory}
+ * only creates one of them where SymbolicInstructionFactory creates the symbolic instruction it
+ * extends, so the semantics are the same as with SymbolicInstructionFactory. Each of them
+ * updates the {@link CostCounters} when it has been executed.
+ */
+public final class CountingInstructions {
+
+  private CountingInstructions() { }
+
+  // Branches. The condition operand is on top of the stack (for if_icmp*, also below it)
+  public static class IFEQ extends gov.nasa.jpf.symbc.bytecode.IFEQ {
+    public IFEQ(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IFNE extends gov.nasa.jpf.symbc.bytecode.IFNE {
+    public IFNE(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IFLT extends gov.nasa.jpf.symbc.bytecode.IFLT {
+    public IFLT(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IFGE extends gov.nasa.jpf.symbc.bytecode.IFGE {
+    public IFGE(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IFGT extends gov.nasa.jpf.symbc.bytecode.IFGT {
+    public IFGT(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IFLE extends gov.nasa.jpf.symbc.bytecode.IFLE {
+    public IFLE(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IF_ICMPEQ extends gov.nasa.jpf.symbc.bytecode.IF_ICMPEQ {
+    public IF_ICMPEQ(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IF_ICMPNE extends gov.nasa.jpf.symbc.bytecode.IF_ICMPNE {
+    public IF_ICMPNE(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IF_ICMPLT extends gov.nasa.jpf.symbc.bytecode.IF_ICMPLT {
+    public IF_ICMPLT(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IF_ICMPGE extends gov.nasa.jpf.symbc.bytecode.IF_ICMPGE {
+    public IF_ICMPGE(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IF_ICMPGT extends gov.nasa.jpf.symbc.bytecode.IF_ICMPGT {
+    public IF_ICMPGT(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class IF_ICMPLE extends gov.nasa.jpf.symbc.bytecode.IF_ICMPLE {
+    public IF_ICMPLE(int targetPc) {
+      super(targetPc);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().branchExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  // Compares, which are followed by a branch on their (concrete) result
+  public static class FCMPG extends gov.nasa.jpf.symbc.bytecode.FCMPG {
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().compareExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class FCMPL extends gov.nasa.jpf.symbc.bytecode.FCMPL {
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 0, 1);
+      return CostCounters.getInstance().compareExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class DCMPG extends gov.nasa.jpf.symbc.bytecode.DCMPG {
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 1, 3);
+      return CostCounters.getInstance().compareExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  public static class DCMPL extends gov.nasa.jpf.symbc.bytecode.DCMPL {
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      boolean symbolic = CostCounters.hasSymbolicOperand(ti, 1, 3);
+      return CostCounters.getInstance().compareExecuted(this, ti, super.execute(ti), symbolic);
+    }
+  }
+
+  // Invocations of Thread.sleep(long) add the sleep time
+  public static class INVOKESTATIC extends gov.nasa.jpf.symbc.bytecode.INVOKESTATIC {
+    private final boolean isSleep;
+
+    public INVOKESTATIC(String clsName, String methodName, String methodSignature) {
+      super(clsName, methodName, methodSignature);
+      this.isSleep = "java.lang.Thread".equals(clsName) && "sleep".equals(methodName) &&
+          "(J)V".equals(methodSignature);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      // Calls within the model class of Thread are part of the same sleep
+      if(isSleep && !"java.lang.Thread".equals(getMethodInfo().getClassName())) {
+        long millis = ti.getTopFrame().peekLong();
+        return CostCounters.getInstance().sleepExecuted(this, ti, super.execute(ti), millis);
+      }
+      return CostCounters.getInstance().executed(this, ti, super.execute(ti));
+    }
+  }
+
+  // Allocations
+  public static class NEWARRAY extends gov.nasa.jpf.symbc.bytecode.NEWARRAY {
+    public NEWARRAY(int typeCode) {
+      super(typeCode);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      return CostCounters.getInstance().executed(this, ti, super.execute(ti));
+    }
+  }
+
+  public static class ANEWARRAY extends gov.nasa.jpf.symbc.bytecode.ANEWARRAY {
+    public ANEWARRAY(String clsName) {
+      super(clsName);
+    }
+
+    @Override
+    public Instruction execute(ThreadInfo ti) {
+      return CostCounters.getInstance().executed(this, ti, super.execute(ti));
+    }
+  }
+}
@@ -150,7 +150,8 @@ public class ComplexityAnalyzer {
             "seed," +
             "rewardMean," +
             "rewardVariance," +
-            "rewardStdDev" +
+            "rewardStdDev," +
+            "solverCacheHitRate" +
             "\n");
       } catch (IOException e) {
         throw new ComplexityAnalysisException(e);
@@ -173,7 +174,8 @@ public class ComplexityAnalyzer {
         .append(seed).append(',')
         .append(doubleFormat.format(statistics.getRewardMean())).append(',')
         .append(doubleFormat.format(statistics.getRewardVariance())).append(',')
-        .append(doubleFormat.format(statistics.getRewardStandardDeviation()))
+        .append(doubleFormat.format(statistics.getRewardStandardDeviation())).append(',')
+        .append(doubleFormat.format(statistics.getSolverCacheHitRate()))
         .append('\n');
     //Append results to file
 
@@ -90,22 +90,10 @@ public class SamplingWorker {
 
   public WorkerStatistics getStatus() {
     if(this.statistics == null) {
-      return new WorkerStatistics(TimeUnit.SECONDS, 0, 0,0,0,0,0,0,0,0,0,0);
+      return new WorkerStatistics(TimeUnit.SECONDS, 0, 0,0,0,0,0,0,0,0,0,0,0);
     }
 
-    WorkerStatistics workerStatistics = new WorkerStatistics(
-        this.statistics.getTimeUnit(),
-        this.statistics.getBestRewardSampleNum(),
-        this.statistics.getBestRewardTime(),
-        this.statistics.getBestReward(),
-        this.statistics.getTotalSampleNum(),
-        this.statistics.getUniqueSampleNum(),
-        this.statistics.getAvgThroughput(),
-        this.statistics.getTotalAnalysisTime(),
-        this.statistics.getRewardVariance(),
-        this.statistics.getRewardStandardDeviation(),
-        this.statistics.getRewardMean(),
-        this.statistics.getMinReward());
+    WorkerStatistics workerStatistics = WorkerStatistics.fromStatistics(this.statistics);
 
     return workerStatistics;
   }
@@ -27,6 +27,8 @@ package edu.cmu.sv.isstac.canopy.distributed;
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
 
+import edu.cmu.sv.isstac.canopy.analysis.SampleStatistics;
+
 /**
  * @author Kasper Luckow
  */
@@ -48,8 +50,7 @@ public class WorkerStatistics implements Serializable {
   private final double rewardMean;
   private final double rewardMin;
 
-
-  private final int numberOfBestRewards = 0;
+  private final int numberOfBestRewards;
 
   //POJO for worker statistics
   public WorkerStatistics(TimeUnit timeunit,
@@ -63,7 +64,8 @@ public class WorkerStatistics implements Serializable {
                           double rewardVar,
                           double rewardStdDev,
                           double rewardMean,
-                          double rewardMin) {
+                          double rewardMin,
+                          int numberOfBestRewards) {
     TIMEUNIT = timeunit;
     this.bestRewardSampleNum = bestRewardSampleNum;
     this.bestRewardTime = bestRewardTime;
@@ -77,6 +79,24 @@ public class WorkerStatistics implements Serializable {
     this.rewardStdDev = rewardStdDev;
     this.rewardMean = rewardMean;
     this.rewardMin = rewardMin;
+    this.numberOfBestRewards = numberOfBestRewards;
+  }
+
+  public static WorkerStatistics fromStatistics(SampleStatistics statistics) {
+    return new WorkerStatistics(
+        statistics.getTimeUnit(),
+        statistics.getBestRewardSampleNum(),
+        statistics.getBestRewardTime(),
+        statistics.getBestReward(),
+        statistics.getTotalSampleNum(),
+        statistics.getUniqueSampleNum(),
+        statistics.getAvgThroughput(),
+        statistics.getTotalAnalysisTime(),
+        statistics.getRewardVariance(),
+        statistics.getRewardStandardDeviation(),
+        statistics.getRewardMean(),
+        statistics.getMinReward(),
+        statistics.getNumberOfBestRewards());
   }
 
   public double getRewardVariance() {
@@ -24,9 +24,8 @@
 
 package edu.cmu.sv.isstac.canopy.exhaustive;
 
-import java.util.ArrayList;
-
 import edu.cmu.sv.isstac.canopy.AnalysisStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.search.TerminationType;
 import gov.nasa.jpf.search.Search;
 import gov.nasa.jpf.vm.ChoiceGenerator;
@@ -37,7 +36,7 @@ import gov.nasa.jpf.vm.VM;
  */
 public class ExhaustiveStrategy implements AnalysisStrategy {
   @Override
-  public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices) { }
+  public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) { }
 
   @Override
   public void newSampleStarted(Search samplingSearch) { }
@@ -0,0 +1,316 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exhaustive;
+
+import com.google.common.base.Stopwatch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.AnalysisException;
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.analysis.SampleStatistics;
+import edu.cmu.sv.isstac.canopy.analysis.SampleStatisticsOutputter;
+import edu.cmu.sv.isstac.canopy.analysis.SamplingResult;
+import edu.cmu.sv.isstac.canopy.exploration.Path;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFShell;
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Exhaustive analysis that runs a number of local worker processes (see
+ * {@link ParallelExhaustiveWorker}), each exploring the subtree of a path prefix. Initially, one
+ * worker explores the whole tree. When workers are idle and there are no prefixes left, the busy
+ * workers are asked to split their subtrees. The results and statistics of the workers are merged
+ * and reported like the ones of the {@link ExhaustiveShell}.
+ */
+public class ParallelExhaustiveShell implements JPFShell {
+
+  private static final Logger logger = JPFLogger.getLogger(ParallelExhaustiveShell.class
+      .getName());
+
+  // Milliseconds between split requests to a worker that had nothing to split
+  private static final long SPLIT_RETRY_INTERVAL = 100;
+
+  // The reply (see WorkerProtocol) of a worker or its termination if reply is null
+  private static class WorkerEvent {
+    private final WorkerProcess worker;
+    private final String reply;
+
+    WorkerEvent(WorkerProcess worker, String reply) {
+      this.worker = worker;
+      this.reply = reply;
+    }
+  }
+
+  private static class WorkerProcess {
+    private final int id;
+    private final Process process;
+    private final PrintWriter commands;
+
+    // The prefix being explored or null if the worker is idle
+    private Path prefix = null;
+    private long prefixStartTime;
+    private boolean splitRequested = false;
+    private long lastEmptySplit = 0;
+    private boolean terminated = false;
+
+    WorkerProcess(int id, Process process) {
+      this.id = id;
+      this.process = process;
+      this.commands = new PrintWriter(process.getOutputStream(), true);
+    }
+
+    void send(String command) {
+      commands.println(command);
+    }
+
+    boolean isIdle() {
+      return !terminated && prefix == null;
+    }
+
+    boolean isBusy() {
+      return !terminated && prefix != null;
+    }
+  }
+
+  private final Config config;
+  private final int numberOfWorkers;
+  private final String jvmArgs;
+
+  //ctor required for jpf shell
+  public ParallelExhaustiveShell(Config config) {
+    this.config = config;
+    this.numberOfWorkers = config.getInt(Options.PARALLEL_WORKERS,
+        Options.DEFAULT_PARALLEL_WORKERS);
+    this.jvmArgs = config.getString(Options.PARALLEL_JVM_ARGS, "");
+  }
+
+  @Override
+  public void start(String[] args) {
+    File workerConfig;
+    try {
+      workerConfig = writeWorkerConfig();
+    } catch (IOException e) {
+      logger.severe(e.getMessage());
+      throw new AnalysisException(e);
+    }
+
+    BlockingQueue<WorkerEvent> events = new LinkedBlockingQueue<>();
+    List<WorkerProcess> workers = new ArrayList<>();
+    try {
+      for(int id = 0; id < numberOfWorkers; id++) {
+        workers.add(startWorker(id, workerConfig, events));
+      }
+      logger.info("Started " + workers.size() + " workers");
+      explore(workers, events);
+    } catch (IOException | InterruptedException e) {
+      logger.severe(e.getMessage());
+      throw new AnalysisException(e);
+    } finally {
+      for(WorkerProcess worker : workers) {
+        worker.send(WorkerProtocol.QUIT);
+      }
+      for(WorkerProcess worker : workers) {
+        try {
+          if(!worker.process.waitFor(10, TimeUnit.SECONDS)) {
+            worker.process.destroyForcibly();
+          }
+        } catch (InterruptedException e) {
+          worker.process.destroyForcibly();
+        }
+      }
+      workerConfig.delete();
+    }
+  }
+
+  private void explore(List<WorkerProcess> workers, BlockingQueue<WorkerEvent> events)
+      throws IOException, InterruptedException {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    SampleStatistics statistics = new SampleStatisticsOutputter(System.out);
+    SamplingResult result = new SamplingResult();
+    statistics.analysisStarted(null);
+
+    Deque<Path> prefixes = new ArrayDeque<>();
+    prefixes.add(new Path());
+    long splits = 0;
+
+    while(true) {
+      for(WorkerProcess worker : workers) {
+        if(worker.isIdle() && !prefixes.isEmpty()) {
+          worker.prefix = prefixes.poll();
+          worker.prefixStartTime = stopwatch.elapsed(statistics.getTimeUnit());
+          worker.send(WorkerProtocol.EXPLORE + " " + worker.prefix.toString());
+          logger.fine("Worker " + worker.id + " explores " + worker.prefix.toString());
+        }
+      }
+
+      int idle = 0;
+      int busy = 0;
+      int outstandingSplits = 0;
+      for(WorkerProcess worker : workers) {
+        idle += worker.isIdle() ? 1 : 0;
+        busy += worker.isBusy() ? 1 : 0;
+        outstandingSplits += worker.splitRequested ? 1 : 0;
+      }
+      if(busy == 0 && outstandingSplits == 0) {
+        // Idle workers are only left when there are no prefixes left
+        break;
+      }
+
+      // Ask busy workers for work, at most one split for every idle worker
+      long now = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      for(WorkerProcess worker : workers) {
+        if(outstandingSplits >= idle) {
+          break;
+        }
+        if(worker.isBusy() && !worker.splitRequested &&
+            now - worker.lastEmptySplit >= SPLIT_RETRY_INTERVAL) {
+          worker.splitRequested = true;
+          worker.send(WorkerProtocol.SPLIT);
+          outstandingSplits++;
+        }
+      }
+
+      WorkerEvent event = events.poll(SPLIT_RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+      if(event == null) {
+        continue;
+      }
+      WorkerProcess worker = event.worker;
+      if(event.reply == null) {
+        worker.terminated = true;
+        if(worker.prefix != null || worker.splitRequested) {
+          throw new AnalysisException("Worker " + worker.id + " terminated while exploring " +
+              worker.prefix);
+        }
+        if(workers.stream().allMatch(w -> w.terminated)) {
+          throw new AnalysisException("All workers terminated");
+        }
+      } else if(event.reply.startsWith(WorkerProtocol.SPLIT)) {
+        worker.splitRequested = false;
+        String[] donated = event.reply.substring(WorkerProtocol.SPLIT.length()).trim()
+            .split(" ");
+        if(donated[0].isEmpty()) {
+          worker.lastEmptySplit = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        } else {
+          for(String prefix : donated) {
+            prefixes.add(WorkerProtocol.decodePrefix(prefix));
+          }
+          splits++;
+        }
+      } else if(event.reply.startsWith(WorkerProtocol.DONE)) {
+        String[] done = event.reply.split(" ");
+        result.merge(WorkerProtocol.decodeResult(done[1]));
+        statistics.merge(WorkerProtocol.decodeStatistics(done[2]), worker.prefixStartTime);
+        worker.prefix = null;
+      }
+    }
+
+    logger.info("Explored " + result.getNumberOfSamples() + " paths with " + workers.size() +
+        " workers and " + splits + " splits");
+    statistics.analysisDone(result);
+  }
+
+  // The workers are run by the JPF launcher with the config of this shell
+  private WorkerProcess startWorker(int id, File workerConfig, BlockingQueue<WorkerEvent> events)
+      throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator +
+        "java");
+    for(String arg : jvmArgs.trim().split("\\s+")) {
+      if(!arg.isEmpty()) {
+        command.add(arg);
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("gov.nasa.jpf.tool.RunJPF");
+    command.add(workerConfig.getAbsolutePath());
+
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+    WorkerProcess worker = new WorkerProcess(id, processBuilder.start());
+
+    Thread replyReader = new Thread(() -> readReplies(worker, events),
+        "canopy-worker-" + id);
+    replyReader.setDaemon(true);
+    replyReader.start();
+    return worker;
+  }
+
+  private void readReplies(WorkerProcess worker, BlockingQueue<WorkerEvent> events) {
+    try(BufferedReader in = new BufferedReader(
+        new InputStreamReader(worker.process.getInputStream()))) {
+      String line;
+      while((line = in.readLine()) != null) {
+        String reply = WorkerProtocol.getReply(line);
+        if(reply != null) {
+          events.add(new WorkerEvent(worker, reply));
+        } else {
+          logger.fine("[worker " + worker.id + "] " + line);
+        }
+      }
+    } catch (IOException e) {
+      logger.severe(e.getMessage());
+    }
+    events.add(new WorkerEvent(worker, null));
+  }
+
+  private File writeWorkerConfig() throws IOException {
+    File file = File.createTempFile("canopy-worker", ".jpf");
+    file.deleteOnExit();
+
+    Properties workerConfig = new Properties();
+    for(String key : config.stringPropertyNames()) {
+      workerConfig.setProperty(key, config.getProperty(key));
+    }
+    workerConfig.setProperty("shell", ParallelExhaustiveWorker.class.getName());
+    workerConfig.setProperty(ParallelExhaustiveWorker.CONFIG_FILE, file.getAbsolutePath());
+    // The statistics are reported by this shell
+    workerConfig.setProperty(Options.SHOW_STATISTICS, "false");
+    workerConfig.setProperty(Options.SHOW_LIVE_STATISTICS, "false");
+
+    try(OutputStream out = new FileOutputStream(file)) {
+      workerConfig.store(out, "Config of the parallel exhaustive workers");
+    }
+    return file;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exhaustive;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.AnalysisCreationException;
+import edu.cmu.sv.isstac.canopy.AnalysisException;
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.SamplingAnalysis;
+import edu.cmu.sv.isstac.canopy.analysis.SampleStatistics;
+import edu.cmu.sv.isstac.canopy.distributed.WorkerStatistics;
+import edu.cmu.sv.isstac.canopy.exploration.Path;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.JPFShell;
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Worker process of the {@link ParallelExhaustiveShell}. It exhaustively explores the subtrees
+ * of the prefixes it receives from the shell (see {@link WorkerProtocol}) and donates parts of
+ * the current subtree when the shell asks for it.
+ */
+public class ParallelExhaustiveWorker implements JPFShell {
+
+  private static final Logger logger = JPFLogger.getLogger(ParallelExhaustiveWorker.class
+      .getName());
+
+  // The config file written by the shell. The config is reloaded for every prefix, since the
+  // analysis changes it
+  static final String CONFIG_FILE = Options.SAMPLING_CONF_PREFIX + ".parallel.configfile";
+
+  private static final Path QUIT = new Path();
+
+  private final Config config;
+  private final BlockingQueue<Path> prefixes = new LinkedBlockingQueue<>();
+  private volatile SubtreeSplitter splitter;
+
+  //ctor required for jpf shell
+  public ParallelExhaustiveWorker(Config config) {
+    this.config = config;
+  }
+
+  @Override
+  public void start(String[] args) {
+    Thread commandReader = new Thread(this::readCommands, "canopy-worker-commands");
+    commandReader.setDaemon(true);
+    commandReader.start();
+
+    try {
+      Path prefix;
+      while((prefix = prefixes.take()) != QUIT) {
+        explore(prefix);
+      }
+    } catch (InterruptedException e) {
+      logger.severe(e.getMessage());
+      throw new AnalysisException(e);
+    }
+  }
+
+  private void explore(Path prefix) {
+    Config prefixConfig = new Config(new String[] { config.getString(CONFIG_FILE) });
+
+    SampleStatistics statistics = new SampleStatistics();
+    SubtreeSplitter prefixSplitter = new SubtreeSplitter(prefix.length(),
+        donated -> WorkerProtocol.reply(WorkerProtocol.SPLIT +
+            WorkerProtocol.encodePrefixes(donated)));
+
+    SamplingAnalysis.Builder builder = new SamplingAnalysis.Builder();
+    builder.setFrontierNode(prefix);
+    builder.addEventObserver(statistics);
+    builder.addListener(prefixSplitter);
+
+    SamplingAnalysis samplingAnalysis;
+    try {
+      samplingAnalysis = builder.build(prefixConfig, new ExhaustiveStrategy(),
+          new JPFExhaustiveFactory());
+    } catch (AnalysisCreationException e) {
+      logger.severe(e.getMessage());
+      throw new AnalysisException(e);
+    }
+    this.splitter = prefixSplitter;
+    samplingAnalysis.run();
+
+    try {
+      WorkerProtocol.reply(WorkerProtocol.DONE + " " +
+          WorkerProtocol.encodeResult(statistics.getFinalResult()) + " " +
+          WorkerProtocol.encodeStatistics(WorkerStatistics.fromStatistics(statistics)));
+    } catch (IOException e) {
+      logger.severe(e.getMessage());
+      throw new AnalysisException(e);
+    }
+  }
+
+  private void readCommands() {
+    try(BufferedReader in = new BufferedReader(new InputStreamReader(System.in))) {
+      String line;
+      while((line = in.readLine()) != null) {
+        if(line.startsWith(WorkerProtocol.EXPLORE)) {
+          prefixes.add(WorkerProtocol.decodePrefix(
+              line.substring(WorkerProtocol.EXPLORE.length()).trim()));
+        } else if(line.equals(WorkerProtocol.SPLIT)) {
+          SubtreeSplitter current = this.splitter;
+          // Between prefixes there is nothing to split
+          if(current == null || !current.requestSplit()) {
+            WorkerProtocol.reply(WorkerProtocol.SPLIT);
+          }
+        } else if(line.equals(WorkerProtocol.QUIT)) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      logger.severe(e.getMessage());
+    }
+    // The shell has gone away or asked us to quit
+    prefixes.add(QUIT);
+  }
+}
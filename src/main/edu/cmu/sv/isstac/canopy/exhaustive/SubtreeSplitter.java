@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exhaustive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.cmu.sv.isstac.canopy.exploration.Path;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.search.SearchListenerAdapter;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Donates unexplored subtrees of a depth-first search on request. Splits are requested from
+ * another thread and performed by the search thread at the next state advancement: the
+ * shallowest choice generator below the frontier that has choices left is marked done, such
+ * that the search does not explore them, and a prefix is donated for each of its remaining
+ * choices. Every request gets exactly one reply, which is empty if there is nothing to split.
+ */
+class SubtreeSplitter extends SearchListenerAdapter {
+
+  private final int frontierLength;
+  private final Consumer<List<Path>> donations;
+
+  private volatile boolean splitRequested = false;
+  private boolean finished = false;
+
+  SubtreeSplitter(int frontierLength, Consumer<List<Path>> donations) {
+    this.frontierLength = frontierLength;
+    this.donations = donations;
+  }
+
+  // Returns false if the search has finished, in which case the request is not replied to
+  synchronized boolean requestSplit() {
+    if(finished) {
+      return false;
+    }
+    splitRequested = true;
+    return true;
+  }
+
+  @Override
+  public void stateAdvanced(Search search) {
+    if(splitRequested) {
+      synchronized (this) {
+        splitRequested = false;
+        donations.accept(split(search.getVM().getChoiceGenerator()));
+      }
+    }
+  }
+
+  @Override
+  public synchronized void searchFinished(Search search) {
+    finished = true;
+    if(splitRequested) {
+      splitRequested = false;
+      donations.accept(Collections.emptyList());
+    }
+  }
+
+  private List<Path> split(ChoiceGenerator<?> currentCG) {
+    if(currentCG == null) {
+      return Collections.emptyList();
+    }
+    ChoiceGenerator<?>[] cgs = currentCG.getAll();
+    for(int level = this.frontierLength; level < cgs.length; level++) {
+      ChoiceGenerator<?> cg = cgs[level];
+      // Choices are assumed to be selected incrementally, see JPFUtil.getCurrentChoiceOfCG
+      int nextChoice = cg.getProcessedNumberOfChoices();
+      int numberOfChoices = cg.getTotalNumberOfChoices();
+      if(!cg.isDone() && nextChoice < numberOfChoices) {
+        Path prefix = new Path();
+        for(int i = 0; i < level; i++) {
+          prefix.addChoice(cgs[i]);
+        }
+        List<Path> donated = new ArrayList<>();
+        for(int choice = nextChoice; choice < numberOfChoices; choice++) {
+          Path path = prefix.copy();
+          path.addChoice(choice);
+          donated.add(path);
+        }
+        cg.setDone();
+        return donated;
+      }
+    }
+    return Collections.emptyList();
+  }
+}
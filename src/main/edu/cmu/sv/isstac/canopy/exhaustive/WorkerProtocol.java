@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exhaustive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.util.Base64;
+import java.util.List;
+
+import edu.cmu.sv.isstac.canopy.analysis.SamplingResult;
+import edu.cmu.sv.isstac.canopy.distributed.WorkerStatistics;
+import edu.cmu.sv.isstac.canopy.exploration.Path;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Line protocol between the parallel exhaustive shell and its workers. The shell writes commands
+ * to the stdin of the workers:
+ *   explore <prefix>   explore the subtree of the prefix
+ *   split              donate unexplored subtrees of the current prefix
+ *   quit
+ * The workers reply on stdout, where the lines are marked with {@link #MARKER} to tell them
+ * apart from the output of JPF:
+ *   split <prefix>*    the donated prefixes (none if there is nothing to split)
+ *   done <result> <statistics>
+ * Prefixes are written as by {@link Path#toString()}; results and statistics are base64 encoded.
+ */
+final class WorkerProtocol {
+
+  static final String MARKER = "@canopy ";
+
+  static final String EXPLORE = "explore";
+  static final String SPLIT = "split";
+  static final String QUIT = "quit";
+  static final String DONE = "done";
+
+  private WorkerProtocol() { }
+
+  // Used by the workers for replies to the shell
+  static void reply(String message) {
+    PrintStream out = System.out;
+    synchronized (out) {
+      out.println(MARKER + message);
+      out.flush();
+    }
+  }
+
+  // Returns the reply of a line of worker output or null if it is not a reply
+  static String getReply(String line) {
+    // Other output may not have been terminated with a line break before the marker
+    int idx = line.indexOf(MARKER);
+    return (idx >= 0) ? line.substring(idx + MARKER.length()) : null;
+  }
+
+  static String encodePrefixes(List<Path> prefixes) {
+    StringBuilder sb = new StringBuilder();
+    for(Path prefix : prefixes) {
+      sb.append(' ').append(prefix.toString());
+    }
+    return sb.toString();
+  }
+
+  static Path decodePrefix(String prefix) {
+    String choices = prefix.substring(1, prefix.length() - 1);
+    Path path = new Path();
+    if(!choices.isEmpty()) {
+      for(String choice : choices.split(",")) {
+        path.addChoice(Integer.parseInt(choice));
+      }
+    }
+    return path;
+  }
+
+  static String encodeResult(SamplingResult result) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(DataOutputStream out = new DataOutputStream(bytes)) {
+      result.writeCheckpoint(out);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  static SamplingResult decodeResult(String encoded) throws IOException {
+    SamplingResult result = new SamplingResult();
+    try(DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(Base64.getDecoder().decode(encoded)))) {
+      result.readCheckpoint(in);
+    }
+    return result;
+  }
+
+  static String encodeStatistics(WorkerStatistics statistics) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(statistics);
+    }
+    return Base64.getEncoder().encodeToString(bytes.toByteArray());
+  }
+
+  static WorkerStatistics decodeStatistics(String encoded) throws IOException {
+    try(ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(Base64.getDecoder().decode(encoded)))) {
+      return (WorkerStatistics) in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -24,7 +24,6 @@
 
 package edu.cmu.sv.isstac.canopy.exploration;
 
-import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import gov.nasa.jpf.util.JPFLogger;
@@ -41,11 +40,9 @@ public class AllChoicesStrategy implements ChoicesStrategy {
   private Trie exploredPaths = new Trie();
 
   @Override
-  public ArrayList<Integer> getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg) {
-    ArrayList<Integer> choices = new ArrayList<>();
-    for(int i = 0; i < cg.getTotalNumberOfChoices(); i++)
-      choices.add(i);
-    return choices;
+  public void getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg,
+                                 ChoiceSet eligibleChoices) {
+    eligibleChoices.setAll(cg.getTotalNumberOfChoices());
   }
 
   @Override
@@ -0,0 +1,622 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import gov.nasa.jpf.vm.Path;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Trie with the same contract as {@link Trie}, but where nodes are not objects. A node is an
+ * index into a set of int storages: the parent of each node, the offset of its children in a
+ * shared pool, and a bitset holding the flags. The children of a node are stored as a
+ * contiguous block in the pool where the first slot is the number of choices, the second slot is
+ * the number of children with the flag set, and the remaining slots are the indices of the
+ * child nodes (or NO_NODE if the child has not been added yet).
+ *
+ * For binary choices (PC choice generators), an inner node takes up 24 bytes (parent, child
+ * offset and four pool slots) and a leaf takes up 8 bytes, whereas a {@link Trie.TrieNode}
+ * takes up ~32 bytes for the object plus ~24 bytes for its next array.
+ *
+ * Nodes and child blocks removed by {@link #collapse(int)} are kept in free lists and reused for
+ * new nodes, so the arrays only grow with the number of live nodes.
+ *
+ * The storages are heap arrays by default. With {@link MappedIntStorage} the trie lives in a
+ * memory-mapped file instead, which allows it to grow beyond the heap.
+ */
+public class ArrayTrie implements Checkpointable {
+
+  public static final int NO_NODE = -1;
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  private final int initialCapacity;
+  private final IntStorage.Factory storageFactory;
+
+  private IntStorage parents;
+  private IntStorage childrenOffsets;
+  private IntStorage childrenPool;
+  // One bit per node
+  private IntStorage flagWords;
+
+  // Live nodes, and the number of node indices handed out so far (including freed ones)
+  private int nodes;
+  private int size;
+  private int poolSize;
+
+  // Free lists. Freed nodes are chained through parents; freed child blocks are chained through
+  // their second slot and kept per number of choices
+  private int freeNodes = NO_NODE;
+  private int[] freeBlocks = new int[0];
+
+  private long reclaimedNodes;
+  private long reclaimedBytes;
+
+  private int root = NO_NODE;
+  private int lastAdded = NO_NODE;
+  private int flags;
+
+  // Nodes along the path of the last cursor used for a lookup (see Trie#getNode(PathCursor))
+  private PathCursor cursor;
+  private int[] cursorNodes = new int[64];
+  private long[] cursorStamps = new long[64];
+  private int cursorSynced = 0;
+  private int cursorModCount = -1;
+  private int modCount = 0;
+
+  public ArrayTrie() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public ArrayTrie(int initialCapacity) {
+    this(initialCapacity, HeapIntStorage.FACTORY);
+  }
+
+  public ArrayTrie(IntStorage.Factory storageFactory) {
+    this(DEFAULT_INITIAL_CAPACITY, storageFactory);
+  }
+
+  public ArrayTrie(int initialCapacity, IntStorage.Factory storageFactory) {
+    this.initialCapacity = Math.max(initialCapacity, 1);
+    this.storageFactory = storageFactory;
+    allocate();
+  }
+
+  private void allocate() {
+    this.parents = storageFactory.create(initialCapacity);
+    this.childrenOffsets = storageFactory.create(initialCapacity);
+    // Most nodes will be binary (PC choices), i.e. four slots per inner node
+    this.childrenPool = storageFactory.create(initialCapacity * 4);
+    this.flagWords = storageFactory.create(flagWordsFor(initialCapacity));
+    this.nodes = 0;
+    this.size = 0;
+    this.poolSize = 0;
+    this.freeNodes = NO_NODE;
+    this.freeBlocks = new int[0];
+  }
+
+  public int getRoot() {
+    return this.root;
+  }
+
+  public int getNode(Path path) {
+    int node = root;
+    for(int d = 0; d < path.size() && node != NO_NODE; d++) {
+      node = getChild(node, Trie.getChoice(path, d));
+    }
+    return node;
+  }
+
+  // Node reached by a sequence of choices from the root, e.g. one that is not being executed
+  public int getNode(edu.cmu.sv.isstac.canopy.exploration.Path choices) {
+    int node = root;
+    for(int d = 0; d < choices.length() && node != NO_NODE; d++) {
+      node = getChild(node, choices.getChoice(d));
+    }
+    return node;
+  }
+
+  /**
+   * Incremental version of {@link #getNode(Path)} that is O(1) amortized when following the
+   * cursor one level at a time.
+   */
+  public int getNode(PathCursor cursor) {
+    int depth = cursor.getDepth();
+    if(cursor != this.cursor) {
+      this.cursor = cursor;
+      cursorSynced = 0;
+    }
+    if(cursorModCount != modCount) {
+      // Nodes may have been added where we previously did not find any
+      while(cursorSynced > 0 && cursorNodes[cursorSynced] == NO_NODE) {
+        cursorSynced--;
+      }
+      cursorModCount = modCount;
+    }
+    cursorNodes[0] = root;
+
+    if(cursorSynced > depth) {
+      cursorSynced = depth;
+    }
+    while(cursorSynced > 0 && cursorStamps[cursorSynced] != cursor.getStamp(cursorSynced - 1)) {
+      cursorSynced--;
+    }
+
+    if(depth >= cursorNodes.length) {
+      int capacity = Math.max(depth + 1, cursorNodes.length * 2);
+      cursorNodes = Arrays.copyOf(cursorNodes, capacity);
+      cursorStamps = Arrays.copyOf(cursorStamps, capacity);
+    }
+    while(cursorSynced < depth) {
+      int node = cursorNodes[cursorSynced];
+      int nxt = (node == NO_NODE) ? NO_NODE : getChild(node, cursor.getChoice(cursorSynced));
+      cursorStamps[cursorSynced + 1] = cursor.getStamp(cursorSynced);
+      cursorNodes[++cursorSynced] = nxt;
+    }
+    return cursorNodes[depth];
+  }
+
+  public boolean isFlagSet(Path path) {
+    int node = getNode(path);
+    if(node != NO_NODE)
+      return isFlagSet(node);
+    else
+      return false;
+  }
+
+  public boolean hasFlag(Path path) {
+    return getNode(path) != NO_NODE;
+  }
+
+  public boolean contains(Path path) {
+    return getNode(path) != NO_NODE;
+  }
+
+  public void setFlag(Path path, boolean flag) {
+    if(root == NO_NODE) {
+      root = newNode(NO_NODE);
+    }
+
+    int current = root;
+    for(int d = 0; d < path.size(); d++) {
+      // As in Trie, we defer creation of the children because a terminating path can be a
+      // prefix of other paths (e.g. if an exception is thrown)
+      if(childrenOffsets.get(current) == NO_NODE) {
+        initChildren(current, Trie.getNumberOfChoices(path, d));
+      }
+
+      int slot = childrenOffsets.get(current) + 2 + Trie.getChoice(path, d);
+      int next = childrenPool.get(slot);
+      if(next == NO_NODE) {
+        next = newNode(current);
+        childrenPool.set(slot, next);
+      }
+      current = next;
+    }
+
+    //We are done adding the path
+    if(flag)
+      flags++;
+    setFlag(current, flag);
+    lastAdded = current;
+  }
+
+  // Note that the node may have been removed if collapse was invoked after it was added
+  public int getLastAddedLeafNode() {
+    return this.lastAdded;
+  }
+
+  public int getParent(int node) {
+    return parents.get(node);
+  }
+
+  public boolean isFlagSet(int node) {
+    return (flagWords.get(node >>> 5) & (1 << (node & 31))) != 0;
+  }
+
+  public void setFlag(int node, boolean flag) {
+    int parent = parents.get(node);
+    if(parent != NO_NODE && isFlagSet(node) != flag) {
+      // Keep the number of flagged children of the parent up to date
+      int counterSlot = childrenOffsets.get(parent) + 1;
+      childrenPool.set(counterSlot, childrenPool.get(counterSlot) + (flag ? 1 : -1));
+    }
+    setFlagBit(node, flag);
+  }
+
+  private void setFlagBit(int node, boolean flag) {
+    int word = flagWords.get(node >>> 5);
+    int bit = 1 << (node & 31);
+    flagWords.set(node >>> 5, flag ? (word | bit) : (word & ~bit));
+  }
+
+  private static int flagWordsFor(int nodes) {
+    return (nodes >>> 5) + 1;
+  }
+
+  public int getNumberOfFlaggedChildren(int node) {
+    int offset = childrenOffsets.get(node);
+    return (offset == NO_NODE) ? 0 : childrenPool.get(offset + 1);
+  }
+
+  // True if the node has children and all of them have the flag set
+  public boolean areAllChildrenFlagged(int node) {
+    int offset = childrenOffsets.get(node);
+    return offset != NO_NODE && childrenPool.get(offset + 1) == childrenPool.get(offset);
+  }
+
+  public boolean hasChildren(int node) {
+    return childrenOffsets.get(node) != NO_NODE;
+  }
+
+  // Number of choices of the node, i.e., 0 if the children have not been initialized yet
+  public int getNumberOfChildren(int node) {
+    int offset = childrenOffsets.get(node);
+    return (offset == NO_NODE) ? 0 : childrenPool.get(offset);
+  }
+
+  public int getChild(int node, int choice) {
+    int offset = childrenOffsets.get(node);
+    // Slots past the number of choices belong to the next block in the pool
+    if(offset == NO_NODE || choice >= childrenPool.get(offset)) return NO_NODE;
+    return childrenPool.get(offset + 2 + choice);
+  }
+
+  private int newNode(int parent) {
+    int node;
+    if(freeNodes != NO_NODE) {
+      node = freeNodes;
+      freeNodes = parents.get(node);
+    } else {
+      if(size == parents.capacity()) {
+        int newCapacity = grow(parents.capacity());
+        parents.ensureCapacity(newCapacity);
+        childrenOffsets.ensureCapacity(newCapacity);
+        flagWords.ensureCapacity(flagWordsFor(newCapacity));
+      }
+      node = size++;
+    }
+    nodes++;
+    parents.set(node, parent);
+    childrenOffsets.set(node, NO_NODE);
+    setFlagBit(node, false);
+    modCount++;
+    return node;
+  }
+
+  private void initChildren(int node, int siblingSize) {
+    if(siblingSize < freeBlocks.length && freeBlocks[siblingSize] != NO_NODE) {
+      int offset = freeBlocks[siblingSize];
+      freeBlocks[siblingSize] = childrenPool.get(offset + 1);
+      childrenPool.set(offset + 1, 0);
+      childrenPool.fill(offset + 2, offset + 2 + siblingSize, NO_NODE);
+      childrenOffsets.set(node, offset);
+      return;
+    }
+    int required = poolSize + siblingSize + 2;
+    if(required > childrenPool.capacity()) {
+      childrenPool.ensureCapacity(Math.max(grow(childrenPool.capacity()), required));
+    }
+    childrenPool.set(poolSize, siblingSize);
+    childrenPool.set(poolSize + 1, 0);
+    childrenPool.fill(poolSize + 2, required, NO_NODE);
+    childrenOffsets.set(node, poolSize);
+    poolSize = required;
+  }
+
+  /**
+   * Removes all descendants of node, e.g. when its subtree has been fully pruned and will never
+   * be queried again. The node itself stays in the trie. Removed nodes and child blocks are
+   * reused for nodes added later.
+   * @return the number of nodes removed
+   */
+  public int collapse(int node) {
+    if(childrenOffsets.get(node) == NO_NODE) {
+      return 0;
+    }
+    int removed = collapseChildren(node);
+    nodes -= removed;
+    reclaimedNodes += removed;
+    modCount++;
+
+    // Cached cursor nodes below the collapsed node may be reused for other nodes now
+    for(int i = cursorSynced; i >= 0; i--) {
+      if(cursorNodes[i] == node) {
+        cursorSynced = i;
+        break;
+      }
+    }
+    return removed;
+  }
+
+  private int collapseChildren(int node) {
+    int removed = 0;
+    int offset = childrenOffsets.get(node);
+    int numberOfChoices = childrenPool.get(offset);
+    for(int choice = 0; choice < numberOfChoices; choice++) {
+      int child = childrenPool.get(offset + 2 + choice);
+      if(child != NO_NODE) {
+        if(childrenOffsets.get(child) != NO_NODE) {
+          removed += collapseChildren(child);
+        }
+        // Chain the node into the free list
+        parents.set(child, freeNodes);
+        freeNodes = child;
+        removed++;
+        reclaimedBytes += 8;
+      }
+    }
+
+    // Chain the block into the free list for its size
+    if(numberOfChoices >= freeBlocks.length) {
+      int oldLength = freeBlocks.length;
+      freeBlocks = Arrays.copyOf(freeBlocks, Math.max(numberOfChoices + 1, oldLength * 2));
+      Arrays.fill(freeBlocks, oldLength, freeBlocks.length, NO_NODE);
+    }
+    childrenPool.set(offset + 1, freeBlocks[numberOfChoices]);
+    freeBlocks[numberOfChoices] = offset;
+    reclaimedBytes += 4L * (numberOfChoices + 2);
+
+    childrenOffsets.set(node, NO_NODE);
+    return removed;
+  }
+
+  /**
+   * Collapses every flagged node that still has children and rebuilds the storages without the
+   * nodes and child blocks in the free lists, i.e. the trie is densely packed afterwards. The
+   * live nodes are copied straight into storages that fit them, so at most the packed trie is
+   * allocated on top of the current one.
+   * @return the number of bytes released by the backing storages
+   */
+  public long compact() {
+    if(root != NO_NODE) {
+      compact(root);
+    }
+    long before = getMemoryFootprint();
+    IntStorage oldChildrenOffsets = childrenOffsets;
+    IntStorage oldChildrenPool = childrenPool;
+    IntStorage oldFlagWords = flagWords;
+    int oldRoot = root;
+    int poolSlots = (oldRoot == NO_NODE) ? 0 : countPoolSlots(oldRoot);
+
+    IntStorage oldParents = parents;
+    int capacity = Math.max(nodes, 1);
+    this.parents = storageFactory.create(capacity);
+    this.childrenOffsets = storageFactory.create(capacity);
+    this.childrenPool = storageFactory.create(Math.max(poolSlots, 1));
+    this.flagWords = storageFactory.create(flagWordsFor(capacity));
+    this.nodes = 0;
+    this.size = 0;
+    this.poolSize = 0;
+    this.freeNodes = NO_NODE;
+    this.freeBlocks = new int[0];
+    if(oldRoot != NO_NODE) {
+      root = copyNode(oldRoot, NO_NODE, oldChildrenOffsets, oldChildrenPool, oldFlagWords);
+    }
+    oldParents.release();
+    oldChildrenOffsets.release();
+    oldChildrenPool.release();
+    oldFlagWords.release();
+
+    // Nodes have been renumbered
+    lastAdded = NO_NODE;
+    modCount++;
+    cursorSynced = 0;
+    return Math.max(before - getMemoryFootprint(), 0);
+  }
+
+  private int countPoolSlots(int node) {
+    int offset = childrenOffsets.get(node);
+    if(offset == NO_NODE) {
+      return 0;
+    }
+    int numberOfChoices = childrenPool.get(offset);
+    int slots = numberOfChoices + 2;
+    for(int choice = 0; choice < numberOfChoices; choice++) {
+      int child = childrenPool.get(offset + 2 + choice);
+      if(child != NO_NODE) {
+        slots += countPoolSlots(child);
+      }
+    }
+    return slots;
+  }
+
+  // Copies the subtree of node in the old storages to the current ones, in pre-order like
+  // readNode
+  private int copyNode(int oldNode, int parent, IntStorage oldChildrenOffsets,
+                       IntStorage oldChildrenPool, IntStorage oldFlagWords) {
+    int node = newNode(parent);
+    int oldOffset = oldChildrenOffsets.get(oldNode);
+    if(oldOffset != NO_NODE) {
+      int numberOfChoices = oldChildrenPool.get(oldOffset);
+      initChildren(node, numberOfChoices);
+      for(int choice = 0; choice < numberOfChoices; choice++) {
+        int oldChild = oldChildrenPool.get(oldOffset + 2 + choice);
+        if(oldChild != NO_NODE) {
+          int child = copyNode(oldChild, node, oldChildrenOffsets, oldChildrenPool,
+              oldFlagWords);
+          childrenPool.set(childrenOffsets.get(node) + 2 + choice, child);
+        }
+      }
+    }
+    // The children of the parent are initialized, so it counts the flag
+    setFlag(node, (oldFlagWords.get(oldNode >>> 5) & (1 << (oldNode & 31))) != 0);
+    return node;
+  }
+
+  private void compact(int node) {
+    int offset = childrenOffsets.get(node);
+    if(offset == NO_NODE) {
+      return;
+    }
+    if(isFlagSet(node)) {
+      collapse(node);
+      return;
+    }
+    int numberOfChoices = childrenPool.get(offset);
+    for(int choice = 0; choice < numberOfChoices; choice++) {
+      int child = childrenPool.get(offset + 2 + choice);
+      if(child != NO_NODE) {
+        compact(child);
+      }
+    }
+  }
+
+  public long getNumberOfReclaimedNodes() {
+    return reclaimedNodes;
+  }
+
+  // Bytes of the backing arrays that have been released for reuse through collapse
+  public long getReclaimedBytes() {
+    return reclaimedBytes;
+  }
+
+  /**
+   * Writes the trie in pre-order. Each node is a byte with the flag (bit 0) and whether it has
+   * children (bit 1), followed by the number of choices, the number of children and then the
+   * choice and subtree of each child. The format is shared with {@link Trie}, except that only
+   * the flag of bit 0 is kept.
+   */
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    Checkpointable.writeVarInt(out, flags);
+    out.writeLong(reclaimedNodes);
+    out.writeLong(reclaimedBytes);
+    out.writeBoolean(root != NO_NODE);
+    if(root != NO_NODE) {
+      writeNode(out, root);
+    }
+  }
+
+  private void writeNode(DataOutput out, int node) throws IOException {
+    int offset = childrenOffsets.get(node);
+    out.writeByte((isFlagSet(node) ? 1 : 0) | (offset != NO_NODE ? 2 : 0));
+    if(offset == NO_NODE) {
+      return;
+    }
+    int numberOfChoices = childrenPool.get(offset);
+    int numberOfChildren = 0;
+    for(int choice = 0; choice < numberOfChoices; choice++) {
+      if(childrenPool.get(offset + 2 + choice) != NO_NODE) {
+        numberOfChildren++;
+      }
+    }
+    Checkpointable.writeVarInt(out, numberOfChoices);
+    Checkpointable.writeVarInt(out, numberOfChildren);
+    for(int choice = 0; choice < numberOfChoices; choice++) {
+      int child = childrenPool.get(offset + 2 + choice);
+      if(child != NO_NODE) {
+        Checkpointable.writeVarInt(out, choice);
+        writeNode(out, child);
+      }
+    }
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    clear();
+    flags = Checkpointable.readVarInt(in);
+    reclaimedNodes = in.readLong();
+    reclaimedBytes = in.readLong();
+    if(in.readBoolean()) {
+      root = readNode(in, NO_NODE);
+    }
+  }
+
+  private int readNode(DataInput in, int parent) throws IOException {
+    int node = newNode(parent);
+    int header = in.readUnsignedByte();
+    if((header & 2) != 0) {
+      int numberOfChoices = Checkpointable.readVarInt(in);
+      int numberOfChildren = Checkpointable.readVarInt(in);
+      initChildren(node, numberOfChoices);
+      for(int i = 0; i < numberOfChildren; i++) {
+        int choice = Checkpointable.readVarInt(in);
+        if(choice >= numberOfChoices) {
+          throw new IOException("Choice " + choice + " out of range in checkpoint");
+        }
+        int child = readNode(in, node);
+        childrenPool.set(childrenOffsets.get(node) + 2 + choice, child);
+      }
+    }
+    // The children of the parent are initialized, so it counts the flag
+    setFlag(node, (header & 1) != 0);
+    return node;
+  }
+
+  private static int grow(int capacity) {
+    long newCapacity = capacity + ((long) capacity >> 1) + 1;
+    if(newCapacity > Integer.MAX_VALUE - 8) {
+      if(capacity >= Integer.MAX_VALUE - 8) {
+        throw new OutOfMemoryError("Trie cannot hold more than " + capacity + " entries");
+      }
+      newCapacity = Integer.MAX_VALUE - 8;
+    }
+    return (int) newCapacity;
+  }
+
+  public int numberOfFlags() {
+    return flags;
+  }
+
+  public int getNumberOfNodes() {
+    return nodes;
+  }
+
+  // Approximation of the bytes retained by the backing storages (excluding array headers)
+  public long getMemoryFootprint() {
+    return parents.getMemoryFootprint() + childrenOffsets.getMemoryFootprint() +
+        childrenPool.getMemoryFootprint() + flagWords.getMemoryFootprint();
+  }
+
+  public void clear() {
+    //We release the storages here such that memory is reclaimed after a large analysis
+    release();
+    allocate();
+    root = lastAdded = NO_NODE;
+    flags = 0;
+    reclaimedNodes = reclaimedBytes = 0;
+    modCount++;
+    cursorSynced = 0;
+  }
+
+  public boolean isEmpty() {
+    return numberOfFlags() == 0;
+  }
+
+  // Releases the storages, e.g. deletes the file of a mapped trie. The trie must be cleared
+  // before it is used again
+  public void release() {
+    parents.release();
+    childrenOffsets.release();
+    childrenPool.release();
+    flagWords.release();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import gov.nasa.jpf.vm.ChoiceGenerator;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Same pruning as {@link TrieBasedPruningStrategy}, but the pruned paths are kept in an
+ * {@link ArrayTrie}, which has a significantly smaller per-node footprint for long analyses.
+ * Can be selected with canopy.choicesstrategy
+ */
+public class ArrayTrieBasedPruningStrategy implements ChoicesStrategy, PruningStrategy,
+    Checkpointable {
+
+  private final ArrayTrie prunedPaths;
+
+  public ArrayTrieBasedPruningStrategy() {
+    this(new ArrayTrie());
+  }
+
+  public ArrayTrieBasedPruningStrategy(ArrayTrie prunedPaths) {
+    this.prunedPaths = prunedPaths;
+  }
+
+  public void reset() {
+    this.prunedPaths.clear();
+  }
+
+  @Override
+  public void getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg,
+                                 ChoiceSet eligibleChoices) {
+    getEligibleChoices(this.prunedPaths.getNode(path), cg.getTotalNumberOfChoices(),
+        eligibleChoices);
+  }
+
+  @Override
+  public void getEligibleChoices(PathCursor cursor, gov.nasa.jpf.vm.Path path,
+                                 ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
+    getEligibleChoices(this.prunedPaths.getNode(cursor), cg.getTotalNumberOfChoices(),
+        eligibleChoices);
+  }
+
+  @Override
+  public void getEligibleChoices(Path path, int numberOfChoices, ChoiceSet eligibleChoices) {
+    getEligibleChoices(this.prunedPaths.getNode(path), numberOfChoices, eligibleChoices);
+  }
+
+  private void getEligibleChoices(int node, int totalNumberOfChoices,
+                                  ChoiceSet eligibleChoices) {
+    if(node != ArrayTrie.NO_NODE && this.prunedPaths.isFlagSet(node)) {
+      // The subtree is pruned (and its children may have been collapsed)
+      eligibleChoices.clear();
+    } else if(node == ArrayTrie.NO_NODE ||
+        this.prunedPaths.getNumberOfFlaggedChildren(node) == 0) {
+      // can happen for example for the first choice. In this case, by definition, none of the
+      // choices are pruned
+      eligibleChoices.setAll(totalNumberOfChoices);
+    } else {
+      //Otherwise, all those choices that are not pruned
+      eligibleChoices.clear();
+      int numberOfChoices = this.prunedPaths.getNumberOfChildren(node);
+      for(int choice = 0; choice < numberOfChoices; choice++) {
+        int child = this.prunedPaths.getChild(node, choice);
+        if(child == ArrayTrie.NO_NODE || !this.prunedPaths.isFlagSet(child)) {
+          //i.e., this path has not been pruned
+          eligibleChoices.add(choice);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean hasTerminatedPathBeenExplored(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg) {
+    // See TrieBasedPruningStrategy: by construction, a path can never be explored multiple times
+    return false;
+  }
+
+  @Override
+  public boolean isFullyPruned() {
+    int root = this.prunedPaths.getRoot();
+    return root != ArrayTrie.NO_NODE && this.prunedPaths.isFlagSet(root);
+  }
+
+  @Override
+  public void performPruning(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg) {
+    prunedPaths.setFlag(path, true);
+
+    // Propagate pruning backwards using the flagged children counters, i.e. O(1) per level
+    int prunedNode = prunedPaths.getLastAddedLeafNode();
+    int currentNode = prunedPaths.getParent(prunedNode);
+    while(currentNode != ArrayTrie.NO_NODE && !prunedPaths.isFlagSet(currentNode) &&
+        prunedPaths.areAllChildrenFlagged(currentNode)) {
+      // All children were pruned, so we also prune the parent
+      prunedPaths.setFlag(currentNode, true);
+      prunedNode = currentNode;
+      currentNode = prunedPaths.getParent(currentNode);
+    }
+
+    // Nothing below the topmost pruned node will be queried again
+    prunedPaths.collapse(prunedNode);
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    this.prunedPaths.writeCheckpoint(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    this.prunedPaths.readCheckpoint(in);
+  }
+
+  @Override
+  public long getNumberOfNodes() {
+    return this.prunedPaths.getNumberOfNodes();
+  }
+
+  @Override
+  public long getNumberOfReclaimedNodes() {
+    return this.prunedPaths.getNumberOfReclaimedNodes();
+  }
+
+  @Override
+  public long compact() {
+    return this.prunedPaths.compact();
+  }
+
+  @Override
+  public long getReclaimedBytes() {
+    return this.prunedPaths.getReclaimedBytes();
+  }
+
+  public long getMemoryFootprint() {
+    return this.prunedPaths.getMemoryFootprint();
+  }
+}
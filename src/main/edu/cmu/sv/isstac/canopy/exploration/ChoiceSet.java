@@ -0,0 +1,225 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.util.Arrays;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Mutable set of choices of a choice generator. Choices below 64 (i.e. all PC choices) are kept
+ * in a single bitmask; wider choice generators (e.g. ThreadChoiceFromSet) use an overflow array
+ * that is allocated once and reused. Sets are meant to be owned by the caller and refilled for
+ * every CG such that no allocation happens when making choices.
+ *
+ * Iterate the choices with:
+ * <pre>
+ *   for(int choice = set.first(); choice >= 0; choice = set.next(choice + 1)) { ... }
+ * </pre>
+ */
+public class ChoiceSet {
+
+  private static final long[] NO_OVERFLOW = new long[0];
+
+  private long mask;
+  // Word i holds choices [64 * (i + 1), 64 * (i + 2))
+  private long[] overflow = NO_OVERFLOW;
+  private int size;
+
+  public ChoiceSet() { }
+
+  public ChoiceSet(ChoiceSet other) {
+    copyFrom(other);
+  }
+
+  public void clear() {
+    this.mask = 0L;
+    if(size > 0) {
+      Arrays.fill(this.overflow, 0L);
+    }
+    this.size = 0;
+  }
+
+  // Sets this to the choices [0, numberOfChoices)
+  public void setAll(int numberOfChoices) {
+    clear();
+    if(numberOfChoices >= 64) {
+      this.mask = -1L;
+      int remaining = numberOfChoices - 64;
+      ensureOverflow(numberOfChoices - 1);
+      int word = 0;
+      for(; remaining >= 64; remaining -= 64) {
+        this.overflow[word++] = -1L;
+      }
+      if(remaining > 0) {
+        this.overflow[word] = (1L << remaining) - 1;
+      }
+    } else if(numberOfChoices > 0) {
+      this.mask = (1L << numberOfChoices) - 1;
+    }
+    this.size = Math.max(numberOfChoices, 0);
+  }
+
+  public void copyFrom(ChoiceSet other) {
+    clear();
+    this.mask = other.mask;
+    if(other.overflow.length > 0) {
+      ensureOverflow(64 * other.overflow.length + 63);
+      System.arraycopy(other.overflow, 0, this.overflow, 0, other.overflow.length);
+    }
+    this.size = other.size;
+  }
+
+  public void add(int choice) {
+    if(choice < 64) {
+      long bit = 1L << choice;
+      if((mask & bit) == 0) {
+        mask |= bit;
+        size++;
+      }
+    } else {
+      ensureOverflow(choice);
+      int word = (choice >>> 6) - 1;
+      long bit = 1L << choice;
+      if((overflow[word] & bit) == 0) {
+        overflow[word] |= bit;
+        size++;
+      }
+    }
+  }
+
+  public void remove(int choice) {
+    if(choice < 64) {
+      long bit = 1L << choice;
+      if((mask & bit) != 0) {
+        mask &= ~bit;
+        size--;
+      }
+    } else {
+      int word = (choice >>> 6) - 1;
+      long bit = 1L << choice;
+      if(word < overflow.length && (overflow[word] & bit) != 0) {
+        overflow[word] &= ~bit;
+        size--;
+      }
+    }
+  }
+
+  public boolean contains(int choice) {
+    if(choice < 0) {
+      return false;
+    } else if(choice < 64) {
+      return (mask & (1L << choice)) != 0;
+    } else {
+      int word = (choice >>> 6) - 1;
+      return word < overflow.length && (overflow[word] & (1L << choice)) != 0;
+    }
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  // The smallest choice, or -1 if the set is empty
+  public int first() {
+    return next(0);
+  }
+
+  // The smallest choice that is >= from, or -1 if there is none
+  public int next(int from) {
+    if(from < 64) {
+      long bits = mask & (-1L << Math.max(from, 0));
+      if(bits != 0) {
+        return Long.numberOfTrailingZeros(bits);
+      }
+      from = 64;
+    }
+    int word = (from >>> 6) - 1;
+    if(word >= overflow.length) {
+      return -1;
+    }
+    long bits = overflow[word] & (-1L << from);
+    while(true) {
+      if(bits != 0) {
+        return 64 * (word + 1) + Long.numberOfTrailingZeros(bits);
+      }
+      if(++word == overflow.length) {
+        return -1;
+      }
+      bits = overflow[word];
+    }
+  }
+
+  // The idx'th smallest choice, e.g. for selecting a choice uniformly at random
+  public int get(int idx) {
+    if(idx < 0 || idx >= size) {
+      throw new IndexOutOfBoundsException("Index: " + idx + ", size: " + size);
+    }
+    int inMask = Long.bitCount(mask);
+    if(idx < inMask) {
+      return nthSetBit(mask, idx);
+    }
+    idx -= inMask;
+    for(int word = 0; word < overflow.length; word++) {
+      int inWord = Long.bitCount(overflow[word]);
+      if(idx < inWord) {
+        return 64 * (word + 1) + nthSetBit(overflow[word], idx);
+      }
+      idx -= inWord;
+    }
+    throw new IllegalStateException("Inconsistent choice set size");
+  }
+
+  private static int nthSetBit(long bits, int n) {
+    for(int i = 0; i < n; i++) {
+      bits &= bits - 1;
+    }
+    return Long.numberOfTrailingZeros(bits);
+  }
+
+  private void ensureOverflow(int choice) {
+    int words = choice >>> 6;
+    if(words > overflow.length) {
+      overflow = Arrays.copyOf(overflow, words);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("[");
+    for(int choice = first(); choice >= 0; choice = next(choice + 1)) {
+      if(sb.length() > 1)
+        sb.append(",");
+      sb.append(choice);
+    }
+    sb.append("]");
+    return sb.toString();
+  }
+}
@@ -24,8 +24,6 @@
 
 package edu.cmu.sv.isstac.canopy.exploration;
 
-import java.util.ArrayList;
-
 import gov.nasa.jpf.vm.*;
 
 /**
@@ -33,6 +31,23 @@ import gov.nasa.jpf.vm.*;
  *
  */
 public interface ChoicesStrategy {
-  public ArrayList<Integer> getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg);
+  // Fills eligibleChoices (owned by the caller and cleared here) with the eligible choices of cg
+  public void getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg,
+                                 ChoiceSet eligibleChoices);
+
+  // The cursor is synced with path. Strategies backed by a trie can use it to find the node of
+  // the current CG without walking the path from the root
+  public default void getEligibleChoices(PathCursor cursor, gov.nasa.jpf.vm.Path path,
+                                         ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
+    getEligibleChoices(path, cg, eligibleChoices);
+  }
+
+  // Eligible choices of the CG reached by following path from the root. This allows looking
+  // ahead (e.g. when selecting a snapshot to resume from) without executing the CGs
+  public default void getEligibleChoices(Path path, int numberOfChoices,
+                                         ChoiceSet eligibleChoices) {
+    eligibleChoices.setAll(numberOfChoices);
+  }
+
   public boolean hasTerminatedPathBeenExplored(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg);
 }
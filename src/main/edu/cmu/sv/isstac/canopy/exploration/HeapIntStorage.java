@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.util.Arrays;
+
+/**
+ * @author Kasper Luckow
+ */
+public class HeapIntStorage implements IntStorage {
+
+  public static final Factory FACTORY = HeapIntStorage::new;
+
+  private int[] data;
+
+  public HeapIntStorage(int capacity) {
+    this.data = new int[capacity];
+  }
+
+  @Override
+  public int get(int index) {
+    return data[index];
+  }
+
+  @Override
+  public void set(int index, int value) {
+    data[index] = value;
+  }
+
+  @Override
+  public int capacity() {
+    return data.length;
+  }
+
+  @Override
+  public void ensureCapacity(int capacity) {
+    if(capacity > data.length) {
+      data = Arrays.copyOf(data, capacity);
+    }
+  }
+
+  @Override
+  public void fill(int from, int to, int value) {
+    Arrays.fill(data, from, to, value);
+  }
+
+  @Override
+  public long getMemoryFootprint() {
+    return 4L * data.length;
+  }
+
+  @Override
+  public void release() {
+    //GC to the rescue
+    data = new int[0];
+  }
+}
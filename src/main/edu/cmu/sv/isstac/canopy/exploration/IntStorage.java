@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Growable int array backing an {@link ArrayTrie}. Lets the trie live on the heap
+ * ({@link HeapIntStorage}) or in a memory-mapped file ({@link MappedIntStorage}).
+ */
+public interface IntStorage {
+
+  interface Factory {
+    IntStorage create(int capacity);
+  }
+
+  int get(int index);
+
+  void set(int index, int value);
+
+  int capacity();
+
+  // Grows the storage to at least capacity entries, preserving the contents
+  void ensureCapacity(int capacity);
+
+  default void fill(int from, int to, int value) {
+    for(int i = from; i < to; i++) {
+      set(i, value);
+    }
+  }
+
+  // Bytes used for the storage (on or off the heap)
+  long getMemoryFootprint();
+
+  // Releases the storage. It must not be used afterwards
+  void release();
+}
@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Int storage in a memory-mapped temporary file, i.e. outside the Java heap. The file is mapped
+ * in segments as it grows; the OS page cache keeps the hot parts in memory and pages out the
+ * rest. The file is sparse, so unused capacity does not take up disk space. The file is deleted
+ * when the storage is released (or when the JVM exits).
+ */
+public class MappedIntStorage implements IntStorage {
+
+  // 2^25 ints, i.e. 128MB per mapped segment
+  private static final int SEGMENT_SHIFT = 25;
+  private static final int SEGMENT_INTS = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_INTS - 1;
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private IntBuffer[] segments = new IntBuffer[0];
+
+  public static Factory factory(File directory) {
+    return capacity -> new MappedIntStorage(directory, capacity);
+  }
+
+  public MappedIntStorage(File directory, int capacity) {
+    try {
+      this.file = File.createTempFile("canopy-trie", ".bin", directory);
+      this.file.deleteOnExit();
+      this.raf = new RandomAccessFile(file, "rw");
+      this.channel = raf.getChannel();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not create trie storage in " + directory, e);
+    }
+    ensureCapacity(capacity);
+  }
+
+  @Override
+  public int get(int index) {
+    return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+  }
+
+  @Override
+  public void set(int index, int value) {
+    segments[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, value);
+  }
+
+  @Override
+  public int capacity() {
+    long capacity = (long) segments.length << SEGMENT_SHIFT;
+    return (int) Math.min(capacity, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public void ensureCapacity(int capacity) {
+    int required = (int) (((long) capacity + SEGMENT_INTS - 1) >>> SEGMENT_SHIFT);
+    if(required <= segments.length) {
+      return;
+    }
+    int mapped = segments.length;
+    segments = Arrays.copyOf(segments, required);
+    try {
+      for(int i = mapped; i < required; i++) {
+        long position = (long) i * SEGMENT_INTS * 4;
+        segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_INTS * 4L)
+            .order(ByteOrder.nativeOrder()).asIntBuffer();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not map trie storage " + file, e);
+    }
+  }
+
+  @Override
+  public long getMemoryFootprint() {
+    return (long) segments.length * SEGMENT_INTS * 4;
+  }
+
+  @Override
+  public void release() {
+    // The mapping itself is released when the buffers are garbage collected
+    segments = new IntBuffer[0];
+    try {
+      channel.close();
+      raf.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    file.delete();
+  }
+}
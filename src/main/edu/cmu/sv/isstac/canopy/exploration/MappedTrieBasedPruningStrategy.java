@@ -0,0 +1,52 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.File;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import gov.nasa.jpf.Config;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Pruning backed by an {@link ArrayTrie} that is stored in a memory-mapped file outside the Java
+ * heap (see {@link MappedIntStorage}). Allows the pruned paths to grow beyond -Xmx. The
+ * directory of the file is set with canopy.offheap.dir
+ */
+public class MappedTrieBasedPruningStrategy extends ArrayTrieBasedPruningStrategy {
+
+  public MappedTrieBasedPruningStrategy(Config config) {
+    this(new File(config.getString(Options.OFFHEAP_DIR, Options.DEFAULT_OFFHEAP_DIR)));
+  }
+
+  public MappedTrieBasedPruningStrategy() {
+    this(new File(Options.DEFAULT_OFFHEAP_DIR));
+  }
+
+  public MappedTrieBasedPruningStrategy(File directory) {
+    super(new ArrayTrie(MappedIntStorage.factory(directory)));
+  }
+}
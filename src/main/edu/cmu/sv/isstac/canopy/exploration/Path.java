@@ -24,12 +24,13 @@
 
 package edu.cmu.sv.isstac.canopy.exploration;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-
-import com.google.common.base.Objects;
+import java.util.NoSuchElementException;
 
 import edu.cmu.sv.isstac.canopy.structure.Node;
 import edu.cmu.sv.isstac.canopy.util.JPFUtil;
@@ -38,41 +39,110 @@ import gov.nasa.jpf.vm.ChoiceGenerator;
 /**
  * @author Kasper Luckow
  *
+ * The choices are kept in an int array together with the hash of each prefix, so getChoice and
+ * hashCode are O(1). Copies share the array with the original (copy is O(1)): a path only
+ * appends in place if no other path sharing the array has appended past its length; otherwise
+ * it copies its prefix first.
+ * Note that paths sharing an array must not be mutated concurrently.
  */
 public class Path implements Serializable {
-  private LinkedList<Integer> store;
 
-  public Path(Path other) {
-    this.store = new LinkedList<>();
-    for(int o : other.store) {
-      this.store.add(o);
+  private static final long serialVersionUID = 1L;
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // Backing store that can be shared between paths with a common prefix
+  private static class Store {
+    private int[] choices;
+    // hashes[i] is the hash of the prefix of length i
+    private int[] hashes;
+    // Number of slots in use by the path that appended last
+    private int used;
+
+    Store(int capacity) {
+      this.choices = new int[capacity];
+      this.hashes = new int[capacity + 1];
+      this.hashes[0] = 1;
     }
+
+    void ensureCapacity(int capacity) {
+      if(capacity > choices.length) {
+        int newCapacity = Math.max(capacity, choices.length + (choices.length >> 1) + 1);
+        choices = Arrays.copyOf(choices, newCapacity);
+        hashes = Arrays.copyOf(hashes, newCapacity + 1);
+      }
+    }
+  }
+
+  private transient Store store;
+  private transient int length;
+
+  public Path(Path other) {
+    this.store = other.store;
+    this.length = other.length;
   }
 
   public Path() {
-    this.store = new LinkedList<>();
+    this(DEFAULT_CAPACITY);
+  }
+
+  private Path(int capacity) {
+    this.store = new Store(capacity);
+    this.length = 0;
   }
 
   public Path(List<Integer> choices) {
-    this.store = new LinkedList<>(choices);
+    this(choices.size());
+    for(int choice : choices) {
+      addChoice(choice);
+    }
   }
 
   public Path(ChoiceGenerator<?> cg) {
-    this();
-    if(cg != null) {
-      for(ChoiceGenerator<?> c : cg.getAll()) {
-        this.addChoice(c);
-      }
+    this(lengthOf(cg));
+    // Fill the choices from the back instead of going through cg.getAll()
+    this.length = this.store.choices.length;
+    for(ChoiceGenerator<?> c = cg; c != null; c = c.getPreviousChoiceGenerator()) {
+      int choice = JPFUtil.getCurrentChoiceOfCG(c);
+      assert choice >= 0;
+      this.store.choices[--this.length] = choice;
     }
+    fillHashes(this.store.choices.length);
   }
 
   public Path(Node n) {
-    this();
+    this(depthOf(n));
+    this.length = this.store.choices.length;
     Node node = n;
     while(node != null && node.getChoice() >= 0) {
-      this.store.addFirst(node.getChoice());
+      this.store.choices[--this.length] = node.getChoice();
       node = node.getParent();
     }
+    fillHashes(this.store.choices.length);
+  }
+
+  // Number of choices of the path ending in cg without constructing the path
+  public static int lengthOf(ChoiceGenerator<?> cg) {
+    int length = 0;
+    for(ChoiceGenerator<?> c = cg; c != null; c = c.getPreviousChoiceGenerator()) {
+      length++;
+    }
+    return length;
+  }
+
+  private static int depthOf(Node n) {
+    int depth = 0;
+    for(Node node = n; node != null && node.getChoice() >= 0; node = node.getParent()) {
+      depth++;
+    }
+    return depth;
+  }
+
+  private void fillHashes(int length) {
+    for(int i = 0; i < length; i++) {
+      store.hashes[i + 1] = 31 * store.hashes[i] + store.choices[i];
+    }
+    this.length = this.store.used = length;
   }
   
   // same as copy constructor
@@ -80,23 +150,42 @@ public class Path implements Serializable {
     return new Path(this);
   }
   
+  // The prefix shares the choices with this path, i.e. it is O(1)
+  public Path getPrefix(int length) {
+    if(length < 0 || length > this.length) {
+      throw new IndexOutOfBoundsException("Prefix length: " + length + ", length: " + this.length);
+    }
+    Path prefix = new Path(this);
+    prefix.length = length;
+    return prefix;
+  }
+
   public void addChoice(ChoiceGenerator<?> cg) {
     int choice = JPFUtil.getCurrentChoiceOfCG(cg);
     assert choice >= 0;
     addChoice(choice);
   }
 
-  //A bit expensive since store is a linked list at the moment
   public int getChoice(int index) {
-    return this.store.get(index);
+    if(index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+    }
+    return this.store.choices[index];
   }
 
   public boolean isPrefix(Path other) {
     if(other.length() > this.length()) {
       return false;
     }
+    if(this.store == other.store) {
+      // A shared store holds a single sequence of choices
+      return true;
+    }
+    if(this.store.hashes[other.length] != other.store.hashes[other.length]) {
+      return false;
+    }
     for(int i = 0; i < other.length(); i++) {
-      if(!store.get(i).equals(other.store.get(i))) {
+      if(store.choices[i] != other.store.choices[i]) {
         return false;
       }
     }
@@ -104,20 +193,34 @@ public class Path implements Serializable {
   }
 
   public int length() {
-    return store.size();
+    return length;
   }
 
   public void addChoice(int choice) {
-    store.add(choice);
+    if(length != store.used) {
+      // Another path has appended to the shared store, so we get our own copy of the prefix
+      Store prefix = new Store(Math.max(length + 1, DEFAULT_CAPACITY));
+      System.arraycopy(store.choices, 0, prefix.choices, 0, length);
+      System.arraycopy(store.hashes, 0, prefix.hashes, 0, length + 1);
+      store = prefix;
+    }
+    store.ensureCapacity(length + 1);
+    store.choices[length] = choice;
+    store.hashes[length + 1] = 31 * store.hashes[length] + choice;
+    store.used = ++length;
   }
 
   public int removeLast() {
-    return store.removeLast();
+    if(length == 0) {
+      throw new NoSuchElementException();
+    }
+    // We leave the store untouched since other paths may share the choice
+    return store.choices[--length];
   }
   
   @Override
   public int hashCode() {
-    return Objects.hashCode(store);
+    return store.hashes[length];
   }
   
   @Override
@@ -125,20 +228,39 @@ public class Path implements Serializable {
     if(other == null) return false;
     if(getClass() != other.getClass()) return false;
     Path otherPath = (Path) other;
-    return Objects.equal(this.store, otherPath.store);
+    return this.length == otherPath.length && this.isPrefix(otherPath);
   }
   
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
     sb.append("[");
-    Iterator<Integer> iter = store.iterator();
-    while(iter.hasNext()) {
-      sb.append(iter.next());
-      if(iter.hasNext())
+    for(int i = 0; i < length; i++) {
+      sb.append(store.choices[i]);
+      if(i < length - 1)
         sb.append(",");
     }
     sb.append("]");
     return sb.toString();
   }
+
+  // Only the choices of this path are serialized (e.g. for the RMI frontiers), not the
+  // shared store
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(length);
+    for(int i = 0; i < length; i++) {
+      out.writeInt(store.choices[i]);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int length = in.readInt();
+    this.store = new Store(Math.max(length, 1));
+    for(int i = 0; i < length; i++) {
+      store.choices[i] = in.readInt();
+    }
+    fillHashes(length);
+  }
 }
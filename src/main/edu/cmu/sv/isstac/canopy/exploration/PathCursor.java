@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.util.Arrays;
+
+import gov.nasa.jpf.vm.Path;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Follows the choices of the live search such that tries can look up the node of the current
+ * path incrementally instead of walking it from the root for every choice generator. The
+ * cursor is advanced (one level per CG) by syncing it with the path of the VM and is rewound
+ * when the search backtracks or restores a state.
+ *
+ * Every level gets a unique stamp when it is pushed. Tries (see {@link Trie#getNode(PathCursor)})
+ * cache the node for each level together with the stamp, so they only have to check the stamp
+ * of the deepest cached level to know whether their cached nodes are still on the path.
+ */
+public class PathCursor {
+
+  private static final int DEFAULT_CAPACITY = 64;
+
+  private int[] choices = new int[DEFAULT_CAPACITY];
+  private long[] stamps = new long[DEFAULT_CAPACITY];
+  private int depth = 0;
+  private long nextStamp = 0;
+
+  /**
+   * Advances (or rewinds) the cursor to the end of the path. When the cursor is synced at every
+   * CG advancement, at most one level is read from the path.
+   */
+  public void sync(Path path) {
+    int size = path.size();
+    if(size < depth) {
+      rewind(size);
+    }
+    while(depth < size) {
+      push(Trie.getChoice(path, depth));
+    }
+  }
+
+  /**
+   * Like {@link #sync(Path)}, but for a path that is not necessarily an extension of the
+   * cursor's path prefix, e.g. after restoring a state that was stored by another sample. The
+   * levels shared with the path keep their stamps.
+   */
+  public void resync(Path path) {
+    int shared = Math.min(depth, path.size());
+    for(int level = 0; level < shared; level++) {
+      if(choices[level] != Trie.getChoice(path, level)) {
+        shared = level;
+        break;
+      }
+    }
+    rewind(shared);
+    sync(path);
+  }
+
+  public void rewind(int depth) {
+    if(depth < this.depth) {
+      this.depth = Math.max(depth, 0);
+    }
+  }
+
+  public void push(int choice) {
+    if(depth == choices.length) {
+      choices = Arrays.copyOf(choices, depth * 2);
+      stamps = Arrays.copyOf(stamps, depth * 2);
+    }
+    stamps[depth] = ++nextStamp;
+    choices[depth++] = choice;
+  }
+
+  public int getDepth() {
+    return this.depth;
+  }
+
+  public int getChoice(int level) {
+    return this.choices[level];
+  }
+
+  public long getStamp(int level) {
+    return this.stamps[level];
+  }
+
+  public void reset() {
+    this.depth = 0;
+  }
+}
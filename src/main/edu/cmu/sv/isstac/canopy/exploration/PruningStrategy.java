@@ -33,4 +33,22 @@ public interface PruningStrategy {
   boolean isFullyPruned();
   void reset();
   void performPruning(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg);
+
+  // Memory statistics for strategies that keep the pruned paths
+  default long getNumberOfNodes() {
+    return 0;
+  }
+
+  default long getNumberOfReclaimedNodes() {
+    return 0;
+  }
+
+  default long getReclaimedBytes() {
+    return 0;
+  }
+
+  // Packs the pruned paths when memory is scarce. Returns an estimate of the bytes released
+  default long compact() {
+    return 0;
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.util.Arrays;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Online Knuth-style estimate of the number of unexplored paths. For each sample, the product
+ * of the number of eligible (i.e. not pruned) choices of the CGs along the path estimates the
+ * number of leaves that remain. Since the remaining tree shrinks as paths are pruned, the
+ * estimates are averaged with an exponentially weighted moving average that favors recent
+ * samples. The products are kept per depth, such that CGs left by backtracking within a sample
+ * (e.g. from ignored states) do not count.
+ *
+ * Note that the samples are not drawn uniformly (e.g. MCTS is biased towards rewarding
+ * subtrees), so the estimate is only meant as a rough indication of the remaining work.
+ */
+public class TreeSizeEstimator {
+
+  public static final double DEFAULT_WEIGHT = 0.1;
+
+  private final double weight;
+
+  // products[d] is the product of the eligible choices of the first d CGs of the current path
+  private double[] products = new double[64];
+  private int depth = 0;
+  private double estimate = Double.POSITIVE_INFINITY;
+  private long samples = 0;
+
+  public TreeSizeEstimator() {
+    this(DEFAULT_WEIGHT);
+  }
+
+  // weight is the weight of the newest sample in the moving average
+  public TreeSizeEstimator(double weight) {
+    if(weight <= 0 || weight > 1) {
+      throw new IllegalArgumentException("Weight must be in (0, 1]: " + weight);
+    }
+    this.weight = weight;
+    this.products[0] = 1.0;
+  }
+
+  /**
+   * Called for each CG along the path
+   * @param depth the number of CGs before this one on the path
+   * @param numberOfEligibleChoices the number of eligible choices of the CG
+   */
+  public void choiceMade(int depth, int numberOfEligibleChoices) {
+    if(depth + 1 >= products.length) {
+      products = Arrays.copyOf(products, Math.max(depth + 2, products.length * 2));
+    }
+    products[depth + 1] = products[depth] * Math.max(numberOfEligibleChoices, 1);
+    this.depth = depth + 1;
+  }
+
+  public void sampleDone() {
+    double product = products[depth];
+    if(samples == 0) {
+      this.estimate = product;
+    } else {
+      this.estimate = weight * product + (1 - weight) * estimate;
+    }
+    this.samples++;
+    this.depth = 0;
+  }
+
+  // Estimated number of unexplored paths; infinity if no samples were completed
+  public double getEstimate() {
+    return this.estimate;
+  }
+
+  public long getNumberOfSamples() {
+    return this.samples;
+  }
+
+  public void reset() {
+    this.depth = 0;
+    this.estimate = Double.POSITIVE_INFINITY;
+    this.samples = 0;
+  }
+}
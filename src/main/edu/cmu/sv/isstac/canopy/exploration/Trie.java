@@ -24,29 +24,69 @@
 
 package edu.cmu.sv.isstac.canopy.exploration;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.cmu.sv.isstac.canopy.util.ChildTable;
 import edu.cmu.sv.isstac.canopy.util.JPFUtil;
 import gov.nasa.jpf.vm.ChoiceGenerator;
 import gov.nasa.jpf.vm.Path;
+import gov.nasa.jpf.vm.Transition;
 
 /**
  *
  * @author Kasper Luckow
  *
+ * Each node carries a set of flag bits, such that several views can share one trie over the
+ * explored paths (see {@link edu.cmu.sv.isstac.canopy.exploration.cache.SharedTrieCache}). The
+ * PRUNED bit is the flag of {@link #setFlag(Path, boolean)} and the only bit that is counted by
+ * the parents.
  */
-public class Trie {
+public class Trie implements Checkpointable {
+
+  // Flag bits. At most 7 bits fit in the node header of a checkpoint
+  public static final int PRUNED = 1;
+  public static final int CACHED = 2;
 
   private TrieNode lastAdded = null;
+  // The path that lastAdded was added for. When the same path is flagged again before it
+  // changes (e.g. by the state cache and then by the pruner), the walk from the root is skipped
+  private Transition lastAddedTransition = null;
+  private int lastAddedDepth = -1;
+  private int lastAddedModCount = -1;
   private TrieNode root;
   private int flags;
+  private int nodes;
+
+  // Estimates (compressed oops) used for reporting reclaimed memory
+  static final int NODE_BYTES = 32;
+
+  private long reclaimedNodes;
+  private long reclaimedBytes;
+
+  // Nodes along the path of the last cursor that was used for a lookup. cursorNodes[i] is the
+  // node reached after i choices and cursorStamps[i] the stamp of the cursor level that led to it
+  private PathCursor cursor;
+  private TrieNode[] cursorNodes = new TrieNode[64];
+  private long[] cursorStamps = new long[64];
+  private int cursorSynced = 0;
+  private int cursorModCount = -1;
+  private int modCount = 0;
 
   public static class TrieNode {
     // We currently only use the parent for efficiently propagating
     // pruning information. It is an additional reference that could take up significant mem
     private final TrieNode parent;
 
-    private boolean flag;
+    private byte flags;
     private final int choice;
-    private TrieNode[] next;
+    // Children indexed by choice; the layout depends on the fanout (see ChildTable)
+    private Object next;
+    // Number of children with the flag set. Allows propagating flags (e.g. pruning) upwards
+    // without scanning the siblings
+    private int flaggedChildren;
 
     public TrieNode(int choice, TrieNode parent) {
       this.choice = choice;
@@ -54,15 +94,64 @@ public class Trie {
     }
 
     public void initChildren(int siblingSize) {
-      this.next = new TrieNode[siblingSize];
+      this.next = ChildTable.create(siblingSize);
+    }
+
+    public boolean hasChildren() {
+      return next != null;
+    }
+
+    // Number of choices of the node, i.e., 0 if the children have not been initialized yet
+    public int getNumberOfChoices() {
+      return (next == null) ? 0 : ChildTable.getNumberOfChoices(next);
     }
 
-    public TrieNode[] getNext() {
-      return next;
+    public TrieNode getChild(int choice) {
+      return ChildTable.get(next, choice);
+    }
+
+    private void setChild(int choice, TrieNode child) {
+      this.next = ChildTable.put(next, choice, child);
     }
 
     public void setFlag(boolean pruned) {
-      this.flag = pruned;
+      if(isFlagSet() != pruned && this.parent != null) {
+        this.parent.flaggedChildren += pruned ? 1 : -1;
+      }
+      this.flags = (byte) (pruned ? (this.flags | PRUNED) : (this.flags & ~PRUNED));
+    }
+
+    // Sets the bits of mask (in addition to the bits that are already set)
+    public void setFlags(int mask) {
+      if((mask & PRUNED) != 0) {
+        setFlag(true);
+      }
+      this.flags |= mask;
+    }
+
+    // Clears the bits of mask. The PRUNED bit is counted by the parent, so it is cleared with
+    // setFlag(false) instead
+    public void clearFlags(int mask) {
+      this.flags &= ~(mask & ~PRUNED);
+    }
+
+    // True if all the bits of mask are set
+    public boolean hasFlags(int mask) {
+      return (this.flags & mask) == mask;
+    }
+
+    public int getFlags() {
+      return this.flags;
+    }
+
+    public int getNumberOfFlaggedChildren() {
+      return this.flaggedChildren;
+    }
+
+    // True if the node has children and all of them have the flag set
+    public boolean areAllChildrenFlagged() {
+      return this.next != null &&
+          this.flaggedChildren == ChildTable.getNumberOfChoices(this.next);
     }
 
     public TrieNode getParent() {
@@ -70,12 +159,12 @@ public class Trie {
     }
 
     public boolean isFlagSet() {
-      return flag;
+      return (this.flags & PRUNED) != 0;
     }
 
     @Override
     public String toString() {
-      return "<choice " + choice + "; flag: " + this.flag + ">";
+      return "<choice " + choice + "; flags: " + this.flags + ">";
     }
   }
 
@@ -87,6 +176,60 @@ public class Trie {
     return getNode(root, path, 0);
   }
 
+  // Node reached by a sequence of choices from the root, e.g. one that is not being executed
+  public TrieNode getNode(edu.cmu.sv.isstac.canopy.exploration.Path choices) {
+    TrieNode x = root;
+    for(int d = 0; d < choices.length() && x != null; d++) {
+      if(!x.hasChildren()) {
+        return null;
+      }
+      x = x.getChild(choices.getChoice(d));
+    }
+    return x;
+  }
+
+  /**
+   * Incremental version of {@link #getNode(Path)}. The nodes along the cursor's path are kept
+   * between calls, so following the cursor one level at a time costs O(1) amortized instead of
+   * walking from the root.
+   */
+  public TrieNode getNode(PathCursor cursor) {
+    int depth = cursor.getDepth();
+    if(cursor != this.cursor) {
+      this.cursor = cursor;
+      cursorSynced = 0;
+    }
+    if(cursorModCount != modCount) {
+      // Nodes may have been added where we previously did not find any
+      while(cursorSynced > 0 && cursorNodes[cursorSynced] == null) {
+        cursorSynced--;
+      }
+      cursorModCount = modCount;
+    }
+    cursorNodes[0] = root;
+
+    if(cursorSynced > depth) {
+      cursorSynced = depth;
+    }
+    // If the deepest level is still on the cursor's path, so are all the levels above it
+    while(cursorSynced > 0 && cursorStamps[cursorSynced] != cursor.getStamp(cursorSynced - 1)) {
+      cursorSynced--;
+    }
+
+    if(depth >= cursorNodes.length) {
+      int capacity = Math.max(depth + 1, cursorNodes.length * 2);
+      cursorNodes = Arrays.copyOf(cursorNodes, capacity);
+      cursorStamps = Arrays.copyOf(cursorStamps, capacity);
+    }
+    while(cursorSynced < depth) {
+      TrieNode x = cursorNodes[cursorSynced];
+      TrieNode nxt = (x == null) ? null : x.getChild(cursor.getChoice(cursorSynced));
+      cursorStamps[cursorSynced + 1] = cursor.getStamp(cursorSynced);
+      cursorNodes[++cursorSynced] = nxt;
+    }
+    return cursorNodes[depth];
+  }
+
   private TrieNode getNode(TrieNode x, Path path, int d) {
     if (x == null) return null;
     if (d == path.size()) return x;
@@ -94,7 +237,7 @@ public class Trie {
     if (x.next == null) return null;
 
     int choice = getChoice(path, d);
-    return getNode(x.next[choice], path, d + 1);
+    return getNode(x.getChild(choice), path, d + 1);
   }
 
   public boolean isFlagSet(Path path) {
@@ -114,22 +257,52 @@ public class Trie {
     return getNode(path) != null;
   }
 
-  private int getNumberOfChoices(Path path, int idx) {
+  static int getNumberOfChoices(Path path, int idx) {
     ChoiceGenerator<?> cg = path.get(idx).getChoiceGenerator();
     return cg.getTotalNumberOfChoices();
   }
 
-  private int getChoice(Path path, int idx) {
+  static int getChoice(Path path, int idx) {
     ChoiceGenerator<?> cg = path.get(idx).getChoiceGenerator();
     int choice = JPFUtil.getCurrentChoiceOfCG(cg);
     return choice;
   }
 
   public void setFlag(Path path, boolean flag) {
-    root = put(root, null, path, 0, flag);
+    TrieNode leaf = add(path);
+    if(flag)
+      flags++;
+    leaf.setFlag(flag);
+  }
+
+  /**
+   * Sets the bits of mask on the node of path, adding the nodes of the path if necessary.
+   * @return the node of the path
+   */
+  public TrieNode setFlags(Path path, int mask) {
+    TrieNode leaf = add(path);
+    if((mask & PRUNED) != 0)
+      flags++;
+    leaf.setFlags(mask);
+    return leaf;
+  }
+
+  private TrieNode add(Path path) {
+    int depth = path.size();
+    // A transition is only ever the last one of the path it was taken on, so if no nodes have
+    // been added or removed since, the path leads to the same node
+    if(depth > 0 && depth == lastAddedDepth && modCount == lastAddedModCount &&
+        path.getLast() == lastAddedTransition) {
+      return lastAdded;
+    }
+    root = put(root, null, path, 0);
+    lastAddedTransition = (depth > 0) ? path.getLast() : null;
+    lastAddedDepth = depth;
+    lastAddedModCount = modCount;
+    return lastAdded;
   }
 
-  private TrieNode put(TrieNode current, TrieNode parent, Path path, int d, boolean flag) {
+  private TrieNode put(TrieNode current, TrieNode parent, Path path, int d) {
     if(current == null) {
 
       int choice;
@@ -141,12 +314,11 @@ public class Trie {
       }
       current = new TrieNode(choice, parent);
       current.setFlag(false);
+      nodes++;
+      modCount++;
     }
     //We are done adding the path
     if (d == path.size()) {
-      if(flag)
-        flags++;
-      current.setFlag(flag);
       lastAdded = current;
       return current;
     }
@@ -161,10 +333,172 @@ public class Trie {
     }
 
     int choice = getChoice(path, d);
-    current.next[choice] = put(current.next[choice], current, path, d + 1, flag);
+    TrieNode child = current.getChild(choice);
+    TrieNode updated = put(child, current, path, d + 1);
+    if(updated != child) {
+      current.setChild(choice, updated);
+    }
     return current;
   }
 
+  /**
+   * Removes all descendants of node, e.g. when its subtree has been fully pruned and will never
+   * be queried again. The node itself stays in the trie.
+   * @return the number of nodes removed
+   */
+  public int collapse(TrieNode node) {
+    if(node.next == null) {
+      return 0;
+    }
+    int removed = collapseChildren(node);
+    nodes -= removed;
+    reclaimedNodes += removed;
+    modCount++;
+
+    // Cached cursor nodes below the collapsed node are detached now
+    for(int i = cursorSynced; i >= 0; i--) {
+      if(cursorNodes[i] == node) {
+        cursorSynced = i;
+        break;
+      }
+    }
+    return removed;
+  }
+
+  private int collapseChildren(TrieNode node) {
+    int removed = 0;
+    for(int choice = ChildTable.first(node.next); choice >= 0;
+        choice = ChildTable.next(node.next, choice + 1)) {
+      TrieNode child = node.getChild(choice);
+      if(child.next != null) {
+        removed += collapseChildren(child);
+      }
+      removed++;
+      reclaimedBytes += NODE_BYTES;
+    }
+    reclaimedBytes += ChildTable.getMemoryFootprint(node.next);
+    node.next = null;
+    node.flaggedChildren = 0;
+    return removed;
+  }
+
+  /**
+   * Collapses every flagged node that still has children, e.g. after a checkpoint of a trie
+   * without collapsing has been read, or when the trie is used as a cache.
+   * @return estimate of the bytes released
+   */
+  public long compact() {
+    long before = reclaimedBytes;
+    if(root != null) {
+      compact(root);
+    }
+    return reclaimedBytes - before;
+  }
+
+  private void compact(TrieNode node) {
+    if(node.next == null) {
+      return;
+    }
+    if(node.isFlagSet()) {
+      collapse(node);
+      return;
+    }
+    for(int choice = ChildTable.first(node.next); choice >= 0;
+        choice = ChildTable.next(node.next, choice + 1)) {
+      compact(node.getChild(choice));
+    }
+  }
+
+  // Clears the bits of mask (except PRUNED, see TrieNode#clearFlags(int)) on every node
+  public void clearFlags(int mask) {
+    if(root != null) {
+      clearFlags(root, mask);
+    }
+  }
+
+  private void clearFlags(TrieNode node, int mask) {
+    node.clearFlags(mask);
+    if(node.next == null) {
+      return;
+    }
+    for(int choice = ChildTable.first(node.next); choice >= 0;
+        choice = ChildTable.next(node.next, choice + 1)) {
+      clearFlags(node.getChild(choice), mask);
+    }
+  }
+
+  public long getNumberOfReclaimedNodes() {
+    return reclaimedNodes;
+  }
+
+  // Estimate of the bytes that have been released through collapse
+  public long getReclaimedBytes() {
+    return reclaimedBytes;
+  }
+
+  /**
+   * Writes the trie in pre-order. Each node is a byte with the flag (bit 0), whether it has
+   * children (bit 1) and the other flag bits (bits 2-7), followed by the number of choices, the
+   * number of children and then the choice and subtree of each child. The format is shared with
+   * {@link ArrayTrie}.
+   */
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    Checkpointable.writeVarInt(out, flags);
+    out.writeLong(reclaimedNodes);
+    out.writeLong(reclaimedBytes);
+    out.writeBoolean(root != null);
+    if(root != null) {
+      writeNode(out, root);
+    }
+  }
+
+  private void writeNode(DataOutput out, TrieNode node) throws IOException {
+    out.writeByte((node.flags & PRUNED) | (node.next != null ? 2 : 0) |
+        ((node.flags >> 1) << 2));
+    if(node.next == null) {
+      return;
+    }
+    Checkpointable.writeVarInt(out, node.getNumberOfChoices());
+    Checkpointable.writeVarInt(out, ChildTable.size(node.next));
+    for(int choice = ChildTable.first(node.next); choice >= 0;
+        choice = ChildTable.next(node.next, choice + 1)) {
+      Checkpointable.writeVarInt(out, choice);
+      writeNode(out, node.getChild(choice));
+    }
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    clear();
+    flags = Checkpointable.readVarInt(in);
+    reclaimedNodes = in.readLong();
+    reclaimedBytes = in.readLong();
+    if(in.readBoolean()) {
+      root = readNode(in, null, -1);
+    }
+  }
+
+  private TrieNode readNode(DataInput in, TrieNode parent, int choice) throws IOException {
+    TrieNode node = new TrieNode(choice, parent);
+    nodes++;
+    int header = in.readUnsignedByte();
+    if((header & 2) != 0) {
+      int numberOfChoices = Checkpointable.readVarInt(in);
+      int numberOfChildren = Checkpointable.readVarInt(in);
+      node.initChildren(numberOfChoices);
+      for(int i = 0; i < numberOfChildren; i++) {
+        int childChoice = Checkpointable.readVarInt(in);
+        if(childChoice >= numberOfChoices) {
+          throw new IOException("Choice " + childChoice + " out of range in checkpoint");
+        }
+        node.setChild(childChoice, readNode(in, node, childChoice));
+      }
+    }
+    node.setFlags((header & 1) | ((header >> 2) << 1));
+    return node;
+  }
+
   public TrieNode getLastAddedLeafNode() {
     return this.lastAdded;
   }
@@ -173,10 +507,19 @@ public class Trie {
     return flags;
   }
 
+  public int getNumberOfNodes() {
+    return nodes;
+  }
+
   public void clear() {
     //Should be enough. GC to the rescue
     root = lastAdded = null;
     flags = 0;
+    nodes = 0;
+    reclaimedNodes = reclaimedBytes = 0;
+    modCount++;
+    cursorSynced = 0;
+    Arrays.fill(cursorNodes, null);
   }
 
   public boolean isEmpty() {
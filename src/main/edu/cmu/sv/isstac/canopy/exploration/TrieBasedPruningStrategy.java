@@ -24,7 +24,9 @@
 
 package edu.cmu.sv.isstac.canopy.exploration;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import gov.nasa.jpf.vm.ChoiceGenerator;
 
@@ -32,7 +34,8 @@ import gov.nasa.jpf.vm.ChoiceGenerator;
  * @author Kasper Luckow
  * 
  */
-public class TrieBasedPruningStrategy implements ChoicesStrategy, PruningStrategy {
+public class TrieBasedPruningStrategy implements ChoicesStrategy, PruningStrategy,
+    Checkpointable {
 
   private Trie prunedPaths = new Trie();
 
@@ -51,30 +54,51 @@ public class TrieBasedPruningStrategy implements ChoicesStrategy, PruningStrateg
     this.prunedPaths.clear();
   }
 
+  // The trie of the explored paths. Shared with the state cache (see SharedTrieCache)
+  public Trie getTrie() {
+    return this.prunedPaths;
+  }
+
+  @Override
+  public void getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg,
+                                 ChoiceSet eligibleChoices) {
+    getEligibleChoices(this.prunedPaths.getNode(path), cg.getTotalNumberOfChoices(),
+        eligibleChoices);
+  }
+
+  @Override
+  public void getEligibleChoices(PathCursor cursor, gov.nasa.jpf.vm.Path path,
+                                 ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
+    getEligibleChoices(this.prunedPaths.getNode(cursor), cg.getTotalNumberOfChoices(),
+        eligibleChoices);
+  }
+
   @Override
-  public ArrayList<Integer> getEligibleChoices(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg) {
+  public void getEligibleChoices(Path path, int numberOfChoices, ChoiceSet eligibleChoices) {
+    getEligibleChoices(this.prunedPaths.getNode(path), numberOfChoices, eligibleChoices);
+  }
 
-    Trie.TrieNode node = this.prunedPaths.getNode(path);
-    if(node == null) {
+  private void getEligibleChoices(Trie.TrieNode node, int totalNumberOfChoices,
+                                  ChoiceSet eligibleChoices) {
+    if(node != null && node.isFlagSet()) {
+      // The subtree is pruned (and its children may have been collapsed)
+      eligibleChoices.clear();
+    } else if(node == null || !node.hasChildren() || node.getNumberOfFlaggedChildren() == 0) {
       // can happen for example for the first choice. In this case, by definition, none of the
       // choices are pruned
-      ArrayList<Integer> eligibleChoices = new ArrayList<>();
-      for(int choice = 0; choice < cg.getTotalNumberOfChoices(); choice++) {
-        eligibleChoices.add(choice);
-      }
-      return eligibleChoices;
+      eligibleChoices.setAll(totalNumberOfChoices);
     } else {
 
       //Otherwise, all those choices that are not pruned
-      ArrayList<Integer> eligibleChoices = new ArrayList<>();
-      Trie.TrieNode[] nxtNodes = node.getNext();
-      for (int choice = 0; choice < nxtNodes.length; choice++) {
-        if (nxtNodes[choice] == null || !nxtNodes[choice].isFlagSet()) {
+      eligibleChoices.clear();
+      int numberOfChoices = node.getNumberOfChoices();
+      for (int choice = 0; choice < numberOfChoices; choice++) {
+        Trie.TrieNode child = node.getChild(choice);
+        if (child == null || !child.isFlagSet()) {
           //i.e., this path has not been pruned
           eligibleChoices.add(choice);
         }
       }
-      return eligibleChoices;
     }
   }
 
@@ -103,21 +127,49 @@ public class TrieBasedPruningStrategy implements ChoicesStrategy, PruningStrateg
     // leaf without performing getNode (that would be as costly as the previous put)
     Trie.TrieNode lastNode = prunedPaths.getLastAddedLeafNode();
 
-    // Propagate pruning backwards
+    // Propagate pruning backwards. Each node counts its pruned children, so we only have to
+    // check the counter at each level instead of all the siblings
+    Trie.TrieNode prunedNode = lastNode;
     Trie.TrieNode currentNode = lastNode.getParent();
-    while(currentNode != null) {
-      Trie.TrieNode[] nxt = currentNode.getNext();
-      for(int choice = 0; choice < nxt.length; choice++) {
-        if(nxt[choice] == null ||
-            !nxt[choice].isFlagSet()) {
-          // we found a node that had a child that was not pruned, i.e. we will not proceed
-          // propagating pruning information
-          return;
-        }
-      }
-      // All siblings were pruned, so we also prune the parent by setting its data field to true
+    while(currentNode != null && !currentNode.isFlagSet() &&
+        currentNode.areAllChildrenFlagged()) {
+      // All children were pruned, so we also prune the parent by setting its data field to true
       currentNode.setFlag(true);
+      prunedNode = currentNode;
       currentNode = currentNode.getParent();
     }
+
+    // Nothing below the topmost pruned node will be queried again, so we let the GC have it
+    prunedPaths.collapse(prunedNode);
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    this.prunedPaths.writeCheckpoint(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    this.prunedPaths.readCheckpoint(in);
+  }
+
+  @Override
+  public long getNumberOfNodes() {
+    return this.prunedPaths.getNumberOfNodes();
+  }
+
+  @Override
+  public long getNumberOfReclaimedNodes() {
+    return this.prunedPaths.getNumberOfReclaimedNodes();
+  }
+
+  @Override
+  public long compact() {
+    return this.prunedPaths.compact();
+  }
+
+  @Override
+  public long getReclaimedBytes() {
+    return this.prunedPaths.getReclaimedBytes();
   }
 }
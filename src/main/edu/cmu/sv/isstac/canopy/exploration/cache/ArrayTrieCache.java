@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.cmu.sv.isstac.canopy.exploration.ArrayTrie;
+import edu.cmu.sv.isstac.canopy.exploration.Checkpointable;
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Same caching as {@link TrieCache}, but the states are kept in an {@link ArrayTrie}
+ */
+public class ArrayTrieCache implements StateCache, Checkpointable {
+
+  private final ArrayTrie trie;
+  private int hits;
+  private int misses;
+
+  public ArrayTrieCache() {
+    this(new ArrayTrie());
+  }
+
+  public ArrayTrieCache(ArrayTrie trie) {
+    this.trie = trie;
+  }
+
+  @Override
+  public void addState(VM vm) {
+    trie.setFlag(vm.getPath(), true);
+  }
+
+  @Override
+  public boolean isStateCached(VM vm) {
+    return isStateCached(vm, trie.getNode(vm.getPath()));
+  }
+
+  @Override
+  public boolean isStateCached(VM vm, PathCursor cursor) {
+    return isStateCached(vm, trie.getNode(cursor));
+  }
+
+  private boolean isStateCached(VM vm, int node) {
+    boolean hit = false;
+    if(node != ArrayTrie.NO_NODE && trie.hasChildren(node)) {
+      int currentChoice = JPFUtil.getCurrentChoiceOfCG(vm.getChoiceGenerator());
+      if(trie.getChild(node, currentChoice) != ArrayTrie.NO_NODE) {
+        hit = true;
+      }
+    }
+
+    // Keep stats
+    if(hit)
+      hits++;
+    else
+      misses++;
+    return hit;
+  }
+
+  @Override
+  public void clear() {
+    trie.clear();
+  }
+
+  @Override
+  public boolean isClearable() {
+    return true;
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    trie.writeCheckpoint(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    trie.readCheckpoint(in);
+  }
+
+  @Override
+  public boolean supportsPCOptimization() {
+    //Same as TrieCache
+    return false;
+  }
+}
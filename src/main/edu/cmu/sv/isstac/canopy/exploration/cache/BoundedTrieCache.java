@@ -0,0 +1,384 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration.cache;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
+import edu.cmu.sv.isstac.canopy.util.ChildTable;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.Path;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Like {@link TrieCache}, but bounded by a number of entries (states in the trie) and by an
+ * estimate of the bytes they take up, set with canopy.statecache.maxentries and
+ * canopy.statecache.maxbytes. Cold states are evicted when a sample is added and the cache is
+ * over budget.
+ *
+ * Only leaves are evicted, since the states below an entry are looked up through it. The leaves
+ * are kept in a segmented LRU: a new leaf starts in the probation segment and moves to the
+ * protected segment when it is hit, e.g. because the analysis strategy selects the prefix again.
+ * Victims are taken from the least recently used end of probation first, so states that were
+ * seen once go before states that are revisited. The protected segment holds at most
+ * PROTECTED_SHARE of the leaves; beyond that, its least recently used leaves are demoted to
+ * probation. A prefix whose suffixes have all been evicted becomes a leaf and is next in line in
+ * its segment.
+ *
+ * Hits, misses and evictions are logged when the search finishes, which requires the cache to
+ * be registered as a JPF listener ({@link edu.cmu.sv.isstac.canopy.SamplingAnalysis} does).
+ */
+public class BoundedTrieCache extends ListenerAdapter implements StateCache {
+  private static final Logger logger = JPFLogger.getLogger(BoundedTrieCache.class.getName());
+
+  // Estimate (compressed oops) of the bytes of an entry excluding its child table
+  private static final int ENTRY_BYTES = 40;
+  private static final double PROTECTED_SHARE = 0.8;
+
+  private static final byte NONE = 0;
+  private static final byte PROBATION = 1;
+  private static final byte PROTECTED = 2;
+
+  private static final class Entry {
+    private final Entry parent;
+    private final int choice;
+    // Children indexed by choice (see ChildTable)
+    private Object children;
+    private boolean revisited = false;
+    // The segment of a leaf and its neighbours in the segment, most recently used first
+    private byte segment = NONE;
+    private Entry prev;
+    private Entry next;
+
+    private Entry(Entry parent, int choice) {
+      this.parent = parent;
+      this.choice = choice;
+    }
+  }
+
+  private final long maxEntries;
+  private final long maxBytes;
+
+  private Entry root = new Entry(null, -1);
+  // Sentinels of the circular lists of the segments
+  private final Entry probationHead = newSentinel();
+  private final Entry protectedHead = newSentinel();
+  private long probationSize = 0;
+  private long protectedSize = 0;
+
+  private long entries = 0;
+  private long bytes = 0;
+  private int modCount = 0;
+
+  // Entries along the path of the cursor (see Trie#getNode(PathCursor))
+  private PathCursor cursor;
+  private Entry[] cursorEntries = new Entry[64];
+  private long[] cursorStamps = new long[64];
+  private int cursorSynced = 0;
+  private int cursorModCount = -1;
+
+  // Used if the cache is queried without a cursor
+  private final PathCursor ownCursor = new PathCursor();
+
+  private long hits = 0;
+  private long misses = 0;
+  private long insertions = 0;
+  private long evictions = 0;
+  private long peakEntries = 0;
+
+  public BoundedTrieCache(Config config) {
+    this(config.getLong(Options.STATE_CACHE_MAX_ENTRIES, Options.DEFAULT_STATE_CACHE_MAX_ENTRIES),
+        config.getLong(Options.STATE_CACHE_MAX_BYTES, Options.DEFAULT_STATE_CACHE_MAX_BYTES));
+  }
+
+  public BoundedTrieCache() {
+    this(Options.DEFAULT_STATE_CACHE_MAX_ENTRIES, Options.DEFAULT_STATE_CACHE_MAX_BYTES);
+  }
+
+  /**
+   * @param maxEntries the max number of cached states, or 0 for no limit
+   * @param maxBytes the max estimated bytes of the cached states, or 0 for no limit
+   */
+  public BoundedTrieCache(long maxEntries, long maxBytes) {
+    if(maxEntries < 0) {
+      throw new IllegalArgumentException("Max entries must not be negative: " + maxEntries);
+    }
+    if(maxBytes < 0) {
+      throw new IllegalArgumentException("Max bytes must not be negative: " + maxBytes);
+    }
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public void addState(VM vm) {
+    Path path = vm.getPath();
+    Entry entry = root;
+    for(int level = 0; level < path.size(); level++) {
+      ChoiceGenerator<?> cg = path.get(level).getChoiceGenerator();
+      int choice = JPFUtil.getCurrentChoiceOfCG(cg);
+      Entry child = ChildTable.get(entry.children, choice);
+      if(child == null) {
+        // The entry is no longer a leaf
+        unlink(entry);
+        long footprint = ChildTable.getMemoryFootprint(entry.children);
+        Object table = ChildTable.ensureChoices(entry.children, cg.getTotalNumberOfChoices());
+        child = new Entry(entry, choice);
+        entry.children = ChildTable.put(table, choice, child);
+        bytes += ChildTable.getMemoryFootprint(entry.children) - footprint + ENTRY_BYTES;
+        entries++;
+        insertions++;
+        modCount++;
+      }
+      entry = child;
+    }
+    if(entry != root && entry.children == null) {
+      // The path was used by this sample
+      unlink(entry);
+      link(entry, entry.revisited ? PROTECTED : PROBATION, true);
+      balance();
+    }
+    peakEntries = Math.max(peakEntries, entries);
+    evict();
+  }
+
+  @Override
+  public boolean isStateCached(VM vm) {
+    ownCursor.resync(vm.getPath());
+    return isStateCached(vm, ownCursor);
+  }
+
+  @Override
+  public boolean isStateCached(VM vm, PathCursor cursor) {
+    // The cursor ends at the state of the current CG, so the cached state is the child for the
+    // choice that was just made
+    Entry state = getEntry(cursor);
+    Entry entry = (state == null) ? null :
+        ChildTable.get(state.children, JPFUtil.getCurrentChoiceOfCG(vm.getChoiceGenerator()));
+    if(entry != null) {
+      hits++;
+      entry.revisited = true;
+      if(entry.segment != NONE) {
+        unlink(entry);
+        link(entry, PROTECTED, true);
+        balance();
+      }
+    } else {
+      misses++;
+    }
+    return entry != null;
+  }
+
+  private Entry getEntry(PathCursor cursor) {
+    int depth = cursor.getDepth();
+    if(cursor != this.cursor) {
+      this.cursor = cursor;
+      cursorSynced = 0;
+    }
+    if(cursorModCount != modCount) {
+      // Entries may have been added where we previously did not find any
+      while(cursorSynced > 0 && cursorEntries[cursorSynced] == null) {
+        cursorSynced--;
+      }
+      cursorModCount = modCount;
+    }
+    cursorEntries[0] = root;
+    if(cursorSynced > depth) {
+      cursorSynced = depth;
+    }
+    // If the deepest level is still on the cursor's path, so are all the levels above it
+    while(cursorSynced > 0 && cursorStamps[cursorSynced] != cursor.getStamp(cursorSynced - 1)) {
+      cursorSynced--;
+    }
+    if(depth >= cursorEntries.length) {
+      int capacity = Math.max(depth + 1, cursorEntries.length * 2);
+      cursorEntries = Arrays.copyOf(cursorEntries, capacity);
+      cursorStamps = Arrays.copyOf(cursorStamps, capacity);
+    }
+    while(cursorSynced < depth) {
+      Entry x = cursorEntries[cursorSynced];
+      Entry next = (x == null) ? null :
+          ChildTable.<Entry>get(x.children, cursor.getChoice(cursorSynced));
+      cursorStamps[cursorSynced + 1] = cursor.getStamp(cursorSynced);
+      cursorEntries[++cursorSynced] = next;
+    }
+    return cursorEntries[depth];
+  }
+
+  private boolean isOverBudget() {
+    return (maxEntries > 0 && entries > maxEntries) || (maxBytes > 0 && bytes > maxBytes);
+  }
+
+  private void evict() {
+    boolean evicted = false;
+    while(isOverBudget()) {
+      Entry victim;
+      if(probationSize > 0) {
+        victim = probationHead.prev;
+      } else if(protectedSize > 0) {
+        victim = protectedHead.prev;
+      } else {
+        break;
+      }
+      unlink(victim);
+      Entry parent = victim.parent;
+      long footprint = ChildTable.getMemoryFootprint(parent.children);
+      parent.children = ChildTable.remove(parent.children, victim.choice);
+      bytes -= footprint - ChildTable.getMemoryFootprint(parent.children) + ENTRY_BYTES;
+      entries--;
+      evictions++;
+      evicted = true;
+      if(parent.children == null && parent != root) {
+        // All the suffixes of the prefix have been evicted
+        link(parent, parent.revisited ? PROTECTED : PROBATION, false);
+      }
+    }
+    if(evicted) {
+      // The cached entries of the cursor may have been evicted
+      cursorSynced = 0;
+      balance();
+    }
+  }
+
+  // Demotes the least recently used protected leaves beyond the share of the protected segment
+  private void balance() {
+    while(protectedSize > PROTECTED_SHARE * (probationSize + protectedSize)) {
+      Entry demoted = protectedHead.prev;
+      unlink(demoted);
+      link(demoted, PROBATION, true);
+    }
+  }
+
+  private void link(Entry entry, byte segment, boolean mostRecentlyUsed) {
+    Entry head = (segment == PROTECTED) ? protectedHead : probationHead;
+    Entry before = mostRecentlyUsed ? head : head.prev;
+    entry.prev = before;
+    entry.next = before.next;
+    before.next.prev = entry;
+    before.next = entry;
+    entry.segment = segment;
+    if(segment == PROTECTED)
+      protectedSize++;
+    else
+      probationSize++;
+  }
+
+  private void unlink(Entry entry) {
+    if(entry.segment == NONE) {
+      return;
+    }
+    entry.prev.next = entry.next;
+    entry.next.prev = entry.prev;
+    entry.prev = null;
+    entry.next = null;
+    if(entry.segment == PROTECTED)
+      protectedSize--;
+    else
+      probationSize--;
+    entry.segment = NONE;
+  }
+
+  private static Entry newSentinel() {
+    Entry sentinel = new Entry(null, -1);
+    sentinel.prev = sentinel;
+    sentinel.next = sentinel;
+    return sentinel;
+  }
+
+  @Override
+  public void searchFinished(Search search) {
+    logger.info("Bounded state cache: " + this);
+  }
+
+  @Override
+  public void clear() {
+    root = new Entry(null, -1);
+    probationHead.prev = probationHead;
+    probationHead.next = probationHead;
+    protectedHead.prev = protectedHead;
+    protectedHead.next = protectedHead;
+    probationSize = 0;
+    protectedSize = 0;
+    entries = 0;
+    bytes = 0;
+    modCount++;
+    cursorSynced = 0;
+    Arrays.fill(cursorEntries, null);
+  }
+
+  @Override
+  public boolean isClearable() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsPCOptimization() {
+    //Same as TrieCache
+    return false;
+  }
+
+  public long getNumberOfEntries() {
+    return entries;
+  }
+
+  // Estimate of the bytes taken up by the cached states
+  public long getMemoryFootprint() {
+    return bytes;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public double getHitRate() {
+    long lookups = hits + misses;
+    return (lookups == 0) ? 0 : (double) hits / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d states (peak %d, ~%d KB; %d protected and %d probation leaves), " +
+            "%d inserted, %d evicted, %d hits, %d misses, hit rate %.2f", entries, peakEntries,
+        bytes / 1024, protectedSize, probationSize, insertions, evictions, hits, misses,
+        getHitRate());
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration.cache;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
+import edu.cmu.sv.isstac.canopy.util.ChildTable;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.ListenerAdapter;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.symbc.numeric.PCChoiceGenerator;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.Path;
+import gov.nasa.jpf.vm.ThreadInfo;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * State cache that stays correct when SPF optimizes choices (symbolic.optimizechoices). With
+ * the optimization, a branch is solved for both outcomes *before* its PC choice generator is
+ * registered, and the CG is only registered if both outcomes are satisfiable; a branch with one
+ * satisfiable outcome just continues. Turning on replay for a whole cached state, as
+ * {@link TrieCache} does, would make SPF regard every outcome as satisfiable, register CGs for
+ * one-sided branches and thereby change the tree.
+ *
+ * Instead, this cache records for each state the branch that had two satisfiable outcomes, i.e.
+ * the instruction (counted from the choice of the state) that registered the next PC CG. When
+ * a later sample makes the same choice, the execution up to that instruction is the same, so
+ * replay is turned on for that instruction only: it registers the CG without solving, whereas
+ * the one-sided branches before it are solved as usual.
+ *
+ * Without the optimization, the cache behaves like {@link TrieCache}. The cache must be
+ * registered as a JPF listener, which {@link edu.cmu.sv.isstac.canopy.SamplingAnalysis} does.
+ */
+public class BranchOutcomeCache extends ListenerAdapter implements StateCache {
+  private static final Logger logger = JPFLogger.getLogger(BranchOutcomeCache.class.getName());
+
+  private static final int UNKNOWN = -1;
+
+  private static class OutcomeNode {
+    // Index of the instruction, counted from the choice leading to this node, that registered
+    // the next PC CG, or UNKNOWN
+    private long branchIndex = UNKNOWN;
+    // Children indexed by choice (see ChildTable)
+    private Object children;
+  }
+
+  private final boolean optimizeChoices;
+
+  private OutcomeNode root = new OutcomeNode();
+  private int modCount = 0;
+
+  // The node of the state after the choice of the current CG (null if it is not cached) and
+  // the level of that choice in the path. The level is -1 if the current CG is not a PC CG
+  private OutcomeNode current = null;
+  private int currentLevel = -1;
+  private int currentChoice = -1;
+  // Instructions executed since the current CG was advanced
+  private long instructions = 0;
+  // Whether replay was turned on for the current instruction, and the replay to restore after it
+  private boolean replaying = false;
+  private boolean replayBefore = false;
+
+  // The instruction that registered the next PC CG for each level of the current path, valid if
+  // the choice matches and the stamp matches the stamp of the prefix above the level in the
+  // cursor (see prefixStamp)
+  private PathCursor cursor;
+  private long[] recordedIndices = newRecordedIndices(64);
+  private long[] recordedStamps = new long[64];
+  private int[] recordedChoices = new int[64];
+
+  // Nodes along the path of the cursor (see Trie#getNode(PathCursor))
+  private OutcomeNode[] cursorNodes = new OutcomeNode[64];
+  private long[] cursorStamps = new long[64];
+  private int cursorSynced = 0;
+  private int cursorModCount = -1;
+
+  // Used if the cache is queried without a cursor
+  private final PathCursor ownCursor = new PathCursor();
+
+  private long replayedBranches = 0;
+  private long solvedBranches = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  public BranchOutcomeCache(Config config) {
+    this(config.getBoolean("symbolic.optimizechoices", true));
+  }
+
+  public BranchOutcomeCache() {
+    this(true);
+  }
+
+  public BranchOutcomeCache(boolean optimizeChoices) {
+    this.optimizeChoices = optimizeChoices;
+  }
+
+  @Override
+  public void addState(VM vm) {
+    Path path = vm.getPath();
+    OutcomeNode node = root;
+    for(int level = 0; level < path.size(); level++) {
+      ChoiceGenerator<?> cg = path.get(level).getChoiceGenerator();
+      node = addChild(node, level, JPFUtil.getCurrentChoiceOfCG(cg),
+          cg.getTotalNumberOfChoices());
+    }
+  }
+
+  // Like addState(VM) for a path of PC CGs, i.e. with two choices at each level
+  void addState(int[] choices) {
+    OutcomeNode node = root;
+    for(int level = 0; level < choices.length; level++) {
+      node = addChild(node, level, choices[level], 2);
+    }
+  }
+
+  private OutcomeNode addChild(OutcomeNode node, int level, int choice, int numberOfChoices) {
+    if(node.children == null) {
+      node.children = ChildTable.create(numberOfChoices);
+    }
+    OutcomeNode child = ChildTable.get(node.children, choice);
+    if(child == null) {
+      child = new OutcomeNode();
+      node.children = ChildTable.put(node.children, choice, child);
+      modCount++;
+    }
+    if(child.branchIndex == UNKNOWN && cursor != null && level <= cursor.getDepth() &&
+        level < recordedStamps.length && recordedChoices[level] == choice &&
+        recordedStamps[level] == prefixStamp(cursor, level)) {
+      child.branchIndex = recordedIndices[level];
+    }
+    return child;
+  }
+
+  @Override
+  public boolean isStateCached(VM vm) {
+    ownCursor.resync(vm.getPath());
+    return isStateCached(vm, ownCursor);
+  }
+
+  @Override
+  public boolean isStateCached(VM vm, PathCursor cursor) {
+    return isStateCached(cursor, JPFUtil.getCurrentChoiceOfCG(vm.getChoiceGenerator()));
+  }
+
+  // Whether the state after the choice of the current PC CG is cached. The cursor ends at the
+  // state of the CG
+  boolean isStateCached(PathCursor cursor, int choice) {
+    // The cached state is the child for the choice that was just made
+    OutcomeNode state = getNode(cursor);
+    this.cursor = cursor;
+    this.currentChoice = choice;
+    this.current = (state == null) ? null : ChildTable.get(state.children, currentChoice);
+    this.currentLevel = cursor.getDepth();
+    this.instructions = 0;
+
+    if(current != null)
+      hits++;
+    else
+      misses++;
+    // With choice optimization, replay is only turned on for the branch of the next CG
+    return !optimizeChoices && current != null;
+  }
+
+  private OutcomeNode getNode(PathCursor cursor) {
+    int depth = cursor.getDepth();
+    if(cursorModCount != modCount) {
+      // Nodes may have been added where we previously did not find any
+      while(cursorSynced > 0 && cursorNodes[cursorSynced] == null) {
+        cursorSynced--;
+      }
+      cursorModCount = modCount;
+    }
+    cursorNodes[0] = root;
+    if(cursorSynced > depth) {
+      cursorSynced = depth;
+    }
+    // If the deepest level is still on the cursor's path, so are all the levels above it
+    while(cursorSynced > 0 && cursorStamps[cursorSynced] != cursor.getStamp(cursorSynced - 1)) {
+      cursorSynced--;
+    }
+    if(depth >= cursorNodes.length) {
+      int capacity = Math.max(depth + 1, cursorNodes.length * 2);
+      cursorNodes = Arrays.copyOf(cursorNodes, capacity);
+      cursorStamps = Arrays.copyOf(cursorStamps, capacity);
+    }
+    while(cursorSynced < depth) {
+      OutcomeNode x = cursorNodes[cursorSynced];
+      OutcomeNode next = (x == null) ? null :
+          ChildTable.<OutcomeNode>get(x.children, cursor.getChoice(cursorSynced));
+      cursorStamps[cursorSynced + 1] = cursor.getStamp(cursorSynced);
+      cursorNodes[++cursorSynced] = next;
+    }
+    return cursorNodes[depth];
+  }
+
+  @Override
+  public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> currentCG) {
+    this.instructions = 0;
+    if(!(currentCG instanceof PCChoiceGenerator)) {
+      // The sampling listener only queries the cache for PC CGs
+      this.current = null;
+      this.currentLevel = -1;
+    }
+  }
+
+  @Override
+  public void executeInstruction(VM vm, ThreadInfo currentThread,
+                                 Instruction instructionToExecute) {
+    if(optimizeChoices && current != null && current.branchIndex == instructions) {
+      // Both outcomes of this branch were satisfiable when the state was explored before
+      replayBefore = JPFUtil.isReplay();
+      JPFUtil.setReplay(true);
+      replaying = true;
+    }
+  }
+
+  @Override
+  public void choiceGeneratorRegistered(VM vm, ChoiceGenerator<?> nextCG,
+                                        ThreadInfo currentThread, Instruction executedInstruction) {
+    if(nextCG instanceof PCChoiceGenerator) {
+      branchRegistered();
+    }
+  }
+
+  // Records that the current instruction registered the next PC CG
+  void branchRegistered() {
+    // The level is stale if the cache was not queried for the current CG
+    if(currentLevel < 0 || currentLevel != cursor.getDepth()) {
+      return;
+    }
+    if(replaying)
+      replayedBranches++;
+    else
+      solvedBranches++;
+    if(currentLevel >= recordedIndices.length) {
+      int capacity = Math.max(currentLevel + 1, recordedIndices.length * 2);
+      long[] indices = newRecordedIndices(capacity);
+      System.arraycopy(recordedIndices, 0, indices, 0, recordedIndices.length);
+      recordedIndices = indices;
+      recordedStamps = Arrays.copyOf(recordedStamps, capacity);
+      recordedChoices = Arrays.copyOf(recordedChoices, capacity);
+    }
+    recordedIndices[currentLevel] = instructions;
+    recordedStamps[currentLevel] = prefixStamp(cursor, currentLevel);
+    recordedChoices[currentLevel] = currentChoice;
+  }
+
+  // Identifies the path above level. Stamps of the cursor start at 1, so 0 is the empty prefix
+  private static long prefixStamp(PathCursor cursor, int level) {
+    return (level == 0) ? 0 : cursor.getStamp(level - 1);
+  }
+
+  private static long[] newRecordedIndices(int capacity) {
+    long[] indices = new long[capacity];
+    Arrays.fill(indices, UNKNOWN);
+    return indices;
+  }
+
+  @Override
+  public void instructionExecuted(VM vm, ThreadInfo currentThread, Instruction nextInstruction,
+                                  Instruction executedInstruction) {
+    instructions++;
+    if(replaying) {
+      // Back to the replay set by the sampling listener for the choice
+      JPFUtil.setReplay(replayBefore);
+      replaying = false;
+    }
+  }
+
+  @Override
+  public void searchFinished(Search search) {
+    logger.info("Branch outcome cache: " + this);
+  }
+
+  @Override
+  public void clear() {
+    root = new OutcomeNode();
+    modCount++;
+    cursorSynced = 0;
+    Arrays.fill(cursorNodes, null);
+  }
+
+  @Override
+  public boolean isClearable() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsPCOptimization() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d hits, %d misses, %d branches replayed, %d branches solved",
+        hits, misses, replayedBranches, solvedBranches);
+  }
+}
@@ -29,6 +29,7 @@ import java.util.Set;
 
 import edu.cmu.sv.isstac.canopy.exploration.Path;
 import gov.nasa.jpf.symbc.numeric.PCChoiceGenerator;
+import gov.nasa.jpf.vm.ChoiceGenerator;
 import gov.nasa.jpf.vm.VM;
 
 /**
@@ -55,14 +56,16 @@ public class HashingCache implements StateCache {
 
   @Override
   public void addState(VM vm) {
-    PCChoiceGenerator[] pcs = vm.getChoiceGeneratorsOfType(PCChoiceGenerator.class);
-    for (int i = pcs.length - 1; i >= 0; i--) {
-      PCChoiceGenerator cg = pcs[i];
-
-      //This could be expensive for long paths (i.e. many CGs)
-      if (!stateCache.contains(cg)) {
-        stateCache.add(new Path(cg));
-      } else {
+    ChoiceGenerator<?> cg = vm.getChoiceGenerator();
+    // The prefixes share the choices with the path, so adding them does not copy the path
+    Path path = new Path(cg);
+    int length = path.length();
+    for(ChoiceGenerator<?> c = cg; c != null; c = c.getPreviousChoiceGenerator(), length--) {
+      if(!(c instanceof PCChoiceGenerator)) {
+        continue;
+      }
+      Path prefix = path.getPrefix(length);
+      if (!stateCache.add(prefix)) {
         // This is a small trick and an optimization. Note that we are adding the CGs to the
         // cache starting from the *end* of the path. If the path
         // of the current cg is in the cache, then, by definition, we must have added
@@ -87,6 +90,16 @@ public class HashingCache implements StateCache {
     return hit;
   }
 
+  @Override
+  public void clear() {
+    stateCache.clear();
+  }
+
+  @Override
+  public boolean isClearable() {
+    return true;
+  }
+
   @Override
   public boolean supportsPCOptimization() {
     //will fail on at least lawdb if pc optimization is set to true
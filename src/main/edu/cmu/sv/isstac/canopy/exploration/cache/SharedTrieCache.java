@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration.cache;
+
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
+import edu.cmu.sv.isstac.canopy.exploration.Trie;
+import edu.cmu.sv.isstac.canopy.exploration.TrieBasedPruningStrategy;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Same caching as {@link TrieCache}, but the states are kept as flag bits in the trie of the
+ * {@link TrieBasedPruningStrategy} instead of in a trie of their own. The pruner adds every
+ * terminated path anyway, so with this cache the paths are stored once, and flagging a path for
+ * the pruner right after it was cached does not walk the trie again (see
+ * {@link Trie#setFlags(gov.nasa.jpf.vm.Path, int)}). It is used only if set with
+ * canopy.statecache; the default is {@link TrieCache}.
+ *
+ * Since the pruner also adds infeasible paths, a state is only cached if its node has the
+ * CACHED bit.
+ *
+ * The trie is cleared when the pruner is reset and checkpointed with the pruner. Clearing the
+ * cache only clears the CACHED bits, since the nodes belong to the pruner.
+ */
+public class SharedTrieCache implements StateCache {
+
+  private final Trie trie;
+  private int hits;
+  private int misses;
+
+  public SharedTrieCache() {
+    this(TrieBasedPruningStrategy.getInstance());
+  }
+
+  public SharedTrieCache(TrieBasedPruningStrategy pruner) {
+    this.trie = pruner.getTrie();
+  }
+
+  @Override
+  public void addState(VM vm) {
+    Trie.TrieNode node = trie.setFlags(vm.getPath(), Trie.CACHED);
+
+    // The prefixes are cached as well. If a prefix already is, so are the prefixes above it
+    for(node = node.getParent(); node != null && !node.hasFlags(Trie.CACHED);
+        node = node.getParent()) {
+      node.setFlags(Trie.CACHED);
+    }
+  }
+
+  @Override
+  public boolean isStateCached(VM vm) {
+    return isStateCached(vm, trie.getNode(vm.getPath()));
+  }
+
+  @Override
+  public boolean isStateCached(VM vm, PathCursor cursor) {
+    return isStateCached(vm, trie.getNode(cursor));
+  }
+
+  private boolean isStateCached(VM vm, Trie.TrieNode node) {
+    boolean hit = false;
+    if(node != null && node.hasChildren()) {
+      int currentChoice = JPFUtil.getCurrentChoiceOfCG(vm.getChoiceGenerator());
+      Trie.TrieNode child = node.getChild(currentChoice);
+      if(child != null && child.hasFlags(Trie.CACHED)) {
+        hit = true;
+      }
+    }
+
+    // Keep stats
+    if(hit)
+      hits++;
+    else
+      misses++;
+    return hit;
+  }
+
+  // Forgets the cached states. No memory is released, so isClearable() is false
+  @Override
+  public void clear() {
+    trie.clearFlags(Trie.CACHED);
+  }
+
+  @Override
+  public boolean supportsPCOptimization() {
+    //Same as TrieCache
+    return false;
+  }
+}
@@ -24,6 +24,7 @@
 
 package edu.cmu.sv.isstac.canopy.exploration.cache;
 
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
 import gov.nasa.jpf.vm.VM;
 
 /**
@@ -34,5 +35,18 @@ public interface StateCache {
 
   boolean isStateCached(VM vm);
 
+  // The cursor is synced with the path of the vm
+  default boolean isStateCached(VM vm, PathCursor cursor) {
+    return isStateCached(vm);
+  }
+
   boolean supportsPCOptimization();
+
+  // Drops all cached states, e.g. to release memory. States are merely recomputed afterwards
+  default void clear() { }
+
+  // True if clear() releases the memory held by the cache
+  default boolean isClearable() {
+    return false;
+  }
 }
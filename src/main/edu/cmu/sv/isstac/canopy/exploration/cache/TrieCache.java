@@ -24,6 +24,12 @@
 
 package edu.cmu.sv.isstac.canopy.exploration.cache;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import edu.cmu.sv.isstac.canopy.exploration.Checkpointable;
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
 import edu.cmu.sv.isstac.canopy.exploration.Trie;
 import edu.cmu.sv.isstac.canopy.util.JPFUtil;
 import gov.nasa.jpf.vm.VM;
@@ -31,7 +37,7 @@ import gov.nasa.jpf.vm.VM;
 /**
  * @author Kasper Luckow
  */
-public class TrieCache implements StateCache {
+public class TrieCache implements StateCache, Checkpointable {
 
   private Trie trie = new Trie();
   private int hits;
@@ -44,11 +50,19 @@ public class TrieCache implements StateCache {
 
   @Override
   public boolean isStateCached(VM vm) {
+    return isStateCached(vm, trie.getNode(vm.getPath()));
+  }
+
+  @Override
+  public boolean isStateCached(VM vm, PathCursor cursor) {
+    return isStateCached(vm, trie.getNode(cursor));
+  }
+
+  private boolean isStateCached(VM vm, Trie.TrieNode node) {
     boolean hit = false;
-    Trie.TrieNode node = trie.getNode(vm.getPath());
-    if(node != null) {
+    if(node != null && node.hasChildren()) {
       int currentChoice = JPFUtil.getCurrentChoiceOfCG(vm.getChoiceGenerator());
-      if(node.getNext()[currentChoice] != null) {
+      if(node.getChild(currentChoice) != null) {
         hit = true;
       }
     }
@@ -61,6 +75,26 @@ public class TrieCache implements StateCache {
     return hit;
   }
 
+  @Override
+  public void clear() {
+    trie.clear();
+  }
+
+  @Override
+  public boolean isClearable() {
+    return true;
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutput out) throws IOException {
+    trie.writeCheckpoint(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInput in) throws IOException {
+    trie.readCheckpoint(in);
+  }
+
   @Override
   public boolean supportsPCOptimization() {
     //will fail on at least lawdb if pc optimization is set to true
@@ -24,18 +24,20 @@
 
 package edu.cmu.sv.isstac.canopy.mcts;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedList;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import edu.cmu.sv.isstac.canopy.AnalysisStrategy;
 import edu.cmu.sv.isstac.canopy.analysis.MCTSEventObserver;
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
+import edu.cmu.sv.isstac.canopy.exploration.ChoicesStrategy;
 import edu.cmu.sv.isstac.canopy.policies.SimulationPolicy;
 import edu.cmu.sv.isstac.canopy.search.BackPropagator;
+import edu.cmu.sv.isstac.canopy.search.CollapsibleStrategy;
+import edu.cmu.sv.isstac.canopy.search.ResumableStrategy;
+import edu.cmu.sv.isstac.canopy.search.SnapshotCache;
 import edu.cmu.sv.isstac.canopy.search.TerminationType;
 import edu.cmu.sv.isstac.canopy.structure.Node;
 import edu.cmu.sv.isstac.canopy.structure.NodeCreationException;
@@ -48,7 +50,8 @@ import gov.nasa.jpf.vm.VM;
 /**
  * @author Kasper Luckow
  */
-public class MCTSStrategy implements AnalysisStrategy {
+public class MCTSStrategy implements AnalysisStrategy, ResumableStrategy,
+    CollapsibleStrategy {
 
   private enum MCTS_STATE {
     SELECTION {
@@ -79,6 +82,10 @@ public class MCTSStrategy implements AnalysisStrategy {
   private boolean expandedFlag = false;
   private int expandedChoice = -1;
 
+  // Reused for every expansion to avoid allocating on the choice path
+  private final ChoiceSet unexpandedEligibleChoices = new ChoiceSet();
+  private final ChoiceSet lookaheadEligibleChoices = new ChoiceSet();
+
   //This is a bit redundant. The event observers are also used by the SamplingAnalysisListener
   private Collection<MCTSEventObserver> observers = new LinkedList<>();
 
@@ -98,7 +105,7 @@ public class MCTSStrategy implements AnalysisStrategy {
   }
 
   @Override
-  public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices) {
+  public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
     if (this.nodeFactory.isSupportedChoiceGenerator(cg)) {
 
       // If we expanded a child in the previous CG advancement,
@@ -146,7 +153,7 @@ public class MCTSStrategy implements AnalysisStrategy {
         // Check if node is a "frontier", i.e. it has eligible, unexpanded children
         // In this case, we perform the expansion step of MCTS
         if (isFrontierNode(last, eligibleChoices)) {
-          ArrayList<Integer> unexpandedEligibleChoices = getUnexpandedEligibleChoices(last, eligibleChoices);
+          ChoiceSet unexpandedEligibleChoices = getUnexpandedEligibleChoices(last, eligibleChoices);
 
           // Select the unexpanded children according to our selection policy, e.g. randomly
           choice = expandedChoice = selectionPolicy.expandChild(last, unexpandedEligibleChoices);
@@ -190,28 +197,18 @@ public class MCTSStrategy implements AnalysisStrategy {
     }
   }
 
-  private ArrayList<Integer> getUnexpandedEligibleChoices(Node n, ArrayList<Integer> eligibleChoices) {
-    ArrayList<Integer> unexpandedEligibleChoices = new ArrayList<>();
-    Collection<Node> expandedChildren = new HashSet<>();
-    for (Node child : n.getChildren()) {
-      if (((MCTSNode) child).isSearchTreeNode()) {
-        expandedChildren.add(child);
-      }
-    }
-
-    Set<Integer> childChoices = new HashSet<>();
-
-    //Could expose a method in a node to obtain the following
-    for (Node child : expandedChildren) {
-      childChoices.add(child.getChoice());
-    }
+  private ChoiceSet getUnexpandedEligibleChoices(Node n, ChoiceSet eligibleChoices) {
+    ChoiceSet unexpandedEligibleChoices = this.unexpandedEligibleChoices;
+    unexpandedEligibleChoices.copyFrom(eligibleChoices);
 
     // We only select the unexpanded children
     // that are eligible for selection, e.g.,
     // not pruned.
-    for (int eligibleChoice : eligibleChoices) {
-      if (!childChoices.contains(eligibleChoice))
-        unexpandedEligibleChoices.add(eligibleChoice);
+    for (int eligibleChoice = eligibleChoices.first(); eligibleChoice >= 0;
+         eligibleChoice = eligibleChoices.next(eligibleChoice + 1)) {
+      if (n.hasChildForChoice(eligibleChoice) &&
+          ((MCTSNode) n.getChild(eligibleChoice)).isSearchTreeNode())
+        unexpandedEligibleChoices.remove(eligibleChoice);
     }
 
     // We have hit an illegal state if there
@@ -269,8 +266,9 @@ public class MCTSStrategy implements AnalysisStrategy {
     this.playOutNode = null;
   }
 
-  private boolean isFrontierNode(Node node, Collection<Integer> eligibleChoices) {
-    for (int eligibleChoice : eligibleChoices) {
+  private boolean isFrontierNode(Node node, ChoiceSet eligibleChoices) {
+    for (int eligibleChoice = eligibleChoices.first(); eligibleChoice >= 0;
+         eligibleChoice = eligibleChoices.next(eligibleChoice + 1)) {
       if (!node.hasChildForChoice(eligibleChoice) ||
           ((MCTSNode) node.getChild(eligibleChoice)).isSearchTreeNode() == false)
         return true;
@@ -282,4 +280,64 @@ public class MCTSStrategy implements AnalysisStrategy {
   public void newSampleStarted(Search samplingSearch) {
     // We don't need to track anything here
   }
+
+  @Override
+  public Node getSnapshotPosition() {
+    // Only nodes reached by selection are on the path of a future selection
+    if(mctsState == MCTS_STATE.SELECTION && last != null && last.isSearchTreeNode()) {
+      return last;
+    }
+    return null;
+  }
+
+  @Override
+  public Node selectResumePosition(SnapshotCache cache, ChoicesStrategy choicesStrategy) {
+    if(root == null) {
+      return null;
+    }
+    // Replay the selection phase from the root for as long as the snapshots tell us the paths
+    // (and thereby the eligible choices) of the nodes. Since we resume from the deepest of them,
+    // the choices made here are the ones the selection makes
+    MCTSNode node = root;
+    SnapshotCache.Snapshot snapshot = cache.get(root);
+    if(snapshot == null) {
+      return null;
+    }
+    ChoiceSet eligibleChoices = this.lookaheadEligibleChoices;
+    while(true) {
+      choicesStrategy.getEligibleChoices(snapshot.getPath(), node.getTotalChoicesNum(),
+          eligibleChoices);
+      // Pruned children are not eligible, so only the root can be fully pruned here
+      if(eligibleChoices.isEmpty() || isFrontierNode(node, eligibleChoices)) {
+        break;
+      }
+      MCTSNode child = selectionPolicy.selectBestChild(node, eligibleChoices);
+      SnapshotCache.Snapshot childSnapshot = cache.get(child);
+      // Non-supported CGs between the nodes would mean that we do not know the path of the child
+      if(childSnapshot == null ||
+          childSnapshot.getPath().length() != snapshot.getPath().length() + 1 ||
+          !childSnapshot.getPath().isPrefix(snapshot.getPath())) {
+        break;
+      }
+      node = child;
+      snapshot = childSnapshot;
+    }
+    return (node == root) ? null : node;
+  }
+
+  @Override
+  public void resumeAt(Node position) {
+    this.last = (MCTSNode) position;
+    this.mctsState = MCTS_STATE.SELECTION;
+    this.expandedFlag = false;
+    this.playOutNode = null;
+  }
+
+  @Override
+  public int collapseBelow(int depth) {
+    // The collapsed nodes become frontier nodes again, so they are simply expanded anew
+    int removed = CollapsibleStrategy.collapseBelow(root, depth, null);
+    resumeAt(root);
+    return removed;
+  }
 }
@@ -24,8 +24,7 @@
 
 package edu.cmu.sv.isstac.canopy.mcts;
 
-import java.util.ArrayList;
-
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.structure.Node;
 
 /**
@@ -34,6 +33,6 @@ import edu.cmu.sv.isstac.canopy.structure.Node;
  */
 public interface SelectionPolicy {
   
-  public MCTSNode selectBestChild(Node currNode, ArrayList<Integer> eligibleChoices);
-  public int expandChild(Node currNode, ArrayList<Integer> eligibleChoices);
+  public MCTSNode selectBestChild(Node currNode, ChoiceSet eligibleChoices);
+  public int expandChild(Node currNode, ChoiceSet eligibleChoices);
 }
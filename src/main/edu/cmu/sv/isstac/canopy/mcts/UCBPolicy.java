@@ -24,9 +24,9 @@
 
 package edu.cmu.sv.isstac.canopy.mcts;
 
-import java.util.ArrayList;
 import java.util.Random;
 
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.structure.Node;
 
 /**
@@ -44,12 +44,13 @@ class UCBPolicy implements SelectionPolicy {
   }
   
   @Override
-  public MCTSNode selectBestChild(Node currNode, ArrayList<Integer> eligibleChoices) {
+  public MCTSNode selectBestChild(Node currNode, ChoiceSet eligibleChoices) {
     double bestUct = Double.NEGATIVE_INFINITY;
     Node bestChild = null;
     
     //From the eligible choices, select the child with the highest UCT value
-    for(int choice : eligibleChoices) {
+    for(int choice = eligibleChoices.first(); choice >= 0;
+        choice = eligibleChoices.next(choice + 1)) {
       Node child = currNode.getChild(choice);
       double uct = computeUCT(currNode, child);
       if(uct > bestUct) {
@@ -79,7 +80,7 @@ class UCBPolicy implements SelectionPolicy {
   }
 
   @Override
-  public int expandChild(Node currNode, ArrayList<Integer> eligibleChoices) {
+  public int expandChild(Node currNode, ChoiceSet eligibleChoices) {
     int idx = rng.nextInt(eligibleChoices.size());
     return eligibleChoices.get(idx);
   }
@@ -27,11 +27,11 @@ package edu.cmu.sv.isstac.canopy.montecarlo;
 import static edu.cmu.sv.isstac.canopy.structure.CGClassification.isNondeterministicChoice;
 import static edu.cmu.sv.isstac.canopy.structure.CGClassification.isPCNode;
 
-import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import edu.cmu.sv.isstac.canopy.AnalysisStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.policies.SimulationPolicy;
 import edu.cmu.sv.isstac.canopy.search.TerminationType;
 import gov.nasa.jpf.search.Search;
@@ -54,7 +54,7 @@ public class MonteCarloStrategy implements AnalysisStrategy {
     }
 
     @Override
-    public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices) {
+    public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
       if(isPCNode(cg) || isNondeterministicChoice(cg)) {
 
         // If empty, we entered an invalid state
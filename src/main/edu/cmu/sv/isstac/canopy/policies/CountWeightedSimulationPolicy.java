@@ -28,10 +28,10 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
-import java.util.ArrayList;
 import java.util.Random;
 import java.util.logging.Logger;
 
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.quantification.SPFModelCounter;
 import gov.nasa.jpf.jvm.bytecode.IfInstruction;
 import gov.nasa.jpf.symbc.numeric.Comparator;
@@ -63,11 +63,11 @@ public class CountWeightedSimulationPolicy implements SimulationPolicy {
   }
 
   @Override
-  public int selectChoice(VM vm, ChoiceGenerator<?> currentCg, ArrayList<Integer> eligibleChoices) {
+  public int selectChoice(VM vm, ChoiceGenerator<?> currentCg, ChoiceSet eligibleChoices) {
     int choice;
     //If---due to pruning---only one choice is available, just select it...
     if(eligibleChoices.size() == 1) {
-      choice = eligibleChoices.get(0);
+      choice = eligibleChoices.first();
     } else {
       if (currentCg instanceof PCChoiceGenerator) {
         PCChoiceGenerator pcCg = (PCChoiceGenerator) currentCg;
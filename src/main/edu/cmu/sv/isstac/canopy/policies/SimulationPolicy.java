@@ -24,8 +24,7 @@
 
 package edu.cmu.sv.isstac.canopy.policies;
 
-import java.util.ArrayList;
-
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import gov.nasa.jpf.vm.ChoiceGenerator;
 import gov.nasa.jpf.vm.VM;
 
@@ -34,5 +33,5 @@ import gov.nasa.jpf.vm.VM;
  *
  */
 public interface SimulationPolicy {
-  public int selectChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices);
+  public int selectChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices);
 }
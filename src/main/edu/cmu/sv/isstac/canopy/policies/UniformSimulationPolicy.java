@@ -24,9 +24,9 @@
 
 package edu.cmu.sv.isstac.canopy.policies;
 
-import java.util.ArrayList;
 import java.util.Random;
 
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import gov.nasa.jpf.vm.ChoiceGenerator;
 import gov.nasa.jpf.vm.VM;
 
@@ -43,7 +43,7 @@ public class UniformSimulationPolicy implements SimulationPolicy {
   }
   
   @Override
-  public int selectChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices) {
+  public int selectChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
     int idx = rng.nextInt(eligibleChoices.size());
     return eligibleChoices.get(idx);
   }
@@ -25,10 +25,10 @@
 package edu.cmu.sv.isstac.canopy.reinforcement;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.structure.Node;
 import edu.cmu.sv.isstac.canopy.structure.NodeAdapter;
 import gov.nasa.jpf.util.JPFLogger;
@@ -54,9 +54,12 @@ public class RLNode extends NodeAdapter {
   }
 
 
-  public double getProbabilitySum(List<Integer> choices) {
-    // God, streams are beautiful
-    return choices.stream().mapToDouble(choice -> choice2prob.get(choice)).sum();
+  public double getProbabilitySum(ChoiceSet choices) {
+    double sum = 0.0;
+    for(int choice = choices.first(); choice >= 0; choice = choices.next(choice + 1)) {
+      sum += choice2prob.get(choice);
+    }
+    return sum;
   }
 
   public double getChoiceProbability(int choice) {
@@ -24,16 +24,21 @@
 
 package edu.cmu.sv.isstac.canopy.reinforcement;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import edu.cmu.sv.isstac.canopy.AnalysisStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.exploration.Path;
 import edu.cmu.sv.isstac.canopy.search.BackPropagator;
+import edu.cmu.sv.isstac.canopy.search.CollapsibleStrategy;
 import edu.cmu.sv.isstac.canopy.search.TerminationType;
+import edu.cmu.sv.isstac.canopy.structure.Node;
 import edu.cmu.sv.isstac.canopy.structure.NodeCreationException;
 import edu.cmu.sv.isstac.canopy.structure.NodeFactory;
 import gov.nasa.jpf.search.Search;
@@ -45,7 +50,7 @@ import gov.nasa.jpf.vm.VM;
  * @author Kasper Luckow
  *
  */
-public class ReinforcementLearningStrategy implements AnalysisStrategy {
+public class ReinforcementLearningStrategy implements AnalysisStrategy, CollapsibleStrategy {
   private static final Logger logger = JPFLogger.getLogger(ReinforcementLearningStrategy.class.getName());
 
   // Params for reinforcement learning
@@ -78,7 +83,7 @@ public class ReinforcementLearningStrategy implements AnalysisStrategy {
   }
 
   @Override
-  public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ArrayList<Integer> eligibleChoices) {
+  public void makeStateChoice(VM vm, ChoiceGenerator<?> cg, ChoiceSet eligibleChoices) {
     //TODO: Later expand this to support nondeterministic choices too
     if(this.nodeFactory.isSupportedChoiceGenerator(cg)) {
 
@@ -91,8 +96,8 @@ public class ReinforcementLearningStrategy implements AnalysisStrategy {
       double rand = this.rng.nextDouble() * probSumForChoices;
       int selectedChoice = -1;
       double accumulatedProb = 0.0;
-      for(int i = 0; i < eligibleChoices.size(); i++) {
-        int choice = eligibleChoices.get(i);
+      for(int choice = eligibleChoices.first(); choice >= 0;
+          choice = eligibleChoices.next(choice + 1)) {
         accumulatedProb += node.getChoiceProbability(choice);
         if(rand <= accumulatedProb) {
           selectedChoice = choice;
@@ -253,4 +258,15 @@ public class ReinforcementLearningStrategy implements AnalysisStrategy {
   public void newSampleStarted(Search samplingSearch) {
     // We don't track anything here
   }
+
+  @Override
+  public int collapseBelow(int depth) {
+    Set<Node> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+    int count = CollapsibleStrategy.collapseBelow(root, depth, removed);
+    if(count > 0) {
+      this.nodes.values().removeIf(removed::contains);
+    }
+    this.lastNode = this.root;
+    return count;
+  }
 }
@@ -0,0 +1,45 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.reward;
+
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Bound for {@link DepthRewardFunction}: no path is deeper than the depth limit of the search
+ * (search.depth_limit). Once a successful path of that depth is found, the remaining subtrees are
+ * pruned and the search finishes with a proven optimum.
+ *
+ * The bound is the same for every state, so it never prunes a subtree before such a path is
+ * found. It mainly shows how to implement {@link RewardBound}; bounds that depend on the state,
+ * e.g. on the remaining input size of the system under test, prune much earlier.
+ */
+public class DepthLimitRewardBound implements RewardBound {
+  @Override
+  public long getUpperBound(VM vm) {
+    return vm.getSearch().getDepthLimit();
+  }
+}
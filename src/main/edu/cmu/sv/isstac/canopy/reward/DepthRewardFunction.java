@@ -24,12 +24,11 @@
 
 package edu.cmu.sv.isstac.canopy.reward;
 
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
 import gov.nasa.jpf.Config;
 import gov.nasa.jpf.jvm.ClassFile;
 import gov.nasa.jpf.search.Search;
@@ -126,7 +125,7 @@ public class DepthRewardFunction implements RewardFunction, VMListener {
   public DepthRewardFunction(Config jpfConfig) {
     if (jpfConfig.hasValue(MEASURED_METHODS_CONF)) {
       String[] measMeth = jpfConfig.getStringArray(MEASURED_METHODS_CONF);
-      Set<String> measuredMethods = extractSimpleMethodNames(measMeth);
+      Set<String> measuredMethods = JPFUtil.extractSimpleMethodNames(measMeth);
       this.depthComputation = new MeasuredMethodDepthComputation(measuredMethods);
     } else {
       //Just default to JPF's notion of depth
@@ -146,20 +145,6 @@ public class DepthRewardFunction implements RewardFunction, VMListener {
     this.depthComputation.methodEntered(vm, currentThread, enteredMethod);
   }
 
-  private static Set<String> extractSimpleMethodNames(String[] jpfMethodSpecs) {
-
-    //TODO: This also means that we do not distinguish between overloaded methods
-    String[] processedMethods = new String[jpfMethodSpecs.length];
-    System.arraycopy(jpfMethodSpecs, 0, processedMethods, 0, jpfMethodSpecs.length);
-    for (int i = 0; i < jpfMethodSpecs.length; i++) {
-      String meth = jpfMethodSpecs[i];
-      int sigBegin = meth.indexOf('(');
-      if (sigBegin >= 0)
-        processedMethods[i] = meth.substring(0, sigBegin);
-    }
-    return new HashSet<>(Arrays.asList(processedMethods));
-  }
-
   /*
    * Ignored callbacks from VMListener interface
    */
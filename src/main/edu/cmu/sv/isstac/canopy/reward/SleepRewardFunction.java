@@ -24,65 +24,18 @@
 
 package edu.cmu.sv.isstac.canopy.reward;
 
-import java.util.HashMap;
-import java.util.Map;
-
-import edu.cmu.sv.isstac.canopy.search.SamplingListener;
-import gov.nasa.jpf.PropertyListenerAdapter;
-import gov.nasa.jpf.jvm.bytecode.JVMInvokeInstruction;
-import gov.nasa.jpf.search.Search;
-import gov.nasa.jpf.vm.ChoiceGenerator;
-import gov.nasa.jpf.vm.Instruction;
-import gov.nasa.jpf.vm.MethodInfo;
-import gov.nasa.jpf.vm.ThreadInfo;
+import edu.cmu.sv.isstac.canopy.bytecode.CostCounters;
 import gov.nasa.jpf.vm.VM;
 
 /**
  * @author Kasper Luckow
+ *
+ * The total time passed to Thread.sleep
  */
-public class SleepRewardFunction extends PropertyListenerAdapter implements RewardFunction,
-    SamplingListener {
-
-  private long cost = 0;
-  private Map<ChoiceGenerator<?>, Long> costMap = new HashMap<>();
-
-  @Override
-  public void instructionExecuted(VM vm, ThreadInfo currentThread, Instruction nextInstruction,
-                                  Instruction executedInstruction) {
-    if(executedInstruction instanceof JVMInvokeInstruction) {
-      MethodInfo methodInfo = ((JVMInvokeInstruction)executedInstruction).getInvokedMethod();
-
-      String className = methodInfo.getClassName();
-      String methodName = methodInfo.getName();
-      if(!methodInfo.isNative() && // We need this check, otherwise we will count both
-          //Thread.sleep in src/classes and in src/peers. This enforces we only count once
-          className.equals("java.lang.Thread") &&
-          methodName.equals("sleep")) {
-        Object[] values = ((JVMInvokeInstruction)executedInstruction).getArgumentValues(currentThread);
-        long sleepTime = (long) values[0];
-        cost += sleepTime;
-      }
-    }
-  }
-
-  @Override
-  public void newSampleStarted(Search samplingSearch) {
-    cost = 0;
-    costMap.clear();
-  }
-
-  @Override
-  public void stateBacktracked(Search search) {
-    this.cost = this.costMap.get(search.getVM().getChoiceGenerator());
-  }
-
-  @Override
-  public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> currentCG) {
-    this.costMap.put(currentCG, this.cost);
-  }
+public class SleepRewardFunction implements InstructionCostRewardFunction {
 
   @Override
   public long computeReward(VM vm) {
-    return cost;
+    return CostCounters.getInstance().getSleepTime();
   }
 }
@@ -24,14 +24,15 @@
 
 package edu.cmu.sv.isstac.canopy.search;
 
-import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.exploration.ChoicesStrategy;
 import edu.cmu.sv.isstac.canopy.exploration.NoPruningStrategy;
 import edu.cmu.sv.isstac.canopy.exploration.PruningStrategy;
-import edu.cmu.sv.isstac.canopy.exploration.TrieBasedPruningStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.TreeSizeEstimator;
+import edu.cmu.sv.isstac.canopy.structure.Node;
 import gov.nasa.jpf.Config;
 import gov.nasa.jpf.JPFListenerException;
 import gov.nasa.jpf.search.Search;
@@ -44,48 +45,116 @@ import gov.nasa.jpf.vm.VM;
 
 /**
  * @author Kasper Luckow
- * This class has much in common with SamplingSearch. Make this more clean
+ *
+ * The sampling search. Samples start from the initial state (or a snapshot), and dead ends are
+ * handled by backtracking or by restoring the start state as decided by a {@link RestartPolicy}.
  */
 public class BacktrackingSamplingSearch extends Search {
   private static final Logger logger = JPFLogger.getLogger(BacktrackingSamplingSearch.class.getName());
   private final boolean incrementalSolving;
 
+  // Once the estimated number of unexplored paths drops below the threshold, we stop restoring
+  // the initial state for every sample and enumerate the remaining paths with backtracking
+  private final double exhaustiveThreshold;
+  private final long exhaustiveMinSamples;
+  private boolean exhaustive = false;
+
   private RestorableVMState initState;
+  // Depth of initState; non-zero if samples are restored to the entry of the target method
+  private int initDepth = 0;
+  private MethodEntrySnapshot methodEntrySnapshot;
+  // Samples are resumed from the deepest snapshot on the path selected by the strategy
+  private SnapshotCache snapshotCache;
+  private ResumableStrategy resumableStrategy;
+  // Solves the path condition every k branches instead of at every branch (if enabled)
+  private DeferredFeasibilityChecker feasibilityChecker;
+  // Results of the solver kept across runs (if a solver cache file is set)
+  private PersistentSolverCache solverCache;
+  // Set when a deferred check has found the path to be infeasible. The search has then
+  // backtracked to the first infeasible branch, which is pruned like an ignored state
+  private boolean infeasiblePath = false;
+  // Keeps the incremental solver stack across samples instead of resetting it (if enabled)
+  private IncrementalSolverStack solverStack;
+  // Aborts samples that exceed their instruction or time budget (if enabled)
+  private SampleWatchdog watchdog;
+  // Sheds memory held by the analysis instead of stopping at the memory limit (if enabled)
+  private MemoryGovernor memoryGovernor;
+  // After backtracking within a sample, the strategy's position does not follow the state
+  private boolean backtrackedInSample = false;
   private PruningStrategy pruner;
+  private final ChoiceSet eligibleChoices = new ChoiceSet();
+
+  // Decides between backtracking and restoring at dead ends
+  private final RestartPolicy restartPolicy;
+  // Backtrack steps (and their start time) since the last dead end that was backtracked from
+  private int backtrackSteps = 0;
+  private long backtrackStart;
 
   private SamplingAnalysisListener samplingAnalysisListener;
 
   public BacktrackingSamplingSearch(Config config, VM vm) {
     super(config, vm);
+    this.restartPolicy = createRestartPolicy(config);
 
     // Set up pruner---if any
     // This is super ugly, but mentioned elsewhere, this seem to be the only way we can pass this
-    // information to SamplingSearch, because we never get the possibility of instantiating it
+    // information to the search, because we never get the possibility of instantiating it
     // ourselves; JPF does this automatically :/
     // WARNING: the choices strategy *MUST* be configured *before* the JPF object is created
-    // since---in turn---this creates the SamplingSearch object
+    // since---in turn---this creates the search object
     if (Options.choicesStrategy instanceof PruningStrategy) {
-      if (config.getBoolean("symbolic.optimizechoices", true)) {
+      boolean optimizeChoices = config.getBoolean("symbolic.optimizechoices", true);
+      if (restartPolicy.getType() == RestartPolicy.Type.RESTORE) {
+        if (!optimizeChoices) {
+          logger.warning("PC Choice optimization not set (option symbolic.optimizechoices). " +
+              "Sampling may proceed to explore ignored states. They are not regarded as " +
+              "terminated paths, but they can influence decisions if they are based on " +
+              "collecting data during sampling and not on actual terminating paths. Also, for " +
+              "MCTS performance is reduced significantly");
+        }
+      } else if (optimizeChoices) {
         logger.info("PC Choice optimization is not set (option symbolic.optimizechoices). This " +
             "may or may not improve performance of the analysis");
       }
 
       logger.info("Search object configured with pruning");
 
-      pruner = TrieBasedPruningStrategy.getInstance();
+      pruner = (PruningStrategy) Options.choicesStrategy;
       pruner.reset();
+      this.exhaustiveThreshold = config.getDouble(Options.EXHAUSTIVE_THRESHOLD,
+          Options.DEFAULT_EXHAUSTIVE_THRESHOLD);
     } else {
 
       logger.info("Search object configured with no pruning");
       // Create a dummy
       pruner = new NoPruningStrategy();
+      // Without pruning, enumeration would never finish
+      this.exhaustiveThreshold = 0;
     }
+    this.exhaustiveMinSamples = config.getLong(Options.EXHAUSTIVE_MIN_SAMPLES,
+        Options.DEFAULT_EXHAUSTIVE_MIN_SAMPLES);
 
     this.incrementalSolving = isIncrementalSolvingEnabled(config);
     String incSolving = ((!this.incrementalSolving) ? "*NOT* " : "") + "using incremental solving";
     logger.info(incSolving);
   }
 
+  // Without canopy.restartpolicy, canopy.backtrackingsearch picks backtracking or restoring
+  private static RestartPolicy createRestartPolicy(Config config) {
+    String policy = config.getString(Options.RESTART_POLICY);
+    if(policy == null) {
+      policy = config.getBoolean(Options.USE_BACKTRACKING_SEARCH,
+          Options.DEFAULT_USE_BACKTRACKING_SEARCH) ? Options.DEFAULT_RESTART_POLICY : "restore";
+    }
+    logger.info("Restarting from dead ends with policy " + policy);
+    try {
+      return new RestartPolicy(RestartPolicy.Type.valueOf(policy.toUpperCase()));
+    } catch(IllegalArgumentException e) {
+      throw new SamplingException("Unknown restart policy " + policy + " (option " +
+          Options.RESTART_POLICY + ")", e);
+    }
+  }
+
   private boolean isIncrementalSolvingEnabled(Config conf) {
     String[] listeners = conf.getStringArray("listener");
     if(listeners != null) {
@@ -111,23 +180,59 @@ public class BacktrackingSamplingSearch extends Search {
     for (int i = 0; i < listeners.length; i++) {
       if (listeners[i] instanceof SamplingAnalysisListener)
         this.samplingAnalysisListener = (SamplingAnalysisListener)listeners[i];
+      if (listeners[i] instanceof MethodEntrySnapshot)
+        this.methodEntrySnapshot = (MethodEntrySnapshot)listeners[i];
     }
     if(this.samplingAnalysisListener == null) {
       throw new SamplingException("Sampling analysis listener not properly set up");
     }
+    this.snapshotCache = SnapshotCache.fromConfig(config, listeners,
+        this.samplingAnalysisListener, this.incrementalSolving);
+    if(this.snapshotCache != null) {
+      this.resumableStrategy =
+          (ResumableStrategy) this.samplingAnalysisListener.getAnalysisStrategy();
+      this.samplingAnalysisListener.getMetrics().registerCounter("snapshotResumes",
+          this.snapshotCache::getHits);
+      this.samplingAnalysisListener.getMetrics().registerRatio("snapshotCacheHitRatio",
+          this.snapshotCache::getHits,
+          () -> this.snapshotCache.getHits() + this.snapshotCache.getMisses());
+    }
+    this.feasibilityChecker = DeferredFeasibilityChecker.fromConfig(config,
+        this.incrementalSolving);
+    this.samplingAnalysisListener.setFeasibilityChecker(this.feasibilityChecker);
+
+    this.solverCache = PersistentSolverCache.fromConfig(config, this.incrementalSolving);
+    this.samplingAnalysisListener.setSolverCache(this.solverCache);
+    if(this.feasibilityChecker != null) {
+      this.feasibilityChecker.setSolverCache(this.solverCache);
+    }
+    if(this.solverCache != null) {
+      this.samplingAnalysisListener.getMetrics().registerRatio("solverCacheHitRatio",
+          this.solverCache::getHits, this.solverCache::getLookups);
+    }
+
+    this.solverStack = IncrementalSolverStack.fromConfig(config, this.incrementalSolving);
+    this.samplingAnalysisListener.setSolverStack(this.solverStack);
+
+    this.watchdog = SampleWatchdog.fromConfig(config);
+    if(this.watchdog != null) {
+      vm.getJPF().addListener(this.watchdog);
+    }
+
+    this.memoryGovernor = MemoryGovernor.fromConfig(config, this.samplingAnalysisListener,
+        this.snapshotCache, this.pruner);
 
     //reset incremental solver before we start
     //We do this to ensure that state is reset even
     //if batch processing is used
-    if(this.incrementalSolving) {
+    if(this.solverStack != null) {
+      this.solverStack.reset();
+    } else if(this.incrementalSolving) {
       Options.resetIncrementalSolver();
     }
 
-    // TODO: This is even cooler:
-    // we can set the init state upon entering the target method.
-    // Then each sample is drawn from here, which would be highly effective
-    // if the target method is deep in the call chain.
-    // It will however assume that the target method is only called ONCE
+    // If a MethodEntrySnapshot is registered, this is replaced by the state at the entry of the
+    // target method once it has been reached
     this.initState = vm.getRestorableState();
 
     notifySearchStarted();
@@ -138,6 +243,39 @@ public class BacktrackingSamplingSearch extends Search {
       boolean isNewState = isNewState();
       boolean isEndState = isEndState();
       boolean hadBacktrackingRequest = checkAndResetBacktrackRequest();
+      // A sample aborted by the watchdog ends in an ignored state, but is reported as a
+      // constraint hit
+      boolean isOverBudget = watchdog != null && watchdog.hasExpired();
+
+      // Before a path is reported, its deferred branches must have been checked
+      if (feasibilityChecker != null && (!isIgnoredState || isOverBudget) &&
+          feasibilityChecker.isDue(isEndState || hadBacktrackingRequest || depthLimitReached ||
+              isOverBudget)) {
+        checkDeferredBranches();
+      }
+      boolean isInfeasible = infeasiblePath;
+      if (infeasiblePath) {
+        infeasiblePath = false;
+        isIgnoredState = true;
+        isNewState = false;
+        isEndState = false;
+        hadBacktrackingRequest = false;
+        depthLimitReached = false;
+        isOverBudget = false;
+      }
+      if (isOverBudget) {
+        isIgnoredState = true;
+        isNewState = false;
+        isEndState = false;
+      }
+      // Branch-and-bound: prune the subtree if it cannot improve on the best reward
+      boolean isBounded = false;
+      if (!isIgnoredState && !isEndState && !hadBacktrackingRequest && !depthLimitReached &&
+          samplingAnalysisListener.isBoundedOut(vm)) {
+        isBounded = true;
+        isIgnoredState = true;
+        isNewState = false;
+      }
 
       if (hadBacktrackingRequest || !isNewState || isIgnoredState) {
         if(hadBacktrackingRequest && this.vm.hasPendingException()) {
@@ -147,10 +285,20 @@ public class BacktrackingSamplingSearch extends Search {
               "because JPF does not regard uncaught exceptions as yielding end states!");
           this.samplingAnalysisListener.pathTerminated(TerminationType.ERROR, this);
         }
+        if(isOverBudget) {
+          logger.fine("Path terminated with constraint hit (sample budget exceeded)");
+          this.samplingAnalysisListener.pathTerminated(TerminationType.CONSTRAINT_HIT, this);
+        }
         if(hadBacktrackingRequest) {
           logger.fine("Pruning state from which jpf is backtracking");
         }
-        if(isIgnoredState) {
+        if(isInfeasible) {
+          logger.fine("Pruning infeasible suffix of path");
+        } else if(isOverBudget) {
+          logger.fine("Pruning sample aborted by the watchdog");
+        } else if(isBounded) {
+          logger.fine("Pruning subtree bounded by best reward");
+        } else if(isIgnoredState) {
           logger.fine("Pruning ignored state");
         }
         if(!isNewState) {
@@ -166,47 +314,23 @@ public class BacktrackingSamplingSearch extends Search {
           break;
         }
 
-        // Perform backtracking
-        if (!backtrack()) {
-          // backtrack not possible, done
-          break;
-        }
-
-        ChoiceGenerator<?> nextCg = getVM().getChoiceGenerator();
-        if (pruner instanceof ChoicesStrategy) {
-          ChoicesStrategy choicesStrategy = (ChoicesStrategy) pruner;
-          ArrayList<Integer> choices = choicesStrategy.getEligibleChoices(vm.getPath(), nextCg);
-          if (choices.size() > 0) {
-            //take the first eligible choice and advance the cg to it. We need to advance it
-            // because, when we call cg.select in the listeners, the isDone flag will be set to
-            // true, and therefore forward() will return false! This is a pretty messy way of
-            // circumventing this problem, but imagine that choice 1 was explored (with cg.select)
-            // for a cg. That choice turns out to be an ignored state after forward(). When
-            // backtracking to the cg, isDone is set, and hasmorechoices will therefore return
-            // false because there is no sensible way of advancing a state "back" to the unexplored
-            // choice 0. We do this here.
-            int c = choices.get(0);
-            nextCg.reset();
-            nextCg.advance(c);
-
-          } else {
-            //This happens when we are backtracking to a choicegenerator for which both choices
-            // are already pruned. In that case we want to keep backtracking: call fo forward()
-            // will later return false, thus forcing one more backtracking step.
-
-            // It actually seems superfluous setting the isdone flag here. Later foward will
-            // return false. This is just to be on the safe side.
-            nextCg.setDone();
+        depthLimitReached = false;
+        // Once we are backtracking from a dead end, we continue until we can advance again
+        if (exhaustive || backtrackSteps > 0 ||
+            restartPolicy.choose(depth) == RestartPolicy.Mechanism.BACKTRACK) {
+          if (backtrackSteps == 0) {
+            backtrackStart = System.nanoTime();
+          }
+          if (!backtrackToEligibleChoice()) {
+            // backtrack not possible, done
+            break;
           }
+          backtrackSteps++;
         } else {
-          // If we are not using pruning, then just advance the cg
-          nextCg.reset();
-          nextCg.advance();
+          logger.fine("Restoring instead of backtracking from dead end");
+          startNewSample();
+          notifyNewSample();
         }
-
-        depthLimitReached = false;
-        depth--;
-        notifyStateBacktracked();
       } else if (isEndState || depthLimitReached) {
         if(depthLimitReached) {
           logger.info("Constraint hit termination. Note that the number of end " +
@@ -230,19 +354,53 @@ public class BacktrackingSamplingSearch extends Search {
           break;
         }
 
-        //We start a new sample here by restoring the state, and resetting the depth
-        resetJPFState();
-
         depthLimitReached = false;
+        if (!exhaustive && shouldEnumerateRemainingPaths()) {
+          TreeSizeEstimator estimator = this.samplingAnalysisListener.getTreeSizeEstimator();
+          logger.info("Estimated " + estimator.getEstimate() + " unexplored paths after " +
+              estimator.getNumberOfSamples() + " samples. Switching to exhaustive enumeration");
+          exhaustive = true;
+          this.samplingAnalysisListener.setExhaustive(true);
+        }
+
+        if (exhaustive) {
+          // Continue with the next unpruned path from the deepest CG that has one instead of
+          // restoring the initial state
+          if (!backtrackToEligibleChoice()) {
+            break;
+          }
+        } else {
+          //We start a new sample here by restoring (or resuming from) a state
+          startNewSample();
 
-        //Notify listeners that new round of sampling is started
-        notifyNewSample();
+          //Notify listeners that new round of sampling is started
+          notifyNewSample();
+        }
       }
 
+      long forwardStart = System.nanoTime();
       if (forward()) {
+        restartPolicy.forwardDone(System.nanoTime() - forwardStart);
+        if (backtrackSteps > 0) {
+          restartPolicy.backtrackDone(forwardStart - backtrackStart, backtrackSteps);
+          backtrackSteps = 0;
+        }
         depth++;
         notifyStateAdvanced();
 
+        if (methodEntrySnapshot != null && methodEntrySnapshot.isCaptureRequested()) {
+          // The transition was broken at the entry of the target method
+          methodEntrySnapshot.capture(vm, depth);
+          this.initState = methodEntrySnapshot.getState();
+          this.initDepth = depth;
+        }
+
+        if (currentError != null && feasibilityChecker != null && !checkDeferredBranches()) {
+          // Errors are only reported for feasible paths
+          currentError = null;
+          continue;
+        }
+
         if (currentError != null) {
           notifyPropertyViolated();
           if (hasPropertyTermination()) {
@@ -262,7 +420,11 @@ public class BacktrackingSamplingSearch extends Search {
           continue;
         }
 
-        if (!checkStateSpaceLimit()) {
+        if (snapshotCache != null && currentError == null) {
+          storeSnapshot();
+        }
+
+        if (!checkStateSpaceLimit() && !relieveMemoryPressure()) {
           logger.info("State space limit reached");
           notifySearchConstraintHit("memory limit reached: " + minFreeMemory);
           break;
@@ -273,19 +435,176 @@ public class BacktrackingSamplingSearch extends Search {
         notifyStateProcessed();
       }
     }
+    if(pruner.getNumberOfNodes() > 0 || pruner.getNumberOfReclaimedNodes() > 0) {
+      logger.info("Pruning trie: " + pruner.getNumberOfNodes() + " live nodes, " +
+          pruner.getNumberOfReclaimedNodes() + " nodes (~" + pruner.getReclaimedBytes() +
+          " bytes) reclaimed from fully pruned subtrees");
+    }
+    if(snapshotCache != null) {
+      logger.info("Snapshot cache: " + snapshotCache);
+    }
+    if(feasibilityChecker != null) {
+      logger.info("Deferred feasibility checks: " + feasibilityChecker);
+    }
+    if(solverCache != null) {
+      logger.info("Solver cache: " + solverCache);
+    }
+    if(solverStack != null) {
+      logger.info("Incremental solver stack: " + solverStack);
+    }
+    if(watchdog != null) {
+      logger.info("Sample watchdog: " + watchdog);
+    }
+    if(memoryGovernor != null) {
+      logger.info("Memory governor: " + memoryGovernor);
+    }
+    logger.info("Restarts from dead ends with " + restartPolicy);
     notifySearchFinished();
   }
 
+  // Backtracks one level and advances the CG to its first eligible choice (if any). Returns
+  // false if backtracking is not possible
+  private boolean backtrackToEligibleChoice() {
+    // Perform backtracking
+    if (!backtrack()) {
+      return false;
+    }
+
+    ChoiceGenerator<?> nextCg = getVM().getChoiceGenerator();
+    if (pruner instanceof ChoicesStrategy) {
+      ChoicesStrategy choicesStrategy = (ChoicesStrategy) pruner;
+      choicesStrategy.getEligibleChoices(vm.getPath(), nextCg, this.eligibleChoices);
+      if (!this.eligibleChoices.isEmpty()) {
+        //take the first eligible choice and advance the cg to it. We need to advance it
+        // because, when we call cg.select in the listeners, the isDone flag will be set to
+        // true, and therefore forward() will return false! This is a pretty messy way of
+        // circumventing this problem, but imagine that choice 1 was explored (with cg.select)
+        // for a cg. That choice turns out to be an ignored state after forward(). When
+        // backtracking to the cg, isDone is set, and hasmorechoices will therefore return
+        // false because there is no sensible way of advancing a state "back" to the unexplored
+        // choice 0. We do this here.
+        int c = this.eligibleChoices.first();
+        nextCg.reset();
+        nextCg.advance(c);
+
+      } else {
+        //This happens when we are backtracking to a choicegenerator for which both choices
+        // are already pruned. In that case we want to keep backtracking: call fo forward()
+        // will later return false, thus forcing one more backtracking step.
+
+        // It actually seems superfluous setting the isdone flag here. Later foward will
+        // return false. This is just to be on the safe side.
+        nextCg.setDone();
+      }
+    } else {
+      // If we are not using pruning, then just advance the cg
+      nextCg.reset();
+      nextCg.advance();
+    }
+
+    depth--;
+    backtrackedInSample = true;
+    notifyStateBacktracked();
+    return true;
+  }
+
+  private boolean shouldEnumerateRemainingPaths() {
+    if(exhaustiveThreshold <= 0) {
+      return false;
+    }
+    TreeSizeEstimator estimator = this.samplingAnalysisListener.getTreeSizeEstimator();
+    return estimator.getNumberOfSamples() >= exhaustiveMinSamples &&
+        estimator.getEstimate() < exhaustiveThreshold;
+  }
+
+  private void startNewSample() {
+    if(memoryGovernor != null) {
+      memoryGovernor.check();
+    }
+    backtrackedInSample = false;
+    long start = System.nanoTime();
+    restoreStartState();
+    restartPolicy.restoreDone(System.nanoTime() - start, depth);
+  }
+
+  // Restores the deepest snapshot on the path the strategy will select next, or the initial
+  // state if there is none
+  private void restoreStartState() {
+    if(snapshotCache != null) {
+      Node position = resumableStrategy.selectResumePosition(snapshotCache,
+          samplingAnalysisListener.getChoicesStrategy());
+      if(position != null) {
+        SnapshotCache.Snapshot snapshot = snapshotCache.get(position);
+        depth = snapshot.getDepth();
+        snapshotCache.restore(vm, snapshot);
+        notifyStateRestored();
+        vm.resetNextCG();
+        resumableStrategy.resumeAt(position);
+        return;
+      }
+      snapshotCache.recordMiss();
+    }
+    resetJPFState();
+  }
+
+  private void storeSnapshot() {
+    Node position = resumableStrategy.getSnapshotPosition();
+    // Only states between transitions that continue the sample are stored. For each position we
+    // keep the first state, which is the one that is reached right after the choice
+    if(position != null && !exhaustive && !backtrackedInSample &&
+        vm.getNextChoiceGenerator() != null && !isIgnoredState() && !hasUncheckedBranches() &&
+        !snapshotCache.contains(position)) {
+      snapshotCache.store(position, vm, depth);
+    }
+  }
+
+  // Lets the memory governor (if any) shed memory and checks the state space limit again
+  private boolean relieveMemoryPressure() {
+    if(memoryGovernor == null) {
+      return false;
+    }
+    memoryGovernor.relieve();
+    return checkStateSpaceLimit();
+  }
+
+  // Snapshots must be feasible, since resumed samples do not check the prefix again
+  private boolean hasUncheckedBranches() {
+    return feasibilityChecker != null && feasibilityChecker.hasUncheckedBranches();
+  }
+
+  // Solves the path condition of the deferred branches. If it is infeasible, backtracks to the
+  // state right after the first infeasible branch and returns false
+  private boolean checkDeferredBranches() {
+    int infeasibleLevel = feasibilityChecker.check(vm);
+    if (infeasibleLevel < 0) {
+      return true;
+    }
+    logger.fine("Path is infeasible from level " + infeasibleLevel);
+    while (vm.getPath().size() > infeasibleLevel + 1 && backtrack()) {
+      depth--;
+      backtrackedInSample = true;
+      notifyStateBacktracked();
+    }
+    infeasiblePath = true;
+    return false;
+  }
+
   private void resetJPFState() {
-    depth = 0;
+    depth = initDepth;
     vm.restoreState(initState);
     notifyStateRestored();
+    samplingAnalysisListener.startStateRestored();
     vm.resetNextCG();
-    // Reset the variable counter for SPF
-    BytecodeUtils.clearSymVarCounter();
+    // Reset the variable counter for SPF. The symbolic variables of a method entry snapshot
+    // already exist, so there we keep counting to not reuse their names. The same goes for the
+    // snapshots in the cache
+    if (initDepth == 0 && snapshotCache == null) {
+      BytecodeUtils.clearSymVarCounter();
+    }
 
-    //reset incremental solver if used
-    if(this.incrementalSolving) {
+    // Reset incremental solver if used. A kept solver stack is instead popped to the common
+    // prefix with the next sample as it makes its choices
+    if(this.incrementalSolving && this.solverStack == null) {
       Options.resetIncrementalSolver();
     }
   }
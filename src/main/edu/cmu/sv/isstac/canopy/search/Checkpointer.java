@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.cmu.sv.isstac.canopy.exploration.Checkpointable;
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Periodically writes the exploration state (e.g. the pruning trie, the state cache and the
+ * best results) to a checkpoint file and restores it when resuming an analysis. The state is
+ * encoded in memory on the search thread, which is fast since the encoding is compact; a
+ * background thread compresses it and replaces the previous checkpoint atomically. A checkpoint
+ * is skipped if the previous one is still being written.
+ *
+ * The checkpoint consists of a section per state, tagged with the class name of the state, such
+ * that a checkpoint of, e.g., another pruning strategy is skipped rather than misread.
+ */
+public class Checkpointer {
+  private static final Logger logger = JPFLogger.getLogger(Checkpointer.class.getName());
+
+  private static final int MAGIC = 0xCA70C4E7;
+  private static final int VERSION = 1;
+
+  private final File file;
+  private final long intervalMillis;
+  private final boolean resume;
+
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "canopy-checkpoint-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private Future<?> pendingWrite = null;
+  private long lastCheckpoint = System.currentTimeMillis();
+
+  public Checkpointer(File file, long intervalMillis, boolean resume) {
+    this.file = file;
+    this.intervalMillis = intervalMillis;
+    this.resume = resume;
+  }
+
+  public boolean isResume() {
+    return this.resume;
+  }
+
+  // True if the interval has passed and the previous checkpoint has been written
+  public boolean isDue() {
+    return System.currentTimeMillis() - lastCheckpoint >= intervalMillis &&
+        (pendingWrite == null || pendingWrite.isDone());
+  }
+
+  public void checkpoint(Checkpointable... states) {
+    lastCheckpoint = System.currentTimeMillis();
+    byte[] encoded;
+    try {
+      encoded = encode(states);
+    } catch (IOException e) {
+      // Cannot happen for in-memory streams
+      throw new UncheckedIOException(e);
+    }
+    logger.fine("Encoded checkpoint of " + encoded.length + " bytes in " +
+        (System.currentTimeMillis() - lastCheckpoint) + "ms");
+    pendingWrite = writer.submit(() -> write(encoded));
+  }
+
+  private byte[] encode(Checkpointable... states) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(states.length);
+    ByteArrayOutputStream section = new ByteArrayOutputStream();
+    for(Checkpointable state : states) {
+      section.reset();
+      state.writeCheckpoint(new DataOutputStream(section));
+      out.writeUTF(state.getClass().getName());
+      out.writeInt(section.size());
+      section.writeTo(out);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private void write(byte[] encoded) {
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)) {
+        out.write(encoded);
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      logger.info("Wrote checkpoint " + file);
+    } catch (IOException e) {
+      // We keep sampling; the previous checkpoint is still intact
+      logger.severe("Could not write checkpoint " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Restores the states from the checkpoint file. Sections are matched to the states by class
+   * name; sections without a matching state are skipped.
+   * @return false if there is no checkpoint
+   */
+  public boolean restore(Checkpointable... states) {
+    if(!file.exists()) {
+      logger.warning("No checkpoint " + file + " to resume from. Starting from scratch");
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(new FileInputStream(file), 1 << 16)))) {
+      if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a checkpoint of this version");
+      }
+      int sections = in.readInt();
+      for(int i = 0; i < sections; i++) {
+        String className = in.readUTF();
+        byte[] section = new byte[in.readInt()];
+        in.readFully(section);
+        Checkpointable state = findState(className, states);
+        if(state != null) {
+          state.readCheckpoint(new DataInputStream(new ByteArrayInputStream(section)));
+        } else {
+          logger.warning("Skipping checkpoint of " + className + ", which is not used by this " +
+              "analysis");
+        }
+      }
+    } catch (IOException e) {
+      throw new SamplingException("Could not resume from checkpoint " + file, e);
+    }
+    logger.info("Resumed from checkpoint " + file);
+    return true;
+  }
+
+  private static Checkpointable findState(String className, Checkpointable... states) {
+    for(Checkpointable state : states) {
+      if(state.getClass().getName().equals(className)) {
+        return state;
+      }
+    }
+    return null;
+  }
+
+  // Waits for the pending checkpoint (if any) to be written
+  public void close() {
+    if(pendingWrite != null) {
+      try {
+        pendingWrite.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        logger.severe("Checkpoint writer failed: " + e.getCause());
+      }
+    }
+    writer.shutdown();
+  }
+}
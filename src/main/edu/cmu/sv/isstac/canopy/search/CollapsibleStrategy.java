@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+import edu.cmu.sv.isstac.canopy.structure.Node;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Implemented by analysis strategies that can give up the deep parts of their tree when memory
+ * is scarce (see {@link MemoryGovernor}). The nodes at the collapse depth keep their rewards and
+ * visits, but their subtrees are grown again from scratch by later samples.
+ */
+public interface CollapsibleStrategy {
+
+  // Removes all nodes deeper than depth (the root is at depth 0). Only invoked between samples.
+  // Returns the number of nodes removed
+  int collapseBelow(int depth);
+
+  /**
+   * Removes the children of the nodes at depth in the tree of root.
+   * @param removed if not null, the removed nodes are added to it
+   * @return the number of nodes removed
+   */
+  static int collapseBelow(Node root, int depth, Collection<Node> removed) {
+    if(root == null) {
+      return 0;
+    }
+    int count = 0;
+    Deque<Node> frontier = new ArrayDeque<>();
+    frontier.push(root);
+    for(int level = 0; level < depth && !frontier.isEmpty(); level++) {
+      Deque<Node> next = new ArrayDeque<>();
+      for(Node node : frontier) {
+        next.addAll(node.getChildren());
+      }
+      frontier = next;
+    }
+    Deque<Node> subtree = new ArrayDeque<>();
+    for(Node node : frontier) {
+      subtree.addAll(node.getChildren());
+      node.removeChildren();
+    }
+    while(!subtree.isEmpty()) {
+      Node node = subtree.pop();
+      subtree.addAll(node.getChildren());
+      if(removed != null) {
+        removed.add(node);
+      }
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.util.BitSet;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.symbc.numeric.PCChoiceGenerator;
+import gov.nasa.jpf.symbc.numeric.PathCondition;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.Path;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Defers the solver calls of the branches of a sample. The sampling listener turns on replay
+ * for branches that are not in the state cache, such that SPF extends the path condition
+ * without solving it, and records them here. The search asks the checker to solve the
+ * accumulated path condition once the number of unchecked branches reaches the interval, and
+ * before a path is reported (end state, error or depth limit).
+ *
+ * If the path condition is unsatisfiable, the first infeasible branch is found by a binary
+ * search over the path conditions of the unchecked branches (which are prefixes of each other),
+ * so the search can backtrack to it and prune its subtree. For targets with mostly feasible
+ * branches, this trades re-executing the rare infeasible suffixes for far fewer solver calls.
+ */
+public class DeferredFeasibilityChecker {
+  private static final Logger logger =
+      JPFLogger.getLogger(DeferredFeasibilityChecker.class.getName());
+
+  private final int interval;
+
+  // Consulted before the solver (if set)
+  private PersistentSolverCache solverCache = null;
+
+  // Path levels of the PC choices made without solving since the path was last known feasible
+  private final BitSet unchecked = new BitSet();
+
+  private long deferredBranches = 0;
+  private long checks = 0;
+  private long solverCalls = 0;
+  private long infeasiblePaths = 0;
+
+  /**
+   * @param interval the number of unchecked branches after which the path condition is solved
+   */
+  public DeferredFeasibilityChecker(int interval) {
+    if(interval <= 0) {
+      throw new IllegalArgumentException("Interval must be positive: " + interval);
+    }
+    this.interval = interval;
+  }
+
+  /**
+   * Creates the checker configured with canopy.deferredchecks.interval. Returns null if it is
+   * disabled or if the incremental solver is used, which relies on solving every branch.
+   */
+  static DeferredFeasibilityChecker fromConfig(Config config, boolean incrementalSolving) {
+    int interval = config.getInt(Options.DEFERRED_CHECKS_INTERVAL,
+        Options.DEFAULT_DEFERRED_CHECKS_INTERVAL);
+    if(interval <= 0) {
+      return null;
+    }
+    if(incrementalSolving) {
+      logger.warning("Deferred feasibility checks are disabled: not supported for incremental " +
+          "solving");
+      return null;
+    }
+    logger.info("Checking feasibility every " + interval + " branches");
+    return new DeferredFeasibilityChecker(interval);
+  }
+
+  /**
+   * Records that the choice at the given path level is made without solving.
+   */
+  public void branchDeferred(int level) {
+    this.unchecked.clear(level, Integer.MAX_VALUE);
+    this.unchecked.set(level);
+    this.deferredBranches++;
+  }
+
+  /**
+   * Records that the current path is known to be feasible, e.g. because a terminated path had
+   * it as a prefix.
+   */
+  public void pathFeasible() {
+    this.unchecked.clear();
+  }
+
+  /**
+   * Forgets the unchecked branches at levels that are no longer on the path of the given size.
+   */
+  public void rewind(int pathSize) {
+    this.unchecked.clear(pathSize, Integer.MAX_VALUE);
+  }
+
+  public void reset() {
+    this.unchecked.clear();
+  }
+
+  public boolean hasUncheckedBranches() {
+    return !this.unchecked.isEmpty();
+  }
+
+  /**
+   * Whether the path condition should be solved now. If the path is about to be reported, any
+   * unchecked branch has to be checked.
+   */
+  public boolean isDue(boolean pathTerminated) {
+    int uncheckedBranches = this.unchecked.cardinality();
+    return uncheckedBranches >= this.interval || (pathTerminated && uncheckedBranches > 0);
+  }
+
+  /**
+   * Solves the path conditions of the unchecked branches on the path of the vm. Returns -1 if
+   * the path is feasible, and otherwise the path level of the first infeasible branch.
+   */
+  public int check(VM vm) {
+    if(this.unchecked.isEmpty()) {
+      return -1;
+    }
+    this.checks++;
+    Path path = vm.getPath();
+    int[] levels = new int[this.unchecked.cardinality()];
+    PathCondition[] pcs = new PathCondition[levels.length];
+    int n = 0;
+    for(int level = this.unchecked.nextSetBit(0); level >= 0 && level < path.size();
+        level = this.unchecked.nextSetBit(level + 1)) {
+      ChoiceGenerator<?> cg = path.get(level).getChoiceGenerator();
+      if(cg instanceof PCChoiceGenerator && ((PCChoiceGenerator) cg).getCurrentPC() != null) {
+        levels[n] = level;
+        pcs[n++] = ((PCChoiceGenerator) cg).getCurrentPC();
+      }
+    }
+    this.unchecked.clear();
+
+    int infeasibleLevel = -1;
+    if(n > 0 && !isSatisfiable(pcs[n - 1])) {
+      // The path conditions extend each other, so we search for the first unsatisfiable one
+      int lo = 0;
+      int hi = n - 1;
+      while(lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if(isSatisfiable(pcs[mid])) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      infeasibleLevel = levels[lo];
+      this.infeasiblePaths++;
+    }
+    // Choices are made with replay on in deferred mode
+    JPFUtil.setReplay(true);
+    return infeasibleLevel;
+  }
+
+  public void setSolverCache(PersistentSolverCache solverCache) {
+    this.solverCache = solverCache;
+  }
+
+  private boolean isSatisfiable(PathCondition pc) {
+    this.solverCalls++;
+    if(this.solverCache != null) {
+      return this.solverCache.isSatisfiable(pc);
+    }
+    JPFUtil.setReplay(false);
+    // Solve a copy since the solver may simplify the path condition in place
+    return pc.make_copy().simplify();
+  }
+
+  @Override
+  public String toString() {
+    return this.deferredBranches + " branches deferred, " + this.checks + " checks with " +
+        this.solverCalls + " solver calls, " + this.infeasiblePaths + " infeasible paths";
+  }
+}
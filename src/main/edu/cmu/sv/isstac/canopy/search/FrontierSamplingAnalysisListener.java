@@ -62,9 +62,8 @@ public class FrontierSamplingAnalysisListener extends SamplingAnalysisListener {
 
   @Override
   public final void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> cg) {
-    //This could be a bit costly
-    Path curr = new Path(cg);
-    int currLength = curr.length();
+    // We only need the length of the current path, so we avoid constructing it
+    int currLength = Path.lengthOf(cg);
     //If the current path is
     if(currLength <= this.frontierLength) {
       int idx = currLength - 1;
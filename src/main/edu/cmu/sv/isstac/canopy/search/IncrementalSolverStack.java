@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.symbc.numeric.solvers.IncrementalListener;
+import gov.nasa.jpf.symbc.numeric.solvers.IncrementalSolver;
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Keeps the stack of the incremental solver aligned with the path across samples, instead of
+ * resetting the solver for every sample. SPF pushes a frame and asserts the constraint of a
+ * PC choice when it solves the branch, and {@link IncrementalListener} pops a frame when the
+ * search backtracks to a PC choice. This class tracks the path level of every frame, and the
+ * choices of the path they were asserted on.
+ *
+ * When a sample makes a choice, the frames of the previous sample that are deeper than the
+ * common prefix are popped. If the frame of a PC choice is already on the stack (and the choice
+ * is known to be feasible), the branch is replayed instead of solved. Branches whose frame is
+ * not on the stack are always solved, such that the solver holds the constraints of every
+ * branch on the path. Consecutive MCTS samples share long prefixes, which are then neither
+ * re-asserted nor re-solved.
+ */
+public class IncrementalSolverStack {
+  private static final Logger logger = JPFLogger.getLogger(IncrementalSolverStack.class.getName());
+
+  private static final int DEFAULT_CAPACITY = 64;
+
+  private final IncrementalSolver solver;
+
+  // Choices of the path that the frames were asserted on
+  private int[] choices = new int[DEFAULT_CAPACITY];
+  private int pathLength = 0;
+
+  // Path levels of the frames on the solver stack, from the bottom
+  private int[] frames = new int[DEFAULT_CAPACITY];
+  private int numberOfFrames = 0;
+  // The bottom frames whose transitions have been completed, i.e. that are feasible
+  private int feasibleFrames = 0;
+
+  private long reusedFrames = 0;
+  private long pushedFrames = 0;
+  private long poppedFrames = 0;
+
+  public IncrementalSolverStack(IncrementalSolver solver) {
+    this.solver = solver;
+  }
+
+  /**
+   * Creates the stack if incremental solving is used and canopy.incremental.keepstack is set.
+   * Returns null otherwise, in which case the solver is reset for every sample.
+   */
+  static IncrementalSolverStack fromConfig(Config config, boolean incrementalSolving) {
+    if(!incrementalSolving || !config.getBoolean(Options.INCREMENTAL_KEEP_STACK,
+        Options.DEFAULT_INCREMENTAL_KEEP_STACK)) {
+      return null;
+    }
+    if(IncrementalListener.solver == null) {
+      logger.warning("Incremental solver is not set up. The solver stack is not kept");
+      return null;
+    }
+    logger.info("Keeping the incremental solver stack across samples");
+    return new IncrementalSolverStack(IncrementalListener.solver);
+  }
+
+  /**
+   * Aligns the solver stack with a choice at the given path level. Must be called for every CG
+   * of the path. Returns true if the choice is a PC choice whose constraint is already asserted,
+   * i.e. if the branch can be replayed. Otherwise, the branch of a PC choice must be solved,
+   * which pushes its frame.
+   */
+  public boolean choiceMade(int level, int choice, boolean isPCChoice) {
+    // The transitions of the frames below this level have been completed on the current path
+    while(this.feasibleFrames < this.numberOfFrames &&
+        this.frames[this.feasibleFrames] < level) {
+      this.feasibleFrames++;
+    }
+
+    if(level >= this.pathLength || this.choices[level] != choice) {
+      // The path diverges from the path of the frames here
+      popFrom(level);
+      if(level >= this.choices.length) {
+        this.choices = Arrays.copyOf(this.choices, Math.max(level + 1, this.choices.length * 2));
+      }
+      this.choices[level] = choice;
+      this.pathLength = level + 1;
+    }
+    if(!isPCChoice) {
+      return false;
+    }
+
+    // Deeper frames are kept, since the next choices may still follow their path
+    int idx = Arrays.binarySearch(this.frames, 0, this.numberOfFrames, level);
+    if(idx >= 0 && idx < this.feasibleFrames) {
+      this.reusedFrames++;
+      return true;
+    }
+
+    // The branch is solved on top of the frames of the path prefix
+    popFrom(level);
+    if(this.numberOfFrames == this.frames.length) {
+      this.frames = Arrays.copyOf(this.frames, this.numberOfFrames * 2);
+    }
+    this.frames[this.numberOfFrames++] = level;
+    this.pushedFrames++;
+    return false;
+  }
+
+  /**
+   * Mirrors the pop of {@link IncrementalListener} when the search backtracks to a path of the
+   * given size. The listener pops the top frame, which may be a frame kept from a previous
+   * sample, so the remaining frames at or below the backtracked level are popped here.
+   */
+  public void stateBacktracked(int pathSize, boolean isPCChoice) {
+    if(isPCChoice && this.numberOfFrames > 0) {
+      this.numberOfFrames--;
+      this.feasibleFrames = Math.min(this.feasibleFrames, this.numberOfFrames);
+    }
+    popFrom(pathSize);
+  }
+
+  // Pops the frames at the given level and deeper
+  private void popFrom(int level) {
+    while(this.numberOfFrames > 0 && this.frames[this.numberOfFrames - 1] >= level) {
+      this.solver.pop();
+      this.numberOfFrames--;
+      this.poppedFrames++;
+    }
+    this.feasibleFrames = Math.min(this.feasibleFrames, this.numberOfFrames);
+  }
+
+  public void reset() {
+    this.solver.reset();
+    this.numberOfFrames = 0;
+    this.feasibleFrames = 0;
+    this.pathLength = 0;
+  }
+
+  @Override
+  public String toString() {
+    return this.reusedFrames + " frames reused, " + this.pushedFrames + " pushed, " +
+        this.poppedFrames + " popped";
+  }
+}
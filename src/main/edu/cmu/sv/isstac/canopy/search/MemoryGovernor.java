@@ -0,0 +1,294 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.AnalysisStrategy;
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.exploration.PruningStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.cache.StateCache;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Sheds the memory held by the analysis in stages as the heap fills up, such that sampling can
+ * continue instead of stopping when the state space limit of JPF is reached:
+ *
+ * 1. the state cache and the snapshot cache are cleared,
+ * 2. the tree of the analysis strategy is collapsed below a depth (see
+ * {@link CollapsibleStrategy}),
+ * 3. the pruning trie is compacted (see {@link PruningStrategy#compact()}).
+ *
+ * Each stage has a threshold on the fraction of the max heap that is live, i.e. that was still
+ * used after the most recent garbage collection. The usage is only read when a collection has
+ * happened since the previous check, so checking between samples is cheap. Once a stage has
+ * been shed, it is only shed again when the usage has risen by {@link #HYSTERESIS} since, or
+ * when the usage has dropped below its threshold in the meantime. Otherwise, a stage would be
+ * shed after every collection while the usage stays above its threshold.
+ *
+ * When the state space limit is reached in the middle of a sample, the caches are cleared and
+ * the pruning trie is compacted right away, whereas collapsing the tree is postponed to the next
+ * sample, since the strategy may be in the middle of its tree.
+ *
+ * Clearing the caches is skipped if neither cache holds memory that can be released, e.g. for
+ * {@link edu.cmu.sv.isstac.canopy.exploration.cache.SharedTrieCache}.
+ */
+public class MemoryGovernor {
+  private static final Logger logger = JPFLogger.getLogger(MemoryGovernor.class.getName());
+
+  public enum Stage {
+    CLEAR_CACHES {
+      @Override
+      public String toString() {
+        return "Clear caches";
+      }
+    },
+    COLLAPSE_TREES {
+      @Override
+      public String toString() {
+        return "Collapse trees";
+      }
+    },
+    COMPACT_PRUNING {
+      @Override
+      public String toString() {
+        return "Compact pruning";
+      }
+    };
+  }
+
+  // Rise in the fraction of the heap that is live before a stage is shed again
+  static final double HYSTERESIS = 0.05;
+
+  private final double[] thresholds;
+  private final int collapseDepth;
+
+  private final StateCache stateCache;
+  // The following may be null
+  private final SnapshotCache snapshotCache;
+  private final CollapsibleStrategy collapsibleStrategy;
+  private final PruningStrategy pruner;
+
+  private final List<MemoryPoolMXBean> heapPools;
+  private final List<GarbageCollectorMXBean> collectors;
+  private long lastCollectionCount = -1;
+  private boolean collapsePending = false;
+
+  // The usage when each stage was last shed, or 0 if the usage has dropped below its threshold
+  private final double[] shedUsage = new double[Stage.values().length];
+  private final long[] stagesShed = new long[Stage.values().length];
+  private long nodesCollapsed = 0;
+  private long bytesCompacted = 0;
+
+  /**
+   * @param thresholds the fraction of the max heap that triggers each stage (in the order of
+   * {@link Stage})
+   * @param collapseDepth the depth below which the tree of the strategy is collapsed
+   */
+  public MemoryGovernor(double[] thresholds, int collapseDepth, StateCache stateCache,
+                        SnapshotCache snapshotCache, CollapsibleStrategy collapsibleStrategy,
+                        PruningStrategy pruner) {
+    if(thresholds.length != Stage.values().length) {
+      throw new IllegalArgumentException("Expected " + Stage.values().length + " thresholds: " +
+          thresholds.length);
+    }
+    for(int i = 0; i < thresholds.length; i++) {
+      if(thresholds[i] <= 0 || thresholds[i] > 1 || (i > 0 && thresholds[i] < thresholds[i - 1])) {
+        throw new IllegalArgumentException("Thresholds must be increasing fractions in (0, 1]");
+      }
+    }
+    if(collapseDepth < 0) {
+      throw new IllegalArgumentException("Collapse depth must be non-negative: " + collapseDepth);
+    }
+    this.thresholds = thresholds.clone();
+    this.collapseDepth = collapseDepth;
+    this.stateCache = stateCache;
+    this.snapshotCache = snapshotCache;
+    this.collapsibleStrategy = collapsibleStrategy;
+    this.pruner = pruner;
+    this.heapPools = new ArrayList<>();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if(pool.getType() == MemoryType.HEAP) {
+        this.heapPools.add(pool);
+      }
+    }
+    this.collectors = ManagementFactory.getGarbageCollectorMXBeans();
+  }
+
+  /**
+   * Creates the governor if canopy.memory.governor is set. Returns null otherwise.
+   */
+  static MemoryGovernor fromConfig(Config config, SamplingAnalysisListener samplingListener,
+                                   SnapshotCache snapshotCache, PruningStrategy pruner) {
+    if(!config.getBoolean(Options.MEMORY_GOVERNOR, Options.DEFAULT_MEMORY_GOVERNOR)) {
+      return null;
+    }
+    String[] values = config.getStringArray(Options.MEMORY_THRESHOLDS);
+    if(values == null) {
+      values = Options.DEFAULT_MEMORY_THRESHOLDS.split(",");
+    }
+    double[] thresholds = new double[values.length];
+    for(int i = 0; i < values.length; i++) {
+      thresholds[i] = Double.parseDouble(values[i].trim());
+    }
+    int collapseDepth = config.getInt(Options.MEMORY_COLLAPSE_DEPTH,
+        Options.DEFAULT_MEMORY_COLLAPSE_DEPTH);
+    AnalysisStrategy strategy = samplingListener.getAnalysisStrategy();
+    CollapsibleStrategy collapsibleStrategy = (strategy instanceof CollapsibleStrategy) ?
+        (CollapsibleStrategy) strategy : null;
+    if(collapsibleStrategy == null) {
+      logger.warning("The tree of the analysis strategy cannot be collapsed by the memory " +
+          "governor");
+    }
+    return new MemoryGovernor(thresholds, collapseDepth, samplingListener.getStateCache(),
+        snapshotCache, collapsibleStrategy, pruner);
+  }
+
+  /**
+   * Sheds the stages whose threshold is exceeded. Must be invoked between samples.
+   */
+  public void check() {
+    long collectionCount = getCollectionCount();
+    if(collectionCount == this.lastCollectionCount && !this.collapsePending) {
+      return;
+    }
+    this.lastCollectionCount = collectionCount;
+    check(getLiveHeapUsage());
+  }
+
+  void check(double usage) {
+    for(Stage stage : Stage.values()) {
+      if(stage == Stage.COLLAPSE_TREES && this.collapsePending) {
+        shed(stage, usage);
+      } else if(usage < this.thresholds[stage.ordinal()]) {
+        this.shedUsage[stage.ordinal()] = 0;
+      } else if(usage >= this.shedUsage[stage.ordinal()] + HYSTERESIS) {
+        shed(stage, usage);
+      }
+    }
+    this.collapsePending = false;
+  }
+
+  /**
+   * Sheds what can be shed in the middle of a sample. Invoked when the state space limit is
+   * reached.
+   */
+  public void relieve() {
+    double usage = getLiveHeapUsage();
+    logger.info(String.format("Memory limit reached with %.0f%% of the heap live",
+        usage * 100));
+    shed(Stage.CLEAR_CACHES, usage);
+    shed(Stage.COMPACT_PRUNING, usage);
+    this.collapsePending = this.collapsibleStrategy != null;
+  }
+
+  private void shed(Stage stage, double usage) {
+    String result;
+    switch(stage) {
+      case CLEAR_CACHES:
+        List<String> cleared = new ArrayList<>();
+        if(this.stateCache.isClearable()) {
+          this.stateCache.clear();
+          cleared.add("state cache");
+        }
+        if(this.snapshotCache != null) {
+          cleared.add(this.snapshotCache.size() + " snapshots");
+          this.snapshotCache.clear();
+        }
+        if(cleared.isEmpty()) {
+          return;
+        }
+        result = "cleared " + String.join(", ", cleared);
+        break;
+      case COLLAPSE_TREES:
+        if(this.collapsibleStrategy == null) {
+          return;
+        }
+        // The snapshots are keyed by the nodes of the tree
+        if(this.snapshotCache != null) {
+          this.snapshotCache.clear();
+        }
+        int removed = this.collapsibleStrategy.collapseBelow(this.collapseDepth);
+        this.nodesCollapsed += removed;
+        result = removed + " nodes removed below depth " + this.collapseDepth;
+        break;
+      case COMPACT_PRUNING:
+        long released = this.pruner.compact();
+        this.bytesCompacted += released;
+        result = "~" + released + " bytes released";
+        break;
+      default:
+        throw new IllegalStateException("Unknown stage " + stage);
+    }
+    this.shedUsage[stage.ordinal()] = usage;
+    this.stagesShed[stage.ordinal()]++;
+    logger.info(String.format("%s (%.0f%% of heap live): %s", stage, usage * 100, result));
+  }
+
+  // Fraction of the max heap that was used after the most recent collection of each pool
+  public double getLiveHeapUsage() {
+    long used = 0;
+    for(MemoryPoolMXBean pool : this.heapPools) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if(usage == null) {
+        usage = pool.getUsage();
+      }
+      used += usage.getUsed();
+    }
+    return (double) used / Runtime.getRuntime().maxMemory();
+  }
+
+  private long getCollectionCount() {
+    long count = 0;
+    for(GarbageCollectorMXBean collector : this.collectors) {
+      count += Math.max(collector.getCollectionCount(), 0);
+    }
+    return count;
+  }
+
+  public long getStagesShed(Stage stage) {
+    return this.stagesShed[stage.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for(Stage stage : Stage.values()) {
+      sb.append(stage).append(": ").append(this.stagesShed[stage.ordinal()]).append(", ");
+    }
+    return sb.append(this.nodesCollapsed).append(" nodes collapsed, ~")
+        .append(this.bytesCompacted).append(" bytes compacted").toString();
+  }
+}
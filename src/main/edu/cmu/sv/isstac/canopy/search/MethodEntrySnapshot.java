@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.util.Set;
+import java.util.logging.Logger;
+
+import gov.nasa.jpf.PropertyListenerAdapter;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.MethodInfo;
+import gov.nasa.jpf.vm.RestorableVMState;
+import gov.nasa.jpf.vm.ThreadInfo;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Captures the VM state when the target method (e.g. symbolic.method) is first entered, such
+ * that the sampling search can restore to that point for every sample instead of
+ * re-executing class loading, static initialization and the driver code.
+ *
+ * A state can only be stored between transitions, so entering the method breaks the
+ * transition and the search captures the state once forward() returns. If the driver makes
+ * non-trivial choices before the method is entered, samples have to start from the initial
+ * state, since restoring to the snapshot would fix those choices. In that case no snapshot is
+ * taken.
+ */
+public class MethodEntrySnapshot extends PropertyListenerAdapter {
+  private static final Logger logger = JPFLogger.getLogger(MethodEntrySnapshot.class.getName());
+
+  private final Set<String> methods;
+
+  private boolean requested = false;
+  private boolean disabled = false;
+  private boolean warnedReentry = false;
+  private RestorableVMState state = null;
+  private int depth;
+
+  public MethodEntrySnapshot(Set<String> methods) {
+    this.methods = methods;
+  }
+
+  @Override
+  public void methodEntered(VM vm, ThreadInfo currentThread, MethodInfo enteredMethod) {
+    if(disabled || !methods.contains(enteredMethod.getBaseName())) {
+      return;
+    }
+    if(requested) {
+      if(!warnedReentry) {
+        logger.warning("Target method " + enteredMethod.getBaseName() + " is entered more than " +
+            "once. Samples restart at its first entry, i.e. the later entries are still explored");
+        warnedReentry = true;
+      }
+      return;
+    }
+    requested = true;
+    if(hasChoicesBefore(vm)) {
+      logger.warning("Choices are made before target method " + enteredMethod.getBaseName() +
+          " is entered. Falling back to restoring the initial state for every sample");
+      disabled = true;
+      return;
+    }
+    vm.breakTransition("canopy snapshot at " + enteredMethod.getBaseName());
+  }
+
+  private static boolean hasChoicesBefore(VM vm) {
+    for(ChoiceGenerator<?> cg = vm.getChoiceGenerator(); cg != null;
+        cg = cg.getPreviousChoiceGenerator()) {
+      if(cg.getTotalNumberOfChoices() > 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // True if the method has been entered, and the state should be captured by the search
+  public boolean isCaptureRequested() {
+    return requested && !disabled && state == null;
+  }
+
+  public void capture(VM vm, int depth) {
+    this.state = vm.getRestorableState();
+    this.depth = depth;
+    logger.info("Captured state at entry of target method (depth " + depth + "). Samples are " +
+        "restored to this state");
+  }
+
+  public boolean hasSnapshot() {
+    return this.state != null;
+  }
+
+  public RestorableVMState getState() {
+    return this.state;
+  }
+
+  // The search depth at which the state was captured
+  public int getDepth() {
+    return this.depth;
+  }
+}
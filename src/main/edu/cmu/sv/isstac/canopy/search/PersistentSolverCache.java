@@ -0,0 +1,446 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.symbc.numeric.PathCondition;
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Satisfiability results of path conditions stored in a memory-mapped file (set with
+ * canopy.solvercache.file), such that repeated runs of a target, e.g. the iterations and
+ * experiments of a batch, do not solve the same path conditions again.
+ *
+ * Path conditions are canonicalised by numbering their symbolic variables in the order they
+ * appear and by dropping solutions, and are keyed by two independent 64 bit hashes of the
+ * canonical form. Only the numeric constraints are canonicalised, so path conditions with string
+ * constraints are always solved and never cached. The result of a path condition also depends on
+ * the solver and the bounds of the symbolic variables, so these options are hashed along with it:
+ * runs with different options share the file, but not each other's results.
+ *
+ * The file is an open-addressing hash table with 24 byte slots: the first hash (never 0), the
+ * second hash with the result in its two low bits, and a commit word computed from both. The
+ * table does not grow; once it is 3/4 full, new results are no longer stored.
+ *
+ * Several processes can use the file at once. There is a single writer at a time: results are
+ * stored under an exclusive lock of the file, and the commit word is written last. Lookups do
+ * not lock and are best-effort: an entry whose commit word does not match its hashes, e.g. one
+ * that is being written or whose writer died, is a miss, and the path condition is solved.
+ */
+public class PersistentSolverCache {
+  private static final Logger logger = JPFLogger.getLogger(PersistentSolverCache.class.getName());
+
+  private static final int MAGIC = 0x43534331;
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOTS_OFFSET = 8;
+  private static final int SIZE_OFFSET = 16;
+  private static final int SLOT_BYTES = 24;
+  // The file is mapped as one buffer, i.e. at most 1.5GB of slots
+  private static final int MAX_SLOTS = 1 << 26;
+
+  static final int UNKNOWN = 0;
+  static final int SAT = 1;
+  static final int UNSAT = 2;
+
+  // The options that the result of a path condition depends on
+  private static final String[] FINGERPRINT_OPTIONS = {
+      "symbolic.dp",
+      "symbolic.min_int", "symbolic.max_int",
+      "symbolic.min_double", "symbolic.max_double"
+  };
+
+  // Named symbolic variables (e.g. x_1_SYMINT) and unnamed ones (e.g. INT_1234), followed by
+  // their solution if the path condition has been solved
+  private static final Pattern VARIABLE = Pattern.compile(
+      "\\b([A-Za-z_][\\w$]*?_)\\d+(_SYM[A-Z]+)(\\[[^\\]]*\\])?" +
+      "|\\b(INT_|REAL_)-?\\d+(\\[[^\\]]*\\])?");
+
+  // Files opened by this JVM, shared e.g. by the runs of a batch and by parallel workers
+  private static final Map<File, Table> tables = new HashMap<>();
+  // The caches of those files for each fingerprint
+  private static final Map<String, PersistentSolverCache> opened = new HashMap<>();
+
+  private final Table table;
+  private final String fingerprint;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong uncached = new AtomicLong();
+
+  /**
+   * @param table the file of the cache
+   * @param fingerprint the options that the results depend on, see {@link #fingerprint(Config)}
+   */
+  PersistentSolverCache(Table table, String fingerprint) {
+    this.table = table;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Opens the cache configured with canopy.solvercache.file, or returns the cache if this JVM
+   * has already opened it for the same options. Returns null if no file is set.
+   */
+  public static PersistentSolverCache fromConfig(Config config) {
+    String fileName = config.getString(Options.SOLVER_CACHE_FILE);
+    if(fileName == null) {
+      return null;
+    }
+    File file = getCanonicalFile(fileName);
+    String fingerprint = fingerprint(config);
+    synchronized(opened) {
+      PersistentSolverCache cache = opened.get(file + "\n" + fingerprint);
+      if(cache == null) {
+        Table table = tables.get(file);
+        if(table == null) {
+          long capacity = config.getLong(Options.SOLVER_CACHE_CAPACITY,
+              Options.DEFAULT_SOLVER_CACHE_CAPACITY);
+          try {
+            table = new Table(file, capacity);
+          } catch (IOException e) {
+            throw new UncheckedIOException("Could not open solver cache " + file, e);
+          }
+          logger.info("Solver results are cached in " + file + " (" + table.size() +
+              " results, " + table.slots + " slots)");
+          tables.put(file, table);
+        }
+        cache = new PersistentSolverCache(table, fingerprint);
+        opened.put(file + "\n" + fingerprint, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Like {@link #fromConfig(Config)}, but returns null if the incremental solver is used, which
+   * relies on solving every branch.
+   */
+  static PersistentSolverCache fromConfig(Config config, boolean incrementalSolving) {
+    if(incrementalSolving && config.hasValue(Options.SOLVER_CACHE_FILE)) {
+      logger.warning("Solver cache is disabled: not supported for incremental solving");
+      return null;
+    }
+    return fromConfig(config);
+  }
+
+  /**
+   * The cache configured with canopy.solvercache.file if this JVM has opened it for the options
+   * of config, and null otherwise
+   */
+  public static PersistentSolverCache getOpened(Config config) {
+    String fileName = config.getString(Options.SOLVER_CACHE_FILE);
+    if(fileName == null) {
+      return null;
+    }
+    synchronized(opened) {
+      return opened.get(getCanonicalFile(fileName) + "\n" + fingerprint(config));
+    }
+  }
+
+  private static File getCanonicalFile(String fileName) {
+    try {
+      return new File(fileName).getCanonicalFile();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // The values of the options that the results depend on
+  static String fingerprint(Config config) {
+    StringBuilder sb = new StringBuilder();
+    for(String option : FINGERPRINT_OPTIONS) {
+      sb.append(option).append('=').append(config.getString(option, "")).append(';');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Whether pc is satisfiable. The solver is only invoked if the result is not in the cache.
+   * Replay is off afterwards.
+   */
+  public boolean isSatisfiable(PathCondition pc) {
+    JPFUtil.setReplay(false);
+    if(pc.spc != null && pc.spc.count() > 0) {
+      // The key does not cover the string constraints
+      uncached.incrementAndGet();
+      return pc.make_copy().simplify();
+    }
+    if(pc.header == null) {
+      return true;
+    }
+    String canonical = canonicalize(pc.header.toString());
+    int result = lookup(canonical);
+    if(result != UNKNOWN) {
+      hits.incrementAndGet();
+      return result == SAT;
+    }
+    misses.incrementAndGet();
+    // Solve a copy since the solver may simplify the path condition in place
+    boolean satisfiable = pc.make_copy().simplify();
+    store(canonical, satisfiable);
+    return satisfiable;
+  }
+
+  // The result of the canonical constraints, or UNKNOWN
+  int lookup(String canonical) {
+    String keyed = fingerprint + canonical;
+    return table.lookup(hash(keyed) | 1, mix(keyed) & ~3L);
+  }
+
+  void store(String canonical, boolean satisfiable) {
+    String keyed = fingerprint + canonical;
+    table.store(hash(keyed) | 1, mix(keyed) & ~3L, satisfiable ? SAT : UNSAT);
+  }
+
+  // The constraints with the symbolic variables numbered in the order they appear
+  static String canonicalize(String constraints) {
+    Map<String, Integer> variables = new HashMap<>();
+    Matcher m = VARIABLE.matcher(constraints);
+    StringBuffer sb = new StringBuffer();
+    while(m.find()) {
+      boolean named = m.group(1) != null;
+      // The variable without its solution
+      int end = named ? m.end(2) : (m.group(5) != null ? m.start(5) : m.end());
+      String variable = constraints.substring(m.start(), end);
+      Integer idx = variables.get(variable);
+      if(idx == null) {
+        idx = variables.size();
+        variables.put(variable, idx);
+      }
+      String renamed = named ? m.group(1) + idx + m.group(2) : m.group(4) + idx;
+      m.appendReplacement(sb, Matcher.quoteReplacement(renamed));
+    }
+    m.appendTail(sb);
+    return sb.toString().replaceAll("\\s+", "");
+  }
+
+  // FNV-1a
+  private static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for(int i = 0; i < s.length(); i++) {
+      h ^= s.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  // Multiply-xorshift hash, independent of the FNV-1a hash
+  private static long mix(String s) {
+    long h = 0x9e3779b97f4a7c15L ^ s.length();
+    for(int i = 0; i < s.length(); i++) {
+      h = (h ^ s.charAt(i)) * 0xbf58476d1ce4e5b9L;
+      h ^= h >>> 31;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    return h ^ (h >>> 33);
+  }
+
+  // The number of results in the file, including those stored by other runs
+  public long size() {
+    return table.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getLookups() {
+    return hits.get() + misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = getLookups();
+    return (lookups == 0) ? 0 : (double) getHits() / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d hits, %d misses, hit rate %.2f, %d results stored (%d not stored), " +
+            "%d with string constraints solved without the cache, %d results in %s", getHits(),
+        getMisses(), getHitRate(), table.stored.get(), table.dropped.get(), uncached.get(),
+        size(), table.file);
+  }
+
+  /**
+   * The hash table in the file. Shared by the caches of all options that use the file.
+   */
+  static final class Table {
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param file the file of the cache, which is created if it does not exist
+     * @param capacity the max number of results if the file is created
+     */
+    Table(File file, long capacity) throws IOException {
+      this.file = file;
+      this.channel = new RandomAccessFile(file, "rw").getChannel();
+      FileLock lock = channel.lock();
+      try {
+        if(channel.size() == 0) {
+          // Slots for the capacity at a load of 3/4, rounded up to a power of two
+          long required = Math.max(capacity * 4 / 3, 16);
+          this.slots = (int) Math.min(Long.highestOneBit(required - 1) << 1, MAX_SLOTS);
+          this.buffer = map(slots);
+          buffer.putInt(4, VERSION);
+          buffer.putLong(SLOTS_OFFSET, slots);
+          buffer.putLong(SIZE_OFFSET, 0);
+          buffer.putInt(0, MAGIC);
+        } else {
+          if(channel.size() < HEADER_BYTES) {
+            throw new IOException("Not a solver cache: " + file);
+          }
+          MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+          header.order(ByteOrder.LITTLE_ENDIAN);
+          if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a solver cache (version " + VERSION + "): " + file);
+          }
+          this.slots = (int) header.getLong(SLOTS_OFFSET);
+          this.buffer = map(slots);
+        }
+      } finally {
+        lock.release();
+      }
+    }
+
+    private MappedByteBuffer map(int slots) throws IOException {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_BYTES + (long) slots * SLOT_BYTES);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      return buffer;
+    }
+
+    // Never 0, such that an empty commit word never matches
+    private static long commit(long key, long value) {
+      long h = (key ^ Long.rotateLeft(value, 32)) * 0x9e3779b97f4a7c15L;
+      return (h ^ (h >>> 29)) | 1;
+    }
+
+    int lookup(long key, long check) {
+      int mask = slots - 1;
+      int idx = (int) key & mask;
+      for(int probes = 0; probes < slots; probes++) {
+        int offset = HEADER_BYTES + idx * SLOT_BYTES;
+        long slotKey = buffer.getLong(offset);
+        if(slotKey == 0) {
+          return UNKNOWN;
+        } else if(slotKey == key) {
+          long value = buffer.getLong(offset + 8);
+          if(buffer.getLong(offset + 16) != commit(key, value)) {
+            // Being stored, or torn
+            return UNKNOWN;
+          } else if((value & ~3L) == check) {
+            return (int) (value & 3);
+          }
+        }
+        idx = (idx + 1) & mask;
+      }
+      return UNKNOWN;
+    }
+
+    synchronized void store(long key, long check, int result) {
+      try {
+        FileLock lock = channel.lock();
+        try {
+          storeLocked(key, check, result);
+        } finally {
+          lock.release();
+        }
+      } catch (IOException e) {
+        // The result is merely not stored
+        dropped.incrementAndGet();
+        logger.warning("Could not lock solver cache " + file + ": " + e.getMessage());
+      }
+    }
+
+    private void storeLocked(long key, long check, int result) {
+      long size = buffer.getLong(SIZE_OFFSET);
+      int mask = slots - 1;
+      int idx = (int) key & mask;
+      while(true) {
+        int offset = HEADER_BYTES + idx * SLOT_BYTES;
+        long slotKey = buffer.getLong(offset);
+        if(slotKey == 0) {
+          if(size >= slots / 4L * 3) {
+            dropped.incrementAndGet();
+            return;
+          }
+          long value = check | result;
+          buffer.putLong(offset + 8, value);
+          buffer.putLong(offset, key);
+          // The commit word is written last, such that lookups only accept complete entries
+          buffer.putLong(offset + 16, commit(key, value));
+          buffer.putLong(SIZE_OFFSET, size + 1);
+          stored.incrementAndGet();
+          return;
+        } else if(slotKey == key && (buffer.getLong(offset + 8) & ~3L) == check) {
+          if(buffer.getLong(offset + 16) != commit(key, buffer.getLong(offset + 8))) {
+            // Left uncommitted by a writer that died
+            long value = check | result;
+            buffer.putLong(offset + 8, value);
+            buffer.putLong(offset + 16, commit(key, value));
+            stored.incrementAndGet();
+          }
+          // Otherwise stored by another process in the meantime
+          return;
+        }
+        idx = (idx + 1) & mask;
+      }
+    }
+
+    long size() {
+      return buffer.getLong(SIZE_OFFSET);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Decides how the sampling search continues from a dead end, i.e. a state that is pruned
+ * without terminating the path (ignored states, states that are not new and backtrack
+ * requests): by backtracking to the closest ancestor that has unpruned choices, or by
+ * restoring the start state and sampling from there.
+ *
+ * The adaptive policy measures the cost of both online. Backtracking costs the backtrack steps
+ * up to the ancestor. Restoring costs the restore and re-executing the transitions from the
+ * start state down to the depth of the ancestor, which is where backtracking would have
+ * continued from. The costs are averaged with an exponentially weighted moving average, such
+ * that the decision follows the phase of the analysis, and the mechanism that is not preferred
+ * is still tried once in a while to keep its cost current.
+ */
+public class RestartPolicy {
+
+  public enum Type {
+    BACKTRACK,
+    RESTORE,
+    ADAPTIVE
+  }
+
+  public enum Mechanism {
+    BACKTRACK,
+    RESTORE
+  }
+
+  static final double WEIGHT = 0.1;
+  // Every PROBE_INTERVAL decisions, the mechanism that is not preferred is used
+  static final int PROBE_INTERVAL = 32;
+
+  private final Type type;
+
+  // Averages in nanos, and NaN until measured
+  private double forwardNanos = Double.NaN;
+  private double restoreNanos = Double.NaN;
+  private double backtrackStepNanos = Double.NaN;
+  private double backtrackSteps = Double.NaN;
+  // The depth that samples are restored to (non-zero for method entry and tree snapshots)
+  private double startDepth = Double.NaN;
+
+  private long decisions = 0;
+  private long backtracks = 0;
+  private long restores = 0;
+
+  public RestartPolicy(Type type) {
+    this.type = type;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Decides how to continue from a dead end
+   * @param depth the depth of the dead end
+   */
+  public Mechanism choose(int depth) {
+    Mechanism mechanism;
+    switch(type) {
+      case BACKTRACK:
+        mechanism = Mechanism.BACKTRACK;
+        break;
+      case RESTORE:
+        mechanism = Mechanism.RESTORE;
+        break;
+      default:
+        mechanism = chooseCheapest(depth);
+    }
+    if(mechanism == Mechanism.BACKTRACK) {
+      backtracks++;
+    } else {
+      restores++;
+    }
+    return mechanism;
+  }
+
+  private Mechanism chooseCheapest(int depth) {
+    decisions++;
+    // Backtracking is tried first, since restores are measured at the end of every sample
+    if(Double.isNaN(backtrackStepNanos) || Double.isNaN(restoreNanos) ||
+        Double.isNaN(forwardNanos)) {
+      return Mechanism.BACKTRACK;
+    }
+    Mechanism cheapest = (getEstimatedRestoreNanos(depth) < getEstimatedBacktrackNanos()) ?
+        Mechanism.RESTORE : Mechanism.BACKTRACK;
+    if(decisions % PROBE_INTERVAL == 0) {
+      return (cheapest == Mechanism.RESTORE) ? Mechanism.BACKTRACK : Mechanism.RESTORE;
+    }
+    return cheapest;
+  }
+
+  public double getEstimatedBacktrackNanos() {
+    return backtrackSteps * backtrackStepNanos;
+  }
+
+  public double getEstimatedRestoreNanos(int depth) {
+    double ancestorDepth = depth - backtrackSteps;
+    return restoreNanos + Math.max(0, ancestorDepth - startDepth) * forwardNanos;
+  }
+
+  public void forwardDone(long nanos) {
+    forwardNanos = average(forwardNanos, nanos);
+  }
+
+  // A state was restored to start a sample at depth
+  public void restoreDone(long nanos, int depth) {
+    restoreNanos = average(restoreNanos, nanos);
+    startDepth = average(startDepth, depth);
+  }
+
+  // The search backtracked steps levels from a dead end before it could advance again
+  public void backtrackDone(long nanos, int steps) {
+    backtrackStepNanos = average(backtrackStepNanos, (double) nanos / steps);
+    backtrackSteps = average(backtrackSteps, steps);
+  }
+
+  private static double average(double average, double value) {
+    return Double.isNaN(average) ? value : WEIGHT * value + (1 - WEIGHT) * average;
+  }
+
+  public long getNumberOfBacktracks() {
+    return backtracks;
+  }
+
+  public long getNumberOfRestores() {
+    return restores;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(type.toString().toLowerCase()).append(" policy: ")
+        .append(backtracks).append(" dead ends backtracked, ")
+        .append(restores).append(" restored");
+    if(!Double.isNaN(backtrackStepNanos)) {
+      sb.append(String.format(", backtrack %.1f steps x %.1f us", backtrackSteps,
+          backtrackStepNanos / 1000));
+    }
+    if(!Double.isNaN(restoreNanos)) {
+      sb.append(String.format(", restore %.1f us", restoreNanos / 1000));
+    }
+    if(!Double.isNaN(forwardNanos)) {
+      sb.append(String.format(", forward %.1f us", forwardNanos / 1000));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import edu.cmu.sv.isstac.canopy.exploration.ChoicesStrategy;
+import edu.cmu.sv.isstac.canopy.structure.Node;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Implemented by analysis strategies whose samples can be resumed from a state in the middle
+ * of the tree (see {@link SnapshotCache}) instead of from the initial state.
+ */
+public interface ResumableStrategy {
+
+  // The position of the current state of the sample in the strategy's tree or null if the
+  // state should not be stored
+  Node getSnapshotPosition();
+
+  // The position of the deepest snapshot in cache on the path that the strategy will select for
+  // the next sample or null if there is none. The choices strategy determines the eligible
+  // choices along the way
+  Node selectResumePosition(SnapshotCache cache, ChoicesStrategy choicesStrategy);
+
+  // The next sample continues from the snapshot of position
+  void resumeAt(Node position);
+}
@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.PropertyListenerAdapter;
+import gov.nasa.jpf.search.Search;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Aborts samples that exceed a budget of executed instructions and/or wall-clock time, e.g.
+ * because the system under test loops for a long time without making choices. The budget is
+ * counted from where the sample starts, i.e. from the state that is restored or backtracked to.
+ *
+ * A sample is aborted by ignoring the current state, which breaks the transition. The sampling
+ * searches then report the path as a constraint hit and prune it. Note that the transition can
+ * only be broken between instructions, so time spent in a single instruction, e.g. a native
+ * call, is not bounded.
+ */
+public class SampleWatchdog extends PropertyListenerAdapter implements SamplingListener {
+  private static final Logger logger = JPFLogger.getLogger(SampleWatchdog.class.getName());
+
+  // The clock is only read every that many instructions (must be a power of two)
+  private static final long CLOCK_CHECK_INTERVAL = 1024;
+
+  private final long instructionBudget;
+  private final long timeBudgetNanos;
+
+  private long instructions = 0;
+  private long sampleStart = System.nanoTime();
+  private boolean expired = false;
+
+  private long abortedByInstructions = 0;
+  private long abortedByTime = 0;
+
+  /**
+   * @param instructionBudget the max number of instructions of a sample or 0 for no limit
+   * @param timeBudget the max wall-clock time of a sample or 0 for no limit
+   */
+  public SampleWatchdog(long instructionBudget, long timeBudget, TimeUnit unit) {
+    if(instructionBudget < 0 || timeBudget < 0) {
+      throw new IllegalArgumentException("Budgets must be non-negative");
+    }
+    this.instructionBudget = instructionBudget;
+    this.timeBudgetNanos = unit.toNanos(timeBudget);
+  }
+
+  /**
+   * Creates the watchdog configured with canopy.watchdog.instructions and canopy.watchdog.time.
+   * Returns null if neither budget is set.
+   */
+  static SampleWatchdog fromConfig(Config config) {
+    long instructionBudget = config.getLong(Options.WATCHDOG_INSTRUCTIONS,
+        Options.DEFAULT_WATCHDOG_INSTRUCTIONS);
+    long timeBudget = config.getLong(Options.WATCHDOG_TIME, Options.DEFAULT_WATCHDOG_TIME);
+    if(instructionBudget <= 0 && timeBudget <= 0) {
+      return null;
+    }
+    logger.info("Aborting samples exceeding " +
+        ((instructionBudget > 0) ? instructionBudget + " instructions" : "") +
+        ((instructionBudget > 0 && timeBudget > 0) ? " or " : "") +
+        ((timeBudget > 0) ? timeBudget + " ms" : ""));
+    return new SampleWatchdog(Math.max(instructionBudget, 0), Math.max(timeBudget, 0),
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void instructionExecuted(VM vm, ThreadInfo currentThread, Instruction nextInstruction,
+                                  Instruction executedInstruction) {
+    if(expired) {
+      return;
+    }
+    instructions++;
+    if(instructionBudget > 0 && instructions >= instructionBudget) {
+      abortedByInstructions++;
+      abort(vm, instructionBudget + " instructions");
+    } else if(timeBudgetNanos > 0 && (instructions & (CLOCK_CHECK_INTERVAL - 1)) == 0 &&
+        System.nanoTime() - sampleStart >= timeBudgetNanos) {
+      abortedByTime++;
+      abort(vm, TimeUnit.NANOSECONDS.toMillis(timeBudgetNanos) + " ms");
+    }
+  }
+
+  private void abort(VM vm, String budget) {
+    logger.fine("Aborting sample after exceeding its budget of " + budget);
+    expired = true;
+    vm.ignoreState();
+    vm.breakTransition("canopy sample budget exceeded");
+  }
+
+  /**
+   * Whether the current sample has been aborted
+   */
+  public boolean hasExpired() {
+    return this.expired;
+  }
+
+  public long getNumberOfAbortedSamples() {
+    return this.abortedByInstructions + this.abortedByTime;
+  }
+
+  @Override
+  public void newSampleStarted(Search samplingSearch) {
+    restart();
+  }
+
+  @Override
+  public void stateBacktracked(Search search) {
+    restart();
+  }
+
+  @Override
+  public void stateRestored(Search search) {
+    restart();
+  }
+
+  private void restart() {
+    this.instructions = 0;
+    this.sampleStart = System.nanoTime();
+    this.expired = false;
+  }
+
+  @Override
+  public String toString() {
+    return getNumberOfAbortedSamples() + " samples aborted (" + abortedByInstructions +
+        " over instruction budget, " + abortedByTime + " over time budget)";
+  }
+}
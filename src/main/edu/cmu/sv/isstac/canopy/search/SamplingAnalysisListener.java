@@ -28,23 +28,35 @@ import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.logging.Logger;
 
 import edu.cmu.sv.isstac.canopy.AnalysisStrategy;
+import edu.cmu.sv.isstac.canopy.Options;
 import edu.cmu.sv.isstac.canopy.analysis.AnalysisEventObserver;
 import edu.cmu.sv.isstac.canopy.analysis.SamplingResult;
+import edu.cmu.sv.isstac.canopy.exploration.Checkpointable;
+import edu.cmu.sv.isstac.canopy.exploration.ChoiceSet;
 import edu.cmu.sv.isstac.canopy.exploration.ChoicesStrategy;
 import edu.cmu.sv.isstac.canopy.exploration.Path;
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
+import edu.cmu.sv.isstac.canopy.exploration.PruningStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.TreeSizeEstimator;
 import edu.cmu.sv.isstac.canopy.quantification.PathQuantifier;
+import edu.cmu.sv.isstac.canopy.reward.RewardBound;
 import edu.cmu.sv.isstac.canopy.reward.RewardFunction;
 import edu.cmu.sv.isstac.canopy.exploration.cache.StateCache;
 import edu.cmu.sv.isstac.canopy.termination.TerminationStrategy;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import edu.cmu.sv.isstac.canopy.util.MetricsRegistry;
 import gov.nasa.jpf.PropertyListenerAdapter;
 import gov.nasa.jpf.search.Search;
 import gov.nasa.jpf.symbc.numeric.PCChoiceGenerator;
 import gov.nasa.jpf.symbc.numeric.PathCondition;
 import gov.nasa.jpf.util.JPFLogger;
 import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.Instruction;
+import gov.nasa.jpf.vm.ThreadInfo;
 import gov.nasa.jpf.vm.VM;
 
 /**
@@ -66,6 +78,20 @@ public class SamplingAnalysisListener extends PropertyListenerAdapter implements
   // symbolic execution tree
   private final StateCache stateCache;
 
+  // Follows the live search such that the choices strategy and the cache can look up the
+  // current node of their tries in O(1) amortized instead of walking the path for every CG
+  private final PathCursor pathCursor = new PathCursor();
+
+  // Refilled for every CG such that making a choice does not allocate
+  private final ChoiceSet eligibleChoices = new ChoiceSet();
+
+  // Estimates the number of unexplored paths from the eligible choices along each sample
+  private final TreeSizeEstimator treeSizeEstimator = new TreeSizeEstimator();
+
+  // When set, the remaining paths are enumerated by the search, and choices are no longer made
+  // by the analysis strategy
+  private boolean exhaustive = false;
+
   // Holds the largest rewards found (note: we assume a deterministic system!)
   // for succ, fail and grey. Maybe we only want to keep one of them?
   // In addition it holds various statistics about the exploration
@@ -78,6 +104,41 @@ public class SamplingAnalysisListener extends PropertyListenerAdapter implements
   // The analysis strategy to use, e.g., MCTS
   private final AnalysisStrategy analysisStrategy;
 
+  // Writes the exploration state periodically (if checkpointing is enabled)
+  private Checkpointer checkpointer = null;
+
+  // Defers the solver calls of uncached branches (if deferred feasibility checks are enabled)
+  private DeferredFeasibilityChecker feasibilityChecker = null;
+
+  // Keeps the frames of the incremental solver that are shared with the previous sample (if
+  // incremental solving is used)
+  private IncrementalSolverStack solverStack = null;
+
+  // Results of the solver kept across runs (if a solver cache file is set). Uncached branches
+  // are replayed by SPF and their path condition is then solved through the cache
+  private PersistentSolverCache solverCache = null;
+  private PCChoiceGenerator uncheckedBranch = null;
+
+  // Upper bound of the rewards below a state for branch-and-bound pruning (if set)
+  private RewardBound rewardBound = null;
+  private long boundedSubtrees = 0;
+
+  // Counters of the analysis. Exposed, together with the counters of the components, through
+  // the metrics registry. Branches are replayed when they are known to be feasible, deferred
+  // when they are solved later with the rest of the path, and solved otherwise (possibly
+  // through the solver cache)
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private long stateCacheHits = 0;
+  private long stateCacheMisses = 0;
+  private long replayedBranches = 0;
+  private long deferredBranches = 0;
+  private long solvedBranches = 0;
+  private long backtracks = 0;
+  // Restores of the start state. The first sample and samples resumed from a snapshot do not
+  // count
+  private long restores = 0;
+  private long startTime = 0;
+
   public SamplingAnalysisListener(AnalysisStrategy analysisStrategy, RewardFunction rewardFunction,
                                   PathQuantifier pathQuantifier,
                                   TerminationStrategy terminationStrategy,
@@ -100,40 +161,135 @@ public class SamplingAnalysisListener extends PropertyListenerAdapter implements
     this.pathQuantifier = pathQuantifier;
     this.terminationStrategy = terminationStrategy;
     this.observers = observers;
+
+    this.metrics.registerCounter("samples", () -> this.result.getNumberOfSamples());
+    this.metrics.registerGauge("samplesPerSecond", () -> {
+      double seconds = (System.nanoTime() - this.startTime) / 1e9;
+      return (this.startTime == 0 || seconds <= 0) ? 0 :
+          this.result.getNumberOfSamples() / seconds;
+    });
+    this.metrics.registerCounter("stateCacheHits", () -> this.stateCacheHits);
+    this.metrics.registerCounter("stateCacheMisses", () -> this.stateCacheMisses);
+    this.metrics.registerRatio("stateCacheHitRatio", () -> this.stateCacheHits,
+        () -> this.stateCacheHits + this.stateCacheMisses);
+    this.metrics.registerCounter("replayedBranches", () -> this.replayedBranches);
+    this.metrics.registerCounter("deferredBranches", () -> this.deferredBranches);
+    this.metrics.registerCounter("solvedBranches", () -> this.solvedBranches);
+    this.metrics.registerCounter("backtracks", () -> this.backtracks);
+    this.metrics.registerCounter("restores", () -> this.restores);
+    if(choicesStrategy instanceof PruningStrategy) {
+      PruningStrategy pruner = (PruningStrategy) choicesStrategy;
+      this.metrics.registerCounter("prunerNodes", pruner::getNumberOfNodes);
+      this.metrics.registerCounter("prunerReclaimedNodes", pruner::getNumberOfReclaimedNodes);
+    }
   }
 
   @Override
   public void choiceGeneratorAdvanced(VM vm, ChoiceGenerator<?> cg) {
+    // Advance the cursor to the current CG. This reads at most one new level from the path
+    this.pathCursor.sync(vm.getPath());
 
     // Get the eligible choices for this CG
     // based on the exploration strategy (e.g., pruning-based)
-    ArrayList<Integer> eligibleChoices = choicesStrategy.getEligibleChoices(vm.getPath(), cg);
+    choicesStrategy.getEligibleChoices(this.pathCursor, vm.getPath(), cg, this.eligibleChoices);
+    this.treeSizeEstimator.choiceMade(this.pathCursor.getDepth(), this.eligibleChoices.size());
 
-    // We use the analysis strategy to make the next choice
-    this.analysisStrategy.makeStateChoice(vm, cg, eligibleChoices);
-    if(cg instanceof PCChoiceGenerator) {
+    if(this.exhaustive) {
+      // Enumerating: take the first eligible choice. The search backtracks to the others
+      if(!this.eligibleChoices.isEmpty()) {
+        cg.select(this.eligibleChoices.first());
+      }
+    } else {
+      // We use the analysis strategy to make the next choice
+      this.analysisStrategy.makeStateChoice(vm, cg, this.eligibleChoices);
+    }
+    if(this.solverStack != null) {
+      // The solver holds the constraints of the path, so branches are replayed exactly when
+      // their constraints are already asserted
+      boolean asserted = this.solverStack.choiceMade(this.pathCursor.getDepth(),
+          JPFUtil.getCurrentChoiceOfCG(cg), cg instanceof PCChoiceGenerator);
+      if(cg instanceof PCChoiceGenerator) {
+        JPFUtil.setReplay(asserted);
+        if(asserted) {
+          this.replayedBranches++;
+        } else {
+          this.solvedBranches++;
+        }
+      }
+    } else if(cg instanceof PCChoiceGenerator) {
       // If the state cache contains the current state of the CG (i.e. the next choice to be
       // made) we can safely turn off the solver because it means that previously, there was a
       // path terminated with the state of this CG as a prefix, hence, by definition, the PC was
       // satisfiable and therefore we don't need to invoke the solver again
       // We will turn on the solver again as soon as we encounter a CG we have not seen before
       // according to the cache
-      if(this.stateCache.isStateCached(vm)) {
-        PathCondition.setReplay(true);
+      if(this.stateCache.isStateCached(vm, this.pathCursor)) {
+        this.stateCacheHits++;
+        this.replayedBranches++;
+        JPFUtil.setReplay(true);
+        if(this.feasibilityChecker != null) {
+          this.feasibilityChecker.pathFeasible();
+        }
+      } else if(this.feasibilityChecker != null) {
+        // The branch is solved later, together with the next branches of the path
+        this.stateCacheMisses++;
+        this.deferredBranches++;
+        this.feasibilityChecker.branchDeferred(this.pathCursor.getDepth());
+        JPFUtil.setReplay(true);
+      } else if(this.solverCache != null) {
+        // The branch is solved after its instruction has extended the path condition
+        this.stateCacheMisses++;
+        this.solvedBranches++;
+        this.uncheckedBranch = (PCChoiceGenerator) cg;
+        JPFUtil.setReplay(true);
       } else {
-        PathCondition.setReplay(false);
+        this.stateCacheMisses++;
+        this.solvedBranches++;
+        JPFUtil.setReplay(false);
+      }
+    }
+  }
+
+  @Override
+  public void instructionExecuted(VM vm, ThreadInfo currentThread, Instruction nextInstruction,
+                                  Instruction executedInstruction) {
+    if(this.uncheckedBranch != null) {
+      // This is the instruction of the branch, which has set the path condition of the choice
+      PathCondition pc = this.uncheckedBranch.getCurrentPC();
+      this.uncheckedBranch = null;
+      if(pc != null && !this.solverCache.isSatisfiable(pc)) {
+        // Same as SPF does for an unsatisfiable branch
+        vm.getSystemState().setIgnored(true);
       }
+      JPFUtil.setReplay(false);
     }
   }
 
   @Override
   public void searchStarted(Search search) {
+    this.startTime = System.nanoTime();
+    if(search.getConfig().getBoolean(Options.METRICS_JMX, Options.DEFAULT_METRICS_JMX)) {
+      this.metrics.registerMBean(this.analysisStrategy.getClass().getSimpleName());
+    }
+    if(this.checkpointer != null && this.checkpointer.isResume()) {
+      // The search has reset the pruner at this point, so we can restore it
+      this.checkpointer.restore(getCheckpointableStates());
+    }
     for(AnalysisEventObserver obs : this.observers) {
       obs.analysisStarted(search);
     }
   }
   @Override
   public void searchFinished(Search search) {
+    if(this.rewardBound != null) {
+      logger.info(this.boundedSubtrees + " subtrees pruned by reward bound");
+    }
+    logger.info("Metrics: " + this.metrics);
+    this.metrics.unregisterMBean();
+    if(this.checkpointer != null) {
+      this.checkpointer.checkpoint(getCheckpointableStates());
+      this.checkpointer.close();
+    }
     // Notify observers with termination event
     for(AnalysisEventObserver obs : this.observers) {
       obs.analysisDone(result);
@@ -209,8 +365,12 @@ public class SamplingAnalysisListener extends PropertyListenerAdapter implements
       bestResult.setPathCondition(pc);
     }
 
-    this.analysisStrategy.pathTerminated(termType, reward, pathVolume,
-        amplifiedReward, search, hasBeenExplored);
+    this.treeSizeEstimator.sampleDone();
+
+    if(!this.exhaustive) {
+      this.analysisStrategy.pathTerminated(termType, reward, pathVolume,
+          amplifiedReward, search, hasBeenExplored);
+    }
 
     // Check if we should terminate the search
     // based on the result obtained
@@ -221,11 +381,132 @@ public class SamplingAnalysisListener extends PropertyListenerAdapter implements
 
     //Update cache
     stateCache.addState(vm);
+
+    // Note that the path is pruned after this, so it will be sampled again if we resume from
+    // this checkpoint
+    if(this.checkpointer != null && this.checkpointer.isDue()) {
+      this.checkpointer.checkpoint(getCheckpointableStates());
+    }
+  }
+
+  private Checkpointable[] getCheckpointableStates() {
+    List<Checkpointable> states = new ArrayList<>();
+    states.add(this.result);
+    if(this.choicesStrategy instanceof Checkpointable) {
+      states.add((Checkpointable) this.choicesStrategy);
+    }
+    if(this.stateCache instanceof Checkpointable) {
+      states.add((Checkpointable) this.stateCache);
+    }
+    return states.toArray(new Checkpointable[states.size()]);
+  }
+
+  public void setCheckpointer(Checkpointer checkpointer) {
+    this.checkpointer = checkpointer;
+  }
+
+  public void setFeasibilityChecker(DeferredFeasibilityChecker feasibilityChecker) {
+    this.feasibilityChecker = feasibilityChecker;
+  }
+
+  public DeferredFeasibilityChecker getFeasibilityChecker() {
+    return this.feasibilityChecker;
+  }
+
+  public void setSolverStack(IncrementalSolverStack solverStack) {
+    this.solverStack = solverStack;
+  }
+
+  public void setSolverCache(PersistentSolverCache solverCache) {
+    this.solverCache = solverCache;
+  }
+
+  public void setRewardBound(RewardBound rewardBound) {
+    this.rewardBound = rewardBound;
+  }
+
+  /**
+   * Returns true if the reward bound shows that no path through the current state can have a
+   * reward above the best reward of a successful path found so far, such that its subtree can be
+   * pruned.
+   */
+  public boolean isBoundedOut(VM vm) {
+    if(this.rewardBound == null || !isBoundedOut(this.rewardBound, vm, this.result)) {
+      return false;
+    }
+    this.boundedSubtrees++;
+    return true;
+  }
+
+  // Only the successful paths are compared. The best failed and constraint hit paths are
+  // reported separately, so their rewards must not prune the subtree of a better successful path
+  static boolean isBoundedOut(RewardBound rewardBound, VM vm, SamplingResult result) {
+    long bestReward = result.getMaxSuccResult().getReward();
+    return bestReward != Long.MIN_VALUE && rewardBound.getUpperBound(vm) <= bestReward;
+  }
+
+  @Override
+  public void stateBacktracked(Search search) {
+    this.backtracks++;
+    this.uncheckedBranch = null;
+    this.pathCursor.rewind(search.getVM().getPath().size());
+    if(this.feasibilityChecker != null) {
+      this.feasibilityChecker.rewind(search.getVM().getPath().size());
+    }
+    if(this.solverStack != null) {
+      this.solverStack.stateBacktracked(search.getVM().getPath().size(),
+          search.getVM().getChoiceGenerator() instanceof PCChoiceGenerator);
+    }
   }
 
   @Override
   public void newSampleStarted(Search samplingSearch) {
-    this.analysisStrategy.newSampleStarted(samplingSearch);
+    // The state was reset, so move the cursor to the restored state. If the sample is resumed
+    // from a snapshot, the state may be on another path than the previous sample
+    this.pathCursor.resync(samplingSearch.getVM().getPath());
+    this.uncheckedBranch = null;
+    // Samples start from the initial state or from a snapshot, which are both feasible
+    if(this.feasibilityChecker != null) {
+      this.feasibilityChecker.reset();
+    }
+    if(!this.exhaustive) {
+      this.analysisStrategy.newSampleStarted(samplingSearch);
+    }
+  }
+
+  // Invoked by the search when it has restored the start state of the samples
+  public void startStateRestored() {
+    this.restores++;
+  }
+
+  public AnalysisStrategy getAnalysisStrategy() {
+    return this.analysisStrategy;
+  }
+
+  public StateCache getStateCache() {
+    return this.stateCache;
+  }
+
+  public ChoicesStrategy getChoicesStrategy() {
+    return this.choicesStrategy;
+  }
+
+  // The metrics of the analysis. Components can add their own counters before the search starts
+  public MetricsRegistry getMetrics() {
+    return this.metrics;
+  }
+
+  public TreeSizeEstimator getTreeSizeEstimator() {
+    return this.treeSizeEstimator;
+  }
+
+  // Hands the remaining exploration over to an enumeration of the unpruned paths
+  public void setExhaustive(boolean exhaustive) {
+    this.exhaustive = exhaustive;
+  }
+
+  public boolean isExhaustive() {
+    return this.exhaustive;
   }
 
   public Collection<AnalysisEventObserver> getEventObservers() {
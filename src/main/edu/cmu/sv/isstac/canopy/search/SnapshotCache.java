@@ -0,0 +1,258 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import edu.cmu.sv.isstac.canopy.Options;
+import edu.cmu.sv.isstac.canopy.exploration.Path;
+import edu.cmu.sv.isstac.canopy.reward.DepthRewardFunction;
+import edu.cmu.sv.isstac.canopy.structure.Node;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+import gov.nasa.jpf.Config;
+import gov.nasa.jpf.search.SearchListener;
+import gov.nasa.jpf.util.JPFLogger;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.RestorableVMState;
+import gov.nasa.jpf.vm.VM;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Bounded LRU cache of VM states keyed by their position in the tree of the analysis strategy
+ * (see {@link ResumableStrategy}). Instead of restoring the initial state, a sample can resume
+ * from the deepest cached state on the path that the strategy is about to select, which saves
+ * re-executing the prefix of that path.
+ *
+ * The size of a {@link RestorableVMState} cannot be measured cheaply, so the memory used by the
+ * cache is bounded by the number of snapshots and by evicting snapshots while less than a
+ * fraction of the max heap is free.
+ *
+ * JPF does not restore the state of choice generators, and the CGs on the path of a snapshot
+ * may since have been advanced by other samples. Restoring a snapshot therefore also selects
+ * the choices of the snapshot in its CGs.
+ */
+public class SnapshotCache {
+  private static final Logger logger = JPFLogger.getLogger(SnapshotCache.class.getName());
+
+  public static class Snapshot {
+    private final RestorableVMState state;
+    // Choices of the CGs on the path to the state
+    private final Path path;
+    private final int depth;
+
+    private Snapshot(RestorableVMState state, Path path, int depth) {
+      this.state = state;
+      this.path = path;
+      this.depth = depth;
+    }
+
+    public RestorableVMState getState() {
+      return state;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    // The search depth of the state
+    public int getDepth() {
+      return depth;
+    }
+  }
+
+  private final int capacity;
+  private final double minFreeHeap;
+
+  // Access ordered, i.e. the eldest entry is the least recently used
+  private final LinkedHashMap<Node, Snapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long stored = 0;
+  private long resumedDepth = 0;
+
+  /**
+   * @param capacity the max number of snapshots
+   * @param minFreeHeap the fraction of the max heap that is kept free by evicting snapshots
+   */
+  public SnapshotCache(int capacity, double minFreeHeap) {
+    if(capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    if(minFreeHeap < 0 || minFreeHeap >= 1) {
+      throw new IllegalArgumentException("Min free heap must be in [0, 1): " + minFreeHeap);
+    }
+    this.capacity = capacity;
+    this.minFreeHeap = minFreeHeap;
+  }
+
+  /**
+   * Creates the snapshot cache configured with canopy.snapshotcache.capacity. Returns null if
+   * it is disabled or if resuming samples would not be sound for this analysis, i.e. if the
+   * analysis strategy does not support it, or if some component keeps state for the
+   * execution of the whole sample, which is lost when a prefix is not re-executed.
+   */
+  static SnapshotCache fromConfig(Config config, SearchListener[] listeners,
+                                  SamplingAnalysisListener samplingListener,
+                                  boolean incrementalSolving) {
+    int capacity = config.getInt(Options.SNAPSHOT_CACHE_CAPACITY,
+        Options.DEFAULT_SNAPSHOT_CACHE_CAPACITY);
+    if(capacity <= 0) {
+      return null;
+    }
+    String reason = null;
+    if(!(samplingListener.getAnalysisStrategy() instanceof ResumableStrategy)) {
+      reason = "the analysis strategy cannot resume samples";
+    } else if(incrementalSolving) {
+      reason = "the incremental solver only holds the constraints of the previous sample";
+    } else if(config.hasValue(DepthRewardFunction.MEASURED_METHODS_CONF)) {
+      reason = "the depth of measured methods is computed from their entry in the sample";
+    } else {
+      for(SearchListener listener : listeners) {
+        if(listener instanceof SamplingListener && !(listener instanceof SamplingAnalysisListener)) {
+          reason = listener.getClass().getSimpleName() + " keeps state for every sample";
+          break;
+        }
+      }
+    }
+    if(reason != null) {
+      logger.warning("Snapshot cache is disabled: " + reason);
+      return null;
+    }
+    double minFreeHeap = config.getDouble(Options.SNAPSHOT_CACHE_MIN_FREE_HEAP,
+        Options.DEFAULT_SNAPSHOT_CACHE_MIN_FREE_HEAP);
+    logger.info("Samples are resumed from a cache of at most " + capacity + " snapshots");
+    return new SnapshotCache(capacity, minFreeHeap);
+  }
+
+  public boolean contains(Node position) {
+    return this.snapshots.containsKey(position);
+  }
+
+  // Also marks the snapshot as recently used
+  public Snapshot get(Node position) {
+    return this.snapshots.get(position);
+  }
+
+  // Stores the current state of the vm (taken between transitions) at position
+  public void store(Node position, VM vm, int depth) {
+    Snapshot snapshot = new Snapshot(vm.getRestorableState(),
+        new Path(vm.getChoiceGenerator()), depth);
+    this.snapshots.put(position, snapshot);
+    this.stored++;
+    evict();
+  }
+
+  public void remove(Node position) {
+    this.snapshots.remove(position);
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Node, Snapshot>> it = this.snapshots.entrySet().iterator();
+    while(it.hasNext() && (this.snapshots.size() > this.capacity || isLowOnMemory())) {
+      it.next();
+      it.remove();
+      this.evictions++;
+    }
+  }
+
+  private boolean isLowOnMemory() {
+    if(this.minFreeHeap == 0) {
+      return false;
+    }
+    Runtime rt = Runtime.getRuntime();
+    long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+    return free < this.minFreeHeap * rt.maxMemory();
+  }
+
+  /**
+   * Restores the vm to the snapshot. The search still has to reset the next CG and set its
+   * depth.
+   */
+  public void restore(VM vm, Snapshot snapshot) {
+    vm.restoreState(snapshot.getState());
+
+    // The CGs are shared between samples, so select the choices they had when the snapshot was
+    // taken. Only CGs that have been advanced since then are touched
+    Path path = snapshot.getPath();
+    int idx = path.length();
+    for(ChoiceGenerator<?> cg = vm.getChoiceGenerator(); cg != null && idx > 0;
+        cg = cg.getPreviousChoiceGenerator()) {
+      int choice = path.getChoice(--idx);
+      if(JPFUtil.getCurrentChoiceOfCG(cg) != choice) {
+        cg.select(choice);
+      }
+    }
+    this.hits++;
+    this.resumedDepth += path.length();
+  }
+
+  // A sample could not be resumed from a snapshot
+  public void recordMiss() {
+    this.misses++;
+  }
+
+  public void clear() {
+    this.snapshots.clear();
+  }
+
+  public int size() {
+    return this.snapshots.size();
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public double getHitRate() {
+    long lookups = hits + misses;
+    return (lookups == 0) ? 0 : (double) hits / lookups;
+  }
+
+  // Average number of choices that were not re-executed for the samples that were resumed
+  public double getAverageResumedDepth() {
+    return (hits == 0) ? 0 : (double) resumedDepth / hits;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d snapshots (%d stored, %d evicted), %d hits, %d misses, " +
+            "hit rate %.2f, avg. resumed depth %.1f", size(), stored, evictions, hits, misses,
+        getHitRate(), getAverageResumedDepth());
+  }
+}
@@ -43,6 +43,9 @@ public interface Node {
 
   Node getChild(int choice);
 
+  // Detaches the subtree below the node
+  void removeChildren();
+
   int getChoice();
 
   int getTotalChoicesNum();
@@ -24,11 +24,13 @@
 
 package edu.cmu.sv.isstac.canopy.structure;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
 
 import edu.cmu.sv.isstac.canopy.reward.Reward;
+import edu.cmu.sv.isstac.canopy.util.ChildTable;
 import gov.nasa.jpf.symbc.numeric.PCChoiceGenerator;
 import gov.nasa.jpf.symbc.numeric.PathCondition;
 import gov.nasa.jpf.vm.ChoiceGenerator;
@@ -44,7 +46,8 @@ public abstract class NodeAdapter implements Node {
   private final int totalChoicesNum;
   private long visitedNum = 0;
   
-  private final Map<Integer, Node> children = new HashMap<>();
+  // Children indexed by choice (see ChildTable). Allocated when the first child is added
+  private Object children;
   
   private final Reward reward = new Reward();
 
@@ -74,22 +77,38 @@ public abstract class NodeAdapter implements Node {
   
   @Override
   public Collection<Node> getChildren() {
-    return children.values();
+    if(children == null) {
+      return Collections.emptyList();
+    }
+    List<Node> childNodes = new ArrayList<>(ChildTable.size(children));
+    for(int choice = ChildTable.first(children); choice >= 0;
+        choice = ChildTable.next(children, choice + 1)) {
+      childNodes.add(ChildTable.get(children, choice));
+    }
+    return childNodes;
   }
   
   @Override
   public boolean hasChildForChoice(int choice) {
-    return this.children.containsKey(choice);
+    return getChild(choice) != null;
   }
   
   @Override
   public void addChild(Node child) {
-    this.children.put(child.getChoice(), child);
+    // The choice can exceed the number of choices, e.g., for a node without a cg
+    this.children = ChildTable.ensureChoices(this.children,
+        Math.max(totalChoicesNum, child.getChoice() + 1));
+    this.children = ChildTable.put(this.children, child.getChoice(), child);
   }
   
   @Override
   public Node getChild(int choice) {
-    return this.children.get(choice);
+    return ChildTable.get(this.children, choice);
+  }
+
+  @Override
+  public void removeChildren() {
+    this.children = null;
   }
 
   @Override
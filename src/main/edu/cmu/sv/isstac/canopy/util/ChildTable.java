@@ -0,0 +1,294 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.util;
+
+import java.util.Arrays;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Children of a tree node indexed by choice, with a layout that adapts to the fanout of the
+ * choice generator and to how many children are actually visited:
+ * <ul>
+ *   <li>small fanout (e.g. binary PC choices): a dense array indexed by choice</li>
+ *   <li>wide fanout with at most two children: two inline fields</li>
+ *   <li>wide fanout with a few children: sorted arrays of choices and children</li>
+ *   <li>wide fanout with many children: a dense array once it is smaller than the sorted one</li>
+ * </ul>
+ * A table is an opaque Object held by the node (null if there are no children), such that
+ * dense tables do not pay for a wrapper. {@link #put} returns the table to store back in the
+ * node, since it may migrate to another layout.
+ *
+ * Iterate the children with:
+ * <pre>
+ *   for(int choice = ChildTable.first(table); choice >= 0;
+ *       choice = ChildTable.next(table, choice + 1)) { ... }
+ * </pre>
+ */
+public final class ChildTable {
+
+  // Up to this fanout, nodes always use a dense array
+  public static final int DENSE_FANOUT = 4;
+
+  // Estimates (compressed oops) used for choosing the layout and for reporting memory
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final int INLINE_BYTES = 32;
+  private static final int SORTED_BYTES = 32;
+
+  private static final class Inline {
+    final int numberOfChoices;
+    int choice0 = -1;
+    int choice1 = -1;
+    Object child0;
+    Object child1;
+
+    Inline(int numberOfChoices) {
+      this.numberOfChoices = numberOfChoices;
+    }
+  }
+
+  private static final class Sorted {
+    final int numberOfChoices;
+    int[] choices;
+    Object[] children;
+    int size;
+
+    Sorted(int numberOfChoices, int capacity) {
+      this.numberOfChoices = numberOfChoices;
+      this.choices = new int[capacity];
+      this.children = new Object[capacity];
+    }
+  }
+
+  private ChildTable() { }
+
+  // Empty table for a choice generator with the given number of choices
+  public static Object create(int numberOfChoices) {
+    if(numberOfChoices <= DENSE_FANOUT) {
+      return new Object[numberOfChoices];
+    }
+    return new Inline(numberOfChoices);
+  }
+
+  /**
+   * Returns table if it can hold the choices [0, numberOfChoices), otherwise a wider copy of it.
+   * A null table is created
+   */
+  public static Object ensureChoices(Object table, int numberOfChoices) {
+    if(table == null) {
+      return create(numberOfChoices);
+    } else if(getNumberOfChoices(table) >= numberOfChoices) {
+      return table;
+    }
+    Object wider = create(numberOfChoices);
+    for(int choice = first(table); choice >= 0; choice = next(table, choice + 1)) {
+      wider = put(wider, choice, get(table, choice));
+    }
+    return wider;
+  }
+
+  public static int getNumberOfChoices(Object table) {
+    if(table instanceof Object[]) {
+      return ((Object[]) table).length;
+    } else if(table instanceof Inline) {
+      return ((Inline) table).numberOfChoices;
+    }
+    return ((Sorted) table).numberOfChoices;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T> T get(Object table, int choice) {
+    if(table instanceof Object[]) {
+      Object[] dense = (Object[]) table;
+      return (choice < dense.length) ? (T) dense[choice] : null;
+    } else if(table instanceof Inline) {
+      Inline inline = (Inline) table;
+      if(inline.choice0 == choice) return (T) inline.child0;
+      if(inline.choice1 == choice) return (T) inline.child1;
+      return null;
+    } else if(table instanceof Sorted) {
+      Sorted sorted = (Sorted) table;
+      int idx = Arrays.binarySearch(sorted.choices, 0, sorted.size, choice);
+      return (idx >= 0) ? (T) sorted.children[idx] : null;
+    }
+    return null;
+  }
+
+  /**
+   * Sets the child of choice (which must be non-null) and returns the table that the node must
+   * keep, which is a new table if the layout changed
+   */
+  public static Object put(Object table, int choice, Object child) {
+    if(table instanceof Object[]) {
+      ((Object[]) table)[choice] = child;
+      return table;
+    } else if(table instanceof Inline) {
+      Inline inline = (Inline) table;
+      if(inline.choice1 == choice) {
+        inline.child1 = child;
+        return inline;
+      } else if(inline.choice0 < 0 || inline.choice0 == choice) {
+        inline.choice0 = choice;
+        inline.child0 = child;
+        return inline;
+      } else if(inline.choice1 < 0 || inline.choice1 == choice) {
+        inline.choice1 = choice;
+        inline.child1 = child;
+        return inline;
+      }
+      // Third child: migrate
+      Object migrated = grow(inline.numberOfChoices, 4);
+      migrated = put(migrated, inline.choice0, inline.child0);
+      migrated = put(migrated, inline.choice1, inline.child1);
+      return put(migrated, choice, child);
+    }
+    Sorted sorted = (Sorted) table;
+    int idx = Arrays.binarySearch(sorted.choices, 0, sorted.size, choice);
+    if(idx >= 0) {
+      sorted.children[idx] = child;
+      return sorted;
+    }
+    if(sorted.size == sorted.choices.length) {
+      Object migrated = grow(sorted.numberOfChoices, sorted.size * 2);
+      if(migrated instanceof Object[]) {
+        Object[] dense = (Object[]) migrated;
+        for(int i = 0; i < sorted.size; i++) {
+          dense[sorted.choices[i]] = sorted.children[i];
+        }
+        dense[choice] = child;
+        return dense;
+      }
+      sorted.choices = Arrays.copyOf(sorted.choices, sorted.size * 2);
+      sorted.children = Arrays.copyOf(sorted.children, sorted.size * 2);
+    }
+    int insertion = -(idx + 1);
+    System.arraycopy(sorted.choices, insertion, sorted.choices, insertion + 1,
+        sorted.size - insertion);
+    System.arraycopy(sorted.children, insertion, sorted.children, insertion + 1,
+        sorted.size - insertion);
+    sorted.choices[insertion] = choice;
+    sorted.children[insertion] = child;
+    sorted.size++;
+    return sorted;
+  }
+
+  /**
+   * Removes the child of choice and returns the table that the node must keep, which is null
+   * once the last child has been removed
+   */
+  public static Object remove(Object table, int choice) {
+    if(table instanceof Object[]) {
+      Object[] dense = (Object[]) table;
+      if(choice < dense.length) {
+        dense[choice] = null;
+      }
+    } else if(table instanceof Inline) {
+      Inline inline = (Inline) table;
+      if(inline.choice0 == choice) {
+        inline.choice0 = -1;
+        inline.child0 = null;
+      } else if(inline.choice1 == choice) {
+        inline.choice1 = -1;
+        inline.child1 = null;
+      }
+    } else if(table instanceof Sorted) {
+      Sorted sorted = (Sorted) table;
+      int idx = Arrays.binarySearch(sorted.choices, 0, sorted.size, choice);
+      if(idx >= 0) {
+        System.arraycopy(sorted.choices, idx + 1, sorted.choices, idx, sorted.size - idx - 1);
+        System.arraycopy(sorted.children, idx + 1, sorted.children, idx, sorted.size - idx - 1);
+        sorted.children[--sorted.size] = null;
+      }
+    }
+    return (first(table) < 0) ? null : table;
+  }
+
+  // Sorted layout with the capacity, or a dense array if that takes up less memory
+  private static Object grow(int numberOfChoices, int capacity) {
+    long sortedBytes = SORTED_BYTES + 2L * (ARRAY_HEADER_BYTES + 4L * capacity);
+    long denseBytes = ARRAY_HEADER_BYTES + 4L * numberOfChoices;
+    if(denseBytes <= sortedBytes) {
+      return new Object[numberOfChoices];
+    }
+    return new Sorted(numberOfChoices, capacity);
+  }
+
+  // Smallest choice with a child that is at least from, or -1 if there is none
+  public static int next(Object table, int from) {
+    if(table instanceof Object[]) {
+      Object[] dense = (Object[]) table;
+      for(int choice = Math.max(from, 0); choice < dense.length; choice++) {
+        if(dense[choice] != null) {
+          return choice;
+        }
+      }
+    } else if(table instanceof Inline) {
+      Inline inline = (Inline) table;
+      int a = (inline.choice0 >= from) ? inline.choice0 : -1;
+      int b = (inline.choice1 >= from) ? inline.choice1 : -1;
+      if(a < 0) return b;
+      if(b < 0) return a;
+      return Math.min(a, b);
+    } else if(table instanceof Sorted) {
+      Sorted sorted = (Sorted) table;
+      int idx = Arrays.binarySearch(sorted.choices, 0, sorted.size, from);
+      idx = (idx >= 0) ? idx : -(idx + 1);
+      return (idx < sorted.size) ? sorted.choices[idx] : -1;
+    }
+    return -1;
+  }
+
+  public static int first(Object table) {
+    return next(table, 0);
+  }
+
+  // Number of choices that have a child
+  public static int size(Object table) {
+    if(table instanceof Inline) {
+      Inline inline = (Inline) table;
+      return (inline.choice0 >= 0 ? 1 : 0) + (inline.choice1 >= 0 ? 1 : 0);
+    } else if(table instanceof Sorted) {
+      return ((Sorted) table).size;
+    }
+    int size = 0;
+    for(int choice = first(table); choice >= 0; choice = next(table, choice + 1)) {
+      size++;
+    }
+    return size;
+  }
+
+  // Estimate of the bytes retained by the table itself (excluding the children)
+  public static long getMemoryFootprint(Object table) {
+    if(table instanceof Object[]) {
+      return ARRAY_HEADER_BYTES + 4L * ((Object[]) table).length;
+    } else if(table instanceof Inline) {
+      return INLINE_BYTES;
+    } else if(table instanceof Sorted) {
+      Sorted sorted = (Sorted) table;
+      return SORTED_BYTES + 2L * (ARRAY_HEADER_BYTES + 4L * sorted.choices.length);
+    }
+    return 0;
+  }
+}
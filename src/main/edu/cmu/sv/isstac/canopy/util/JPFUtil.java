@@ -24,6 +24,10 @@
 
 package edu.cmu.sv.isstac.canopy.util;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import gov.nasa.jpf.symbc.numeric.PathCondition;
 import gov.nasa.jpf.vm.ChoiceGenerator;
 import gov.nasa.jpf.vm.VM;
@@ -33,6 +37,9 @@ import gov.nasa.jpf.vm.VM;
  */
 public class JPFUtil {
 
+  // The value last passed to setReplay, since SPF does not expose the replay flag
+  private static boolean replay = false;
+
   public static int getCurrentChoiceOfCG(ChoiceGenerator<?> cg) {
     //BIG FAT WARNING:
     //This is in general UNSAFE to do,
@@ -45,11 +52,40 @@ public class JPFUtil {
     return cg.getProcessedNumberOfChoices() - 1;
   }
 
+  /**
+   * Turns replay of path conditions on or off (see PathCondition.setReplay). Replay must be set
+   * through here, such that it can be turned on temporarily and restored with isReplay.
+   */
+  public static void setReplay(boolean replay) {
+    JPFUtil.replay = replay;
+    PathCondition.setReplay(replay);
+  }
+
+  public static boolean isReplay() {
+    return replay;
+  }
+
   public static int getLastChoiceOfPath(VM vm) {
     ChoiceGenerator<?> lastCg = vm.getChoiceGenerator();
     return JPFUtil.getCurrentChoiceOfCG(lastCg);
   }
 
+  // Strips the signatures of method specs such as symbolic.method, e.g. pkg.Cls.foo(sym#con)
+  // becomes pkg.Cls.foo, which can be compared with MethodInfo.getBaseName()
+  public static Set<String> extractSimpleMethodNames(String[] jpfMethodSpecs) {
+
+    //TODO: This also means that we do not distinguish between overloaded methods
+    String[] processedMethods = new String[jpfMethodSpecs.length];
+    System.arraycopy(jpfMethodSpecs, 0, processedMethods, 0, jpfMethodSpecs.length);
+    for (int i = 0; i < jpfMethodSpecs.length; i++) {
+      String meth = jpfMethodSpecs[i];
+      int sigBegin = meth.indexOf('(');
+      if (sigBegin >= 0)
+        processedMethods[i] = meth.substring(0, sigBegin);
+    }
+    return new HashSet<>(Arrays.asList(processedMethods));
+  }
+
   public static String clean(PathCondition pc) {
     //TODO: Review: is it correct to return true here?
     return (pc.header == null) ? "TRUE" : clean(pc.header.toString());
@@ -0,0 +1,203 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import gov.nasa.jpf.util.JPFLogger;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Named metrics of the components of an analysis, e.g. cache hits and trie sizes. A metric is a
+ * function that reads a counter of its component, so nothing is computed until the metrics are
+ * read.
+ *
+ * The registry can be registered as a JMX MBean (edu.cmu.sv.isstac.canopy:type=Metrics) with a
+ * read-only attribute per metric, such that a running analysis can be inspected with e.g.
+ * jconsole. The counters are read without synchronizing with the search, so values read over
+ * JMX may be slightly stale.
+ */
+public class MetricsRegistry implements DynamicMBean {
+  private static final Logger logger = JPFLogger.getLogger(MetricsRegistry.class.getName());
+
+  private static final String DOMAIN = "edu.cmu.sv.isstac.canopy";
+  private static final AtomicInteger registrations = new AtomicInteger();
+
+  private static class Metric {
+    private final String type;
+    private final Supplier<Number> value;
+
+    private Metric(String type, Supplier<Number> value) {
+      this.type = type;
+      this.value = value;
+    }
+  }
+
+  private final Map<String, Metric> metrics = new LinkedHashMap<>();
+  private ObjectName objectName = null;
+
+  public synchronized void registerCounter(String name, LongSupplier counter) {
+    this.metrics.put(name, new Metric(Long.class.getName(), counter::getAsLong));
+  }
+
+  public synchronized void registerGauge(String name, DoubleSupplier gauge) {
+    this.metrics.put(name, new Metric(Double.class.getName(), gauge::getAsDouble));
+  }
+
+  // The ratio of two counters, which is 0 while the denominator is 0
+  public void registerRatio(String name, LongSupplier numerator, LongSupplier denominator) {
+    registerGauge(name, () -> {
+      long d = denominator.getAsLong();
+      return (d == 0) ? 0 : (double) numerator.getAsLong() / d;
+    });
+  }
+
+  // The value of the metric, or null if there is no such metric
+  public synchronized Number get(String name) {
+    Metric metric = this.metrics.get(name);
+    return (metric == null) ? null : metric.value.get();
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server under
+   * edu.cmu.sv.isstac.canopy:type=Metrics,name=&lt;name&gt;-&lt;n&gt;, where n numbers the
+   * registrations of this JVM such that e.g. parallel workers get their own MBean. Failures are
+   * logged, since the metrics are also available without JMX.
+   */
+  public synchronized void registerMBean(String name) {
+    if(this.objectName != null) {
+      return;
+    }
+    try {
+      ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" +
+          ObjectName.quote(name + "-" + registrations.incrementAndGet()));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      this.objectName = objectName;
+      logger.info("Metrics are exposed as MBean " + objectName);
+    } catch (JMException e) {
+      logger.warning("Could not register metrics MBean: " + e.getMessage());
+    }
+  }
+
+  public synchronized void unregisterMBean() {
+    if(this.objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(this.objectName);
+    } catch (JMException e) {
+      logger.warning("Could not unregister metrics MBean: " + e.getMessage());
+    }
+    this.objectName = null;
+  }
+
+  @Override
+  public synchronized Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Metric metric = this.metrics.get(attribute);
+    if(metric == null) {
+      throw new AttributeNotFoundException("No such metric: " + attribute);
+    }
+    return metric.value.get();
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public synchronized AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for(String attribute : attributes) {
+      Metric metric = this.metrics.get(attribute);
+      if(metric != null) {
+        list.add(new Attribute(attribute, metric.value.get()));
+      }
+    }
+    return list;
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  @Override
+  public synchronized MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<>();
+    for(Map.Entry<String, Metric> entry : this.metrics.entrySet()) {
+      attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().type,
+          entry.getKey(), true, false, false));
+    }
+    return new MBeanInfo(getClass().getName(), "Metrics of a canopy analysis",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    for(Map.Entry<String, Metric> entry : this.metrics.entrySet()) {
+      if(sb.length() > 0) {
+        sb.append(", ");
+      }
+      Number value = entry.getValue().value.get();
+      sb.append(entry.getKey()).append('=');
+      if(value instanceof Double) {
+        sb.append(String.format("%.2f", value.doubleValue()));
+      } else {
+        sb.append(value);
+      }
+    }
+    return sb.toString();
+  }
+}
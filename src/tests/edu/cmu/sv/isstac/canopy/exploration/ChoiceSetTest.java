@@ -0,0 +1,150 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Choice sets around the boundaries of the mask and the overflow words
+ */
+public class ChoiceSetTest {
+
+  private static List<Integer> choices(ChoiceSet set) {
+    List<Integer> choices = new ArrayList<>();
+    for(int choice = set.first(); choice >= 0; choice = set.next(choice + 1)) {
+      choices.add(choice);
+    }
+    return choices;
+  }
+
+  @Test
+  public void emptySetHasNoChoices() {
+    ChoiceSet set = new ChoiceSet();
+    assertTrue(set.isEmpty());
+    assertEquals(-1, set.first());
+    assertEquals(-1, set.next(100));
+    assertFalse(set.contains(-1));
+    assertFalse(set.contains(0));
+    assertFalse(set.contains(200));
+  }
+
+  @Test
+  public void choicesAtWordBoundaries() {
+    ChoiceSet set = new ChoiceSet();
+    for(int choice : new int[] {129, 63, 0, 64, 127, 65, 128}) {
+      set.add(choice);
+    }
+    set.add(64);
+    assertEquals(7, set.size());
+    assertEquals(Arrays.asList(0, 63, 64, 65, 127, 128, 129), choices(set));
+    assertEquals(63, set.next(1));
+    assertEquals(64, set.next(64));
+    assertEquals(127, set.next(66));
+    assertEquals(-1, set.next(130));
+    for(int i = 0; i < set.size(); i++) {
+      assertEquals((int) choices(set).get(i), set.get(i));
+    }
+  }
+
+  @Test
+  public void removeAtWordBoundaries() {
+    ChoiceSet set = new ChoiceSet();
+    set.setAll(130);
+    set.remove(63);
+    set.remove(64);
+    set.remove(128);
+    set.remove(500);
+    assertEquals(127, set.size());
+    assertFalse(set.contains(63));
+    assertFalse(set.contains(64));
+    assertTrue(set.contains(65));
+    assertEquals(65, set.next(63));
+    assertEquals(129, set.next(128));
+    assertEquals(62, set.get(62));
+    assertEquals(65, set.get(63));
+  }
+
+  @Test
+  public void setAllAroundWordBoundaries() {
+    for(int n : new int[] {0, 1, 63, 64, 65, 127, 128, 129}) {
+      ChoiceSet set = new ChoiceSet();
+      set.add(200);
+      set.setAll(n);
+      assertEquals(n, set.size());
+      if(n > 0) {
+        assertEquals(n - 1, set.get(n - 1));
+        assertTrue(set.contains(n - 1));
+      }
+      assertFalse(set.contains(n));
+      assertFalse(set.contains(200));
+      assertEquals(n, choices(set).size());
+    }
+  }
+
+  @Test
+  public void clearedSetsAreReused() {
+    ChoiceSet set = new ChoiceSet();
+    set.add(3);
+    set.add(70);
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(70));
+    set.add(1);
+    assertEquals(Arrays.asList(1), choices(set));
+  }
+
+  @Test
+  public void copiesAreIndependent() {
+    ChoiceSet set = new ChoiceSet();
+    set.add(2);
+    set.add(66);
+    ChoiceSet copy = new ChoiceSet(set);
+    copy.remove(66);
+    assertEquals(Arrays.asList(2, 66), choices(set));
+    assertEquals(Arrays.asList(2), choices(copy));
+    ChoiceSet wide = new ChoiceSet();
+    wide.add(300);
+    wide.copyFrom(set);
+    assertEquals(Arrays.asList(2, 66), choices(wide));
+    assertEquals(2, wide.size());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void getBeyondTheSizeIsOutOfBounds() {
+    ChoiceSet set = new ChoiceSet();
+    set.setAll(2);
+    set.get(2);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Int storage in memory-mapped files, and array tries on top of it
+ */
+public class MappedIntStorageTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = folder.newFolder();
+  }
+
+  @After
+  public void tearDown() {
+    // Mapped segments are only unmapped once they are collected
+    System.gc();
+  }
+
+  @Test
+  public void valuesAreKept() {
+    MappedIntStorage storage = new MappedIntStorage(directory, 100);
+    assertTrue(storage.capacity() >= 100);
+    assertEquals(0, storage.get(42));
+    storage.set(0, -1);
+    storage.set(42, 7);
+    storage.fill(50, 60, 3);
+    assertEquals(-1, storage.get(0));
+    assertEquals(7, storage.get(42));
+    assertEquals(3, storage.get(59));
+    assertEquals(0, storage.get(60));
+    storage.release();
+  }
+
+  @Test
+  public void growingAcrossSegmentsKeepsTheContents() {
+    MappedIntStorage storage = new MappedIntStorage(directory, 1);
+    int segment = storage.capacity();
+    storage.set(segment - 1, 11);
+    storage.ensureCapacity(segment + 1);
+    assertEquals(2L * segment, storage.capacity());
+    assertEquals(2L * segment * 4, storage.getMemoryFootprint());
+    storage.set(segment, 12);
+    assertEquals(11, storage.get(segment - 1));
+    assertEquals(12, storage.get(segment));
+    // Growing within the mapped capacity does not map more
+    storage.ensureCapacity(segment + 2);
+    assertEquals(2L * segment, storage.capacity());
+    storage.release();
+  }
+
+  @Test
+  public void releaseDeletesTheFile() {
+    MappedIntStorage storage = new MappedIntStorage(directory, 1);
+    assertEquals(1, directory.list().length);
+    storage.release();
+    assertEquals(0, directory.list().length);
+  }
+
+  @Test
+  public void arrayTriesCanBeMapped() {
+    ArrayTrie heap = new ArrayTrie(4, HeapIntStorage::new);
+    ArrayTrie mapped = new ArrayTrie(4, MappedIntStorage.factory(directory));
+    for(ArrayTrie trie : new ArrayTrie[] {heap, mapped}) {
+      trie.setFlag(TrieTest.path(0, 1, 1), true);
+      trie.setFlag(TrieTest.path(0, 1, 0), true);
+      trie.setFlag(TrieTest.path(1, 0), false);
+    }
+    assertEquals(heap.getNumberOfNodes(), mapped.getNumberOfNodes());
+    assertEquals(heap.numberOfFlags(), mapped.numberOfFlags());
+    assertTrue(mapped.isFlagSet(TrieTest.path(0, 1, 0)));
+    assertTrue(mapped.areAllChildrenFlagged(mapped.getNode(TrieTest.path(0, 1))));
+    int node = mapped.getNode(TrieTest.path(1));
+    assertEquals(2, mapped.getNumberOfChildren(node));
+    assertEquals(ArrayTrie.NO_NODE, mapped.getChild(node, 1));
+    // Choices past the block of a node are not read from the next block
+    assertEquals(ArrayTrie.NO_NODE, mapped.getChild(mapped.getRoot(), 2));
+    assertEquals(ArrayTrie.NO_NODE, heap.getChild(heap.getRoot(), 2));
+  }
+
+  @Test
+  public void compactingAMappedArrayTrieReplacesItsFiles() {
+    ArrayTrie trie = new ArrayTrie(4, MappedIntStorage.factory(directory));
+    trie.setFlag(TrieTest.path(0, 1, 1), true);
+    trie.setFlag(TrieTest.path(0, 1, 0), true);
+    trie.setFlag(TrieTest.path(0, 1), true);
+    trie.setFlag(TrieTest.path(1, 0), false);
+    assertEquals(7, trie.getNumberOfNodes());
+
+    trie.compact();
+    assertEquals(5, trie.getNumberOfNodes());
+    assertEquals(3, trie.numberOfFlags());
+    assertEquals(4, directory.list().length);
+    assertTrue(trie.isFlagSet(TrieTest.path(0, 1)));
+    assertEquals(ArrayTrie.NO_NODE, trie.getNode(TrieTest.path(0, 1, 0)));
+    assertEquals(1, trie.getNumberOfFlaggedChildren(trie.getNode(TrieTest.path(0))));
+    assertTrue(trie.contains(TrieTest.path(1, 0)));
+
+    // The packed storages grow again for new paths
+    trie.setFlag(TrieTest.path(1, 1), true);
+    assertEquals(6, trie.getNumberOfNodes());
+    assertEquals(1, trie.getNumberOfFlaggedChildren(trie.getNode(TrieTest.path(1))));
+    trie.release();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Paths sharing their store with copies and prefixes
+ */
+public class PathTest {
+
+  private static Path path(Integer... choices) {
+    return new Path(Arrays.asList(choices));
+  }
+
+  @Test
+  public void equalPathsHaveEqualHashes() {
+    Path built = new Path();
+    built.addChoice(1);
+    built.addChoice(0);
+    built.addChoice(1);
+    assertEquals(path(1, 0, 1), built);
+    assertEquals(path(1, 0, 1).hashCode(), built.hashCode());
+    assertEquals(Arrays.asList(1, 0, 1).hashCode(), built.hashCode());
+    assertNotEquals(path(1, 0), built);
+    assertNotEquals(path(1, 1, 1), built);
+  }
+
+  @Test
+  public void pathsGrowBeyondTheirCapacity() {
+    Path p = new Path();
+    for(int i = 0; i < 1000; i++) {
+      p.addChoice(i % 3);
+    }
+    assertEquals(1000, p.length());
+    for(int i = 0; i < 1000; i++) {
+      assertEquals(i % 3, p.getChoice(i));
+    }
+  }
+
+  @Test
+  public void copiesAppendIndependently() {
+    Path original = path(0, 1);
+    Path copy = original.copy();
+    copy.addChoice(1);
+    original.addChoice(0);
+    assertEquals(path(0, 1, 1), copy);
+    assertEquals(path(0, 1, 0), original);
+    copy.addChoice(0);
+    assertEquals(path(0, 1, 1, 0), copy);
+    assertEquals(path(0, 1, 0), original);
+  }
+
+  @Test
+  public void prefixesShareChoicesUntilAppended() {
+    Path p = path(1, 1, 0, 1);
+    Path prefix = p.getPrefix(2);
+    assertEquals(path(1, 1), prefix);
+    assertEquals(path(1, 1).hashCode(), prefix.hashCode());
+    assertTrue(p.isPrefix(prefix));
+    prefix.addChoice(1);
+    assertEquals(path(1, 1, 1), prefix);
+    assertEquals(path(1, 1, 0, 1), p);
+    assertFalse(p.isPrefix(prefix));
+  }
+
+  @Test
+  public void removeLastDoesNotAffectCopies() {
+    Path p = path(0, 1, 1);
+    Path copy = p.copy();
+    assertEquals(1, p.removeLast());
+    assertEquals(path(0, 1), p);
+    p.addChoice(0);
+    assertEquals(path(0, 1, 0), p);
+    assertEquals(path(0, 1, 1), copy);
+  }
+
+  @Test
+  public void isPrefixComparesChoices() {
+    Path p = path(0, 1, 1);
+    assertTrue(p.isPrefix(path()));
+    assertTrue(p.isPrefix(path(0, 1)));
+    assertTrue(p.isPrefix(path(0, 1, 1)));
+    assertFalse(p.isPrefix(path(1, 1)));
+    assertFalse(p.isPrefix(path(0, 1, 1, 0)));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void choicesBeyondTheLengthOfAPrefixAreOutOfBounds() {
+    path(0, 1, 1).getPrefix(1).getChoice(1);
+  }
+
+  @Test
+  public void serializedPathsKeepTheirChoices() throws Exception {
+    Path p = path(0, 1, 1, 0, 1);
+    Path prefix = p.getPrefix(3);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(prefix);
+    }
+    Path read;
+    try(ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = (Path) in.readObject();
+    }
+    assertEquals(prefix, read);
+    assertEquals(prefix.hashCode(), read.hashCode());
+    read.addChoice(0);
+    assertEquals(path(0, 1, 1, 0), read);
+  }
+}
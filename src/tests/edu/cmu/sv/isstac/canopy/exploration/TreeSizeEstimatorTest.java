@@ -0,0 +1,113 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Estimates of the remaining leaves of a complete binary tree that is explored by uniform random
+ * walks, where each sampled leaf is pruned
+ */
+public class TreeSizeEstimatorTest {
+
+  private static final int DEPTH = 12;
+  private static final int LEAVES = 1 << DEPTH;
+
+  @Test
+  public void noSamplesIsInfinite() {
+    assertEquals(Double.POSITIVE_INFINITY, new TreeSizeEstimator().getEstimate(), 0);
+  }
+
+  @Test
+  public void unprunedTreeIsEstimatedExactly() {
+    TreeSizeEstimator estimator = new TreeSizeEstimator();
+    for(int sample = 0; sample < 10; sample++) {
+      for(int d = 0; d < DEPTH; d++) {
+        estimator.choiceMade(d, 2);
+      }
+      estimator.sampleDone();
+      assertEquals(LEAVES, estimator.getEstimate(), 0);
+    }
+    assertEquals(10, estimator.getNumberOfSamples());
+  }
+
+  @Test
+  public void choicesLeftByBacktrackingDoNotCount() {
+    TreeSizeEstimator estimator = new TreeSizeEstimator();
+    for(int d = 0; d < 5; d++) {
+      estimator.choiceMade(d, 3);
+    }
+    // Backtrack to depth 2 and continue with CGs that have a single eligible choice
+    estimator.choiceMade(2, 1);
+    estimator.choiceMade(3, 1);
+    estimator.sampleDone();
+    assertEquals(9, estimator.getEstimate(), 0);
+  }
+
+  @Test
+  public void remainingLeavesOfAPrunedTree() {
+    Random rnd = new Random(42);
+    // remaining[n] is the number of unexplored leaves below node n of a heap-indexed tree
+    int[] remaining = new int[2 * LEAVES];
+    for(int n = 2 * LEAVES - 1; n >= 1; n--) {
+      remaining[n] = (n >= LEAVES) ? 1 : remaining[2 * n] + remaining[2 * n + 1];
+    }
+    TreeSizeEstimator estimator = new TreeSizeEstimator();
+    double errors = 0;
+    int estimates = 0;
+    int within = 0;
+    // Once few leaves remain, a single sample changes the relative error a lot
+    while(remaining[1] >= 256) {
+      int node = 1;
+      for(int d = 0; d < DEPTH; d++) {
+        boolean left = remaining[2 * node] > 0;
+        boolean right = remaining[2 * node + 1] > 0;
+        estimator.choiceMade(d, (left ? 1 : 0) + (right ? 1 : 0));
+        node = 2 * node + ((left && right) ? rnd.nextInt(2) : (left ? 0 : 1));
+      }
+      for(int n = node; n >= 1; n /= 2) {
+        remaining[n]--;
+      }
+      estimator.sampleDone();
+
+      double error = Math.abs(estimator.getEstimate() - remaining[1]) / remaining[1];
+      errors += error;
+      estimates++;
+      if(error <= 0.25) {
+        within++;
+      }
+    }
+    // Over many seeds, the mean error is about 11% and about 90% of the estimates are within 25%
+    assertTrue("Mean error " + errors / estimates, errors / estimates < 0.15);
+    assertTrue("Within 25%: " + within + "/" + estimates, within >= 0.85 * estimates);
+  }
+}
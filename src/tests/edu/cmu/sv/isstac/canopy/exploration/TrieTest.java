@@ -0,0 +1,203 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.Path;
+import gov.nasa.jpf.vm.Transition;
+import gov.nasa.jpf.vm.choice.IntIntervalGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Counting of flagged children, collapsing and the shortcut for flagging the last added path
+ */
+public class TrieTest {
+
+  // A path of binary choices as JPF records it
+  static Path path(int... choices) {
+    Path path = new Path("test");
+    ChoiceGenerator<?> prev = null;
+    for(int choice : choices) {
+      IntIntervalGenerator cg = new IntIntervalGenerator("test", 0, 1);
+      cg.setPreviousChoiceGenerator(prev);
+      cg.advance(choice + 1);
+      path.add(new Transition(cg, null));
+      prev = cg;
+    }
+    return path;
+  }
+
+  @Test
+  public void flaggedChildrenAreCounted() {
+    Trie trie = new Trie();
+    trie.setFlag(path(0, 0), true);
+    Trie.TrieNode node = trie.getNode(path(0));
+    assertEquals(1, node.getNumberOfFlaggedChildren());
+    assertFalse(node.areAllChildrenFlagged());
+
+    trie.setFlag(path(0, 1), true);
+    assertEquals(2, node.getNumberOfFlaggedChildren());
+    assertTrue(node.areAllChildrenFlagged());
+
+    // Flagging a node again does not count it twice
+    trie.setFlag(path(0, 1), true);
+    assertEquals(2, node.getNumberOfFlaggedChildren());
+
+    trie.getNode(path(0, 0)).setFlag(false);
+    assertEquals(1, node.getNumberOfFlaggedChildren());
+  }
+
+  @Test
+  public void onlyThePrunedBitIsCounted() {
+    Trie trie = new Trie();
+    trie.setFlags(path(1, 0), Trie.CACHED);
+    trie.setFlags(path(1, 1), Trie.CACHED);
+    Trie.TrieNode node = trie.getNode(path(1));
+    assertEquals(0, node.getNumberOfFlaggedChildren());
+    assertEquals(0, trie.numberOfFlags());
+
+    Trie.TrieNode leaf = trie.setFlags(path(1, 1), Trie.PRUNED);
+    assertTrue(leaf.hasFlags(Trie.PRUNED | Trie.CACHED));
+    assertEquals(1, node.getNumberOfFlaggedChildren());
+    assertEquals(1, trie.numberOfFlags());
+  }
+
+  @Test
+  public void collapseRemovesTheDescendants() {
+    Trie trie = new Trie();
+    trie.setFlag(path(0, 0, 0), true);
+    trie.setFlag(path(0, 0, 1), true);
+    trie.setFlag(path(0, 1), true);
+    trie.setFlag(path(1), false);
+    assertEquals(7, trie.getNumberOfNodes());
+
+    Trie.TrieNode node = trie.getNode(path(0));
+    assertEquals(4, trie.collapse(node));
+    assertEquals(3, trie.getNumberOfNodes());
+    assertEquals(4, trie.getNumberOfReclaimedNodes());
+    assertTrue(trie.getReclaimedBytes() > 0);
+    assertSame(node, trie.getNode(path(0)));
+    assertFalse(node.hasChildren());
+    assertEquals(0, node.getNumberOfFlaggedChildren());
+    assertNull(trie.getNode(path(0, 0)));
+    assertNotNull(trie.getNode(path(1)));
+    assertEquals(0, trie.collapse(node));
+  }
+
+  @Test
+  public void compactCollapsesFlaggedNodes() {
+    Trie trie = new Trie();
+    trie.setFlag(path(0, 0), true);
+    trie.setFlag(path(0, 1), true);
+    trie.getNode(path(0)).setFlag(true);
+    trie.setFlag(path(1, 0), false);
+    assertTrue(trie.compact() > 0);
+    assertNull(trie.getNode(path(0, 0)));
+    assertNotNull(trie.getNode(path(1, 0)));
+  }
+
+  @Test
+  public void flaggingTheLastAddedPathAgainReturnsItsNode() {
+    Trie trie = new Trie();
+    Path p = path(1, 0, 1);
+    Trie.TrieNode cached = trie.setFlags(p, Trie.CACHED);
+    assertSame(cached, trie.setFlags(p, Trie.PRUNED));
+    assertTrue(cached.hasFlags(Trie.CACHED | Trie.PRUNED));
+    assertEquals(4, trie.getNumberOfNodes());
+  }
+
+  @Test
+  public void collapseInvalidatesTheLastAddedPath() {
+    Trie trie = new Trie();
+    Path p = path(1, 0, 1);
+    Trie.TrieNode leaf = trie.setFlags(p, Trie.CACHED);
+    trie.collapse(trie.getNode(path(1)));
+    Trie.TrieNode added = trie.setFlags(p, Trie.PRUNED);
+    assertNotSame(leaf, added);
+    assertSame(added, trie.getNode(p));
+    assertFalse(added.hasFlags(Trie.CACHED));
+  }
+
+  @Test
+  public void clearInvalidatesTheLastAddedPath() {
+    Trie trie = new Trie();
+    Path p = path(0, 1);
+    trie.setFlag(p, true);
+    trie.clear();
+    assertNull(trie.getNode(p));
+    trie.setFlag(p, true);
+    assertTrue(trie.isFlagSet(p));
+    assertEquals(3, trie.getNumberOfNodes());
+  }
+
+  @Test
+  public void clearingFlagsKeepsThePrunedBit() {
+    Trie trie = new Trie();
+    trie.setFlags(path(0, 0), Trie.CACHED);
+    trie.setFlags(path(0, 1), Trie.CACHED | Trie.PRUNED);
+    trie.clearFlags(Trie.CACHED | Trie.PRUNED);
+    assertFalse(trie.getNode(path(0, 0)).hasFlags(Trie.CACHED));
+    assertFalse(trie.getNode(path(0, 1)).hasFlags(Trie.CACHED));
+    assertTrue(trie.isFlagSet(path(0, 1)));
+    assertEquals(1, trie.getNode(path(0)).getNumberOfFlaggedChildren());
+    assertEquals(1, trie.numberOfFlags());
+  }
+
+  @Test
+  public void checkpointsKeepFlagsAndCounts() throws Exception {
+    Trie trie = new Trie();
+    trie.setFlag(path(0, 0), true);
+    trie.setFlags(path(0, 1), Trie.CACHED);
+    trie.setFlag(path(1), true);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    trie.writeCheckpoint(new DataOutputStream(bytes));
+
+    Trie read = new Trie();
+    read.readCheckpoint(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(trie.getNumberOfNodes(), read.getNumberOfNodes());
+    assertEquals(trie.numberOfFlags(), read.numberOfFlags());
+    assertTrue(read.isFlagSet(path(0, 0)));
+    assertTrue(read.getNode(path(0, 1)).hasFlags(Trie.CACHED));
+    assertFalse(read.isFlagSet(path(0, 1)));
+    assertEquals(1, read.getNode(path(0)).getNumberOfFlaggedChildren());
+    assertEquals(1, read.getRoot().getNumberOfFlaggedChildren());
+  }
+}
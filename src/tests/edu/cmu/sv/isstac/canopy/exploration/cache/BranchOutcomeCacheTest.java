@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.exploration.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.cmu.sv.isstac.canopy.exploration.PathCursor;
+import edu.cmu.sv.isstac.canopy.util.JPFUtil;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Recording and replay of branches with choice optimization. Samples are simulated the way the
+ * sampling listener and SPF drive the cache: the cache is queried when a PC CG is advanced, and
+ * the instructions up to the branch that registers the next PC CG are executed.
+ */
+public class BranchOutcomeCacheTest {
+
+  private BranchOutcomeCache cache;
+  private PathCursor cursor;
+
+  @Before
+  public void setUp() {
+    cache = new BranchOutcomeCache(true);
+    cursor = new PathCursor();
+    JPFUtil.setReplay(false);
+  }
+
+  // Executes the instructions of a choice, of which the one at index registers the next PC CG.
+  // Returns whether that branch was replayed
+  private boolean branchAt(int index) {
+    boolean replayBefore = JPFUtil.isReplay();
+    for(int i = 0; i < index; i++) {
+      cache.executeInstruction(null, null, null);
+      assertEquals("Instruction " + i + " is not the branch", replayBefore, JPFUtil.isReplay());
+      cache.instructionExecuted(null, null, null, null);
+    }
+    cache.executeInstruction(null, null, null);
+    boolean replayed = JPFUtil.isReplay();
+    cache.branchRegistered();
+    cache.instructionExecuted(null, null, null, null);
+    assertEquals("Replay is restored", replayBefore, JPFUtil.isReplay());
+    return replayed;
+  }
+
+  // Makes the choice at the current CG and executes the branch at index
+  private boolean choose(int choice, int index) {
+    assertFalse(cache.isStateCached(cursor, choice));
+    boolean replayed = branchAt(index);
+    cursor.push(choice);
+    return replayed;
+  }
+
+  @Test
+  public void recordedBranchIsReplayed() {
+    assertFalse(choose(0, 3));
+    assertFalse(cache.isStateCached(cursor, 1));
+    cache.addState(new int[] {0, 1});
+
+    cursor.reset();
+    assertTrue(choose(0, 3));
+  }
+
+  @Test
+  public void branchOfOtherChoiceIsSolved() {
+    choose(0, 3);
+    cache.isStateCached(cursor, 1);
+    cache.addState(new int[] {0, 1});
+
+    cursor.reset();
+    assertFalse(choose(1, 3));
+  }
+
+  @Test
+  public void replayOfListenerIsKept() {
+    choose(0, 3);
+    cache.isStateCached(cursor, 1);
+    cache.addState(new int[] {0, 1});
+
+    cursor.reset();
+    JPFUtil.setReplay(true);
+    assertTrue(choose(0, 3));
+    assertTrue(JPFUtil.isReplay());
+  }
+
+  @Test
+  public void branchOfOtherPrefixIsNotRecorded() {
+    // The branch after [0, 0] is at instruction 5
+    choose(0, 1);
+    choose(0, 5);
+    cache.isStateCached(cursor, 0);
+    cache.addState(new int[] {0, 0, 0});
+
+    // Backtrack and end the path after [1, 0] without registering a CG
+    cursor.rewind(0);
+    choose(1, 2);
+    cache.isStateCached(cursor, 0);
+    cache.addState(new int[] {1, 0});
+
+    cursor.reset();
+    assertTrue(choose(1, 2));
+    assertFalse(cache.isStateCached(cursor, 0));
+    for(int i = 0; i < 10; i++) {
+      cache.executeInstruction(null, null, null);
+      assertFalse(JPFUtil.isReplay());
+      cache.instructionExecuted(null, null, null, null);
+    }
+
+    cursor.reset();
+    assertTrue(choose(0, 1));
+    assertTrue(choose(0, 5));
+  }
+
+  @Test
+  public void branchesOfDeepPathsAreRecorded() {
+    int depth = 200;
+    int[] choices = new int[depth];
+    for(int level = 0; level < depth; level++) {
+      choices[level] = level % 2;
+      assertFalse(choose(choices[level], level % 7));
+    }
+    cache.isStateCached(cursor, 0);
+    cache.addState(choices);
+
+    cursor.reset();
+    for(int level = 0; level < depth; level++) {
+      assertTrue("Level " + level, choose(choices[level], level % 7));
+    }
+  }
+
+  @Test
+  public void cachedStatesAreReplayedWithoutOptimization() {
+    cache = new BranchOutcomeCache(false);
+    assertFalse(cache.isStateCached(cursor, 1));
+    cache.addState(new int[] {1});
+
+    assertTrue(cache.isStateCached(cursor, 1));
+    assertFalse(cache.isStateCached(cursor, 0));
+  }
+}
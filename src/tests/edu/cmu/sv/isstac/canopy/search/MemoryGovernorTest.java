@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import org.junit.Test;
+
+import edu.cmu.sv.isstac.canopy.exploration.PruningStrategy;
+import edu.cmu.sv.isstac.canopy.exploration.cache.StateCache;
+import gov.nasa.jpf.vm.ChoiceGenerator;
+import gov.nasa.jpf.vm.VM;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Shedding of the memory governor for given fractions of the heap that are live
+ */
+public class MemoryGovernorTest {
+
+  private static class CountingCache implements StateCache {
+    private final boolean clearable;
+    private int cleared = 0;
+
+    CountingCache(boolean clearable) {
+      this.clearable = clearable;
+    }
+
+    @Override
+    public void addState(VM vm) { }
+
+    @Override
+    public boolean isStateCached(VM vm) {
+      return false;
+    }
+
+    @Override
+    public boolean supportsPCOptimization() {
+      return false;
+    }
+
+    @Override
+    public void clear() {
+      cleared++;
+    }
+
+    @Override
+    public boolean isClearable() {
+      return clearable;
+    }
+  }
+
+  private static class CountingPruner implements PruningStrategy {
+    private int compacted = 0;
+
+    @Override
+    public boolean isFullyPruned() {
+      return false;
+    }
+
+    @Override
+    public void reset() { }
+
+    @Override
+    public void performPruning(gov.nasa.jpf.vm.Path path, ChoiceGenerator<?> cg) { }
+
+    @Override
+    public long compact() {
+      compacted++;
+      return 0;
+    }
+  }
+
+  private final CountingPruner pruner = new CountingPruner();
+
+  private MemoryGovernor governor(StateCache cache) {
+    return new MemoryGovernor(new double[] {0.5, 0.6, 0.7}, 10, cache, null, null, pruner);
+  }
+
+  @Test
+  public void stagesAreShedAboveTheirThreshold() {
+    CountingCache cache = new CountingCache(true);
+    MemoryGovernor governor = governor(cache);
+    governor.check(0.4);
+    assertEquals(0, cache.cleared);
+    governor.check(0.65);
+    assertEquals(1, cache.cleared);
+    assertEquals(0, pruner.compacted);
+    governor.check(0.8);
+    assertEquals(1, pruner.compacted);
+  }
+
+  @Test
+  public void stagesAreNotShedAgainWhileUsageStaysHigh() {
+    CountingCache cache = new CountingCache(true);
+    MemoryGovernor governor = governor(cache);
+    governor.check(0.8);
+    governor.check(0.8);
+    governor.check(0.82);
+    assertEquals(1, cache.cleared);
+    assertEquals(1, pruner.compacted);
+    assertEquals(1, governor.getStagesShed(MemoryGovernor.Stage.CLEAR_CACHES));
+  }
+
+  @Test
+  public void stagesAreShedAgainWhenUsageRises() {
+    CountingCache cache = new CountingCache(true);
+    MemoryGovernor governor = governor(cache);
+    governor.check(0.75);
+    governor.check(0.75 + MemoryGovernor.HYSTERESIS);
+    assertEquals(2, cache.cleared);
+    assertEquals(2, pruner.compacted);
+  }
+
+  @Test
+  public void stagesAreShedAgainAfterUsageDrops() {
+    CountingCache cache = new CountingCache(true);
+    MemoryGovernor governor = governor(cache);
+    governor.check(0.55);
+    governor.check(0.3);
+    governor.check(0.55);
+    assertEquals(2, cache.cleared);
+    assertEquals(0, pruner.compacted);
+  }
+
+  @Test
+  public void cachesWithoutMemoryToReleaseAreSkipped() {
+    CountingCache cache = new CountingCache(false);
+    MemoryGovernor governor = governor(cache);
+    governor.check(0.55);
+    assertEquals(0, cache.cleared);
+    assertEquals(0, governor.getStagesShed(MemoryGovernor.Stage.CLEAR_CACHES));
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Keys of the solver cache, and the file they are stored in. The constraints are written like
+ * SPF prints path conditions
+ */
+public class PersistentSolverCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void tearDown() {
+    // Mapped files are only unmapped once they are collected
+    System.gc();
+  }
+
+  private static String key(String constraints) {
+    return PersistentSolverCache.canonicalize(constraints);
+  }
+
+  @Test
+  public void variablesAreNumberedInOrderOfAppearance() {
+    assertEquals("x_0_SYMINT<=CONST_10&&y_1_SYMINT>x_0_SYMINT",
+        key("x_3_SYMINT <= CONST_10 &&\n y_7_SYMINT > x_3_SYMINT"));
+    assertEquals(key("x_3_SYMINT <= CONST_10 &&\n y_7_SYMINT > x_3_SYMINT"),
+        key("x_12_SYMINT <= CONST_10 &&\n y_13_SYMINT > x_12_SYMINT"));
+  }
+
+  @Test
+  public void unnamedVariablesAreNumbered() {
+    assertEquals(key("INT_1234 > CONST_0 && REAL_1235 < CONST_1.0"),
+        key("INT_17 > CONST_0 && REAL_18 < CONST_1.0"));
+  }
+
+  @Test
+  public void solutionsAreDropped() {
+    assertEquals(key("x_3_SYMINT[5] <= CONST_10 && INT_4[-2] < CONST_0"),
+        key("x_3_SYMINT <= CONST_10 && INT_4 < CONST_0"));
+  }
+
+  @Test
+  public void whitespaceIsIgnored() {
+    assertEquals(key("x_1_SYMINT <= CONST_10 &&\ny_2_SYMINT > CONST_0"),
+        key("x_1_SYMINT<=CONST_10 && y_2_SYMINT>CONST_0"));
+  }
+
+  @Test
+  public void distinctVariablesAreKeptApart() {
+    assertNotEquals(key("x_1_SYMINT < x_1_SYMINT"), key("x_1_SYMINT < y_2_SYMINT"));
+    assertNotEquals(key("x_1_SYMINT < CONST_1 && y_2_SYMINT < CONST_2"),
+        key("x_1_SYMINT < CONST_1 && x_1_SYMINT < CONST_2"));
+  }
+
+  @Test
+  public void constantsAndTypesAreKept() {
+    assertNotEquals(key("x_1_SYMINT <= CONST_10"), key("x_1_SYMINT <= CONST_11"));
+    assertNotEquals(key("x_1_SYMINT <= CONST_10"), key("x_1_SYMREAL <= CONST_10"));
+    assertNotEquals(key("x_1_SYMINT <= CONST_10"), key("x_1_SYMINT < CONST_10"));
+  }
+
+  @Test
+  public void resultsAreKeptAcrossRuns() throws IOException {
+    File file = folder.newFile();
+    String pc = key("x_1_SYMINT <= CONST_10");
+    new PersistentSolverCache(new PersistentSolverCache.Table(file, 100), "").store(pc, true);
+
+    PersistentSolverCache cache = new PersistentSolverCache(
+        new PersistentSolverCache.Table(file, 100), "");
+    assertEquals(1, cache.size());
+    assertEquals(PersistentSolverCache.SAT, cache.lookup(pc));
+    assertEquals(PersistentSolverCache.UNKNOWN, cache.lookup(key("x_1_SYMINT <= CONST_11")));
+  }
+
+  @Test
+  public void resultsAreKeptApartForOtherOptions() throws IOException {
+    PersistentSolverCache.Table table = new PersistentSolverCache.Table(folder.newFile(), 100);
+    PersistentSolverCache narrow = new PersistentSolverCache(table, "symbolic.max_int=10;");
+    PersistentSolverCache wide = new PersistentSolverCache(table, "symbolic.max_int=20;");
+    String pc = key("x_1_SYMINT > CONST_15");
+    narrow.store(pc, false);
+    assertEquals(PersistentSolverCache.UNSAT, narrow.lookup(pc));
+    assertEquals(PersistentSolverCache.UNKNOWN, wide.lookup(pc));
+    wide.store(pc, true);
+    assertEquals(PersistentSolverCache.SAT, wide.lookup(pc));
+    assertEquals(PersistentSolverCache.UNSAT, narrow.lookup(pc));
+  }
+
+  @Test
+  public void uncommittedResultsAreMisses() throws IOException {
+    File file = folder.newFile();
+    PersistentSolverCache cache = new PersistentSolverCache(
+        new PersistentSolverCache.Table(file, 100), "");
+    String pc = key("x_1_SYMINT <= CONST_10");
+    cache.store(pc, true);
+
+    // Clear the commit word of the entry, as if its writer died before writing it
+    try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      for(long offset = 64; offset < raf.length(); offset += 24) {
+        raf.seek(offset);
+        if(raf.readLong() != 0) {
+          raf.seek(offset + 16);
+          raf.writeLong(0);
+        }
+      }
+    }
+    assertEquals(PersistentSolverCache.UNKNOWN, cache.lookup(pc));
+
+    // The next store completes the entry
+    cache.store(pc, true);
+    assertEquals(PersistentSolverCache.SAT, cache.lookup(pc));
+    assertEquals(1, cache.size());
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.search;
+
+import org.junit.Test;
+
+import edu.cmu.sv.isstac.canopy.analysis.SamplingResult;
+import edu.cmu.sv.isstac.canopy.reward.RewardBound;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Branch-and-bound pruning with a user-supplied reward bound
+ */
+public class SamplingAnalysisListenerTest {
+
+  // Bounds that depend on the subtree, e.g. derived from the remaining input size
+  private final long[] subtreeBounds = { 12, 8, 10 };
+  private int subtree;
+  private final RewardBound bound = vm -> subtreeBounds[subtree];
+
+  private boolean isBoundedOut(int subtree, SamplingResult result) {
+    this.subtree = subtree;
+    return SamplingAnalysisListener.isBoundedOut(bound, null, result);
+  }
+
+  @Test
+  public void subtreesThatCannotImproveArePruned() {
+    SamplingResult result = new SamplingResult();
+    result.getMaxSuccResult().setReward(10);
+    assertFalse(isBoundedOut(0, result));
+    assertTrue(isBoundedOut(1, result));
+    // A subtree can at best tie with the best path
+    assertTrue(isBoundedOut(2, result));
+  }
+
+  @Test
+  public void nothingIsPrunedBeforeASuccessfulPath() {
+    SamplingResult result = new SamplingResult();
+    assertFalse(isBoundedOut(1, result));
+  }
+
+  @Test
+  public void failedAndConstraintHitPathsDoNotPrune() {
+    SamplingResult result = new SamplingResult();
+    result.getMaxFailResult().setReward(100);
+    result.getMaxGreyResult().setReward(100);
+    assertFalse(isBoundedOut(0, result));
+
+    result.getMaxSuccResult().setReward(9);
+    assertFalse(isBoundedOut(0, result));
+    assertTrue(isBoundedOut(1, result));
+  }
+}
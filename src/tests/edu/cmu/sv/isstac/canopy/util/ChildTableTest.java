@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Carnegie Mellon University.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package edu.cmu.sv.isstac.canopy.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Kasper Luckow
+ *
+ * Migration of child tables between layouts, which is observed through their memory footprint
+ */
+public class ChildTableTest {
+
+  private static final int WIDE = 100;
+  // Footprints of the layouts for WIDE choices
+  private static final long INLINE = 32;
+  private static final long DENSE = 16 + 4 * WIDE;
+
+  private static long sorted(int capacity) {
+    return 32 + 2 * (16 + 4 * capacity);
+  }
+
+  private static List<Integer> choices(Object table) {
+    List<Integer> choices = new ArrayList<>();
+    for(int choice = ChildTable.first(table); choice >= 0;
+        choice = ChildTable.next(table, choice + 1)) {
+      choices.add(choice);
+    }
+    return choices;
+  }
+
+  private static String child(int choice) {
+    return "child" + choice;
+  }
+
+  @Test
+  public void smallFanoutIsDense() {
+    Object table = ChildTable.create(2);
+    assertEquals(16 + 4 * 2, ChildTable.getMemoryFootprint(table));
+    table = ChildTable.put(table, 1, child(1));
+    assertEquals(2, ChildTable.getNumberOfChoices(table));
+    assertEquals(child(1), ChildTable.get(table, 1));
+    assertNull(ChildTable.get(table, 0));
+    assertNull(ChildTable.get(table, 5));
+    assertEquals(Arrays.asList(1), choices(table));
+  }
+
+  @Test
+  public void wideFanoutMigratesFromInlineToSortedToDense() {
+    Object table = ChildTable.create(WIDE);
+    // Children are added in descending order, such that the sorted layout has to insert
+    for(int i = 0; i < 2; i++) {
+      table = ChildTable.put(table, 90 - 2 * i, child(90 - 2 * i));
+    }
+    assertEquals(INLINE, ChildTable.getMemoryFootprint(table));
+    assertEquals(Arrays.asList(88, 90), choices(table));
+
+    table = ChildTable.put(table, 86, child(86));
+    assertEquals(sorted(4), ChildTable.getMemoryFootprint(table));
+    for(int i = 3; i < 32; i++) {
+      table = ChildTable.put(table, 90 - 2 * i, child(90 - 2 * i));
+    }
+    assertEquals(sorted(32), ChildTable.getMemoryFootprint(table));
+    assertEquals(32, ChildTable.size(table));
+
+    // The next sorted capacity would take up more than a dense array
+    table = ChildTable.put(table, 99, child(99));
+    assertEquals(DENSE, ChildTable.getMemoryFootprint(table));
+    assertEquals(33, ChildTable.size(table));
+    assertEquals(WIDE, ChildTable.getNumberOfChoices(table));
+    for(int i = 0; i < 32; i++) {
+      assertEquals(child(90 - 2 * i), ChildTable.get(table, 90 - 2 * i));
+    }
+    assertEquals(child(99), ChildTable.get(table, 99));
+    assertNull(ChildTable.get(table, 89));
+  }
+
+  @Test
+  public void mediumFanoutMigratesFromInlineToDense() {
+    Object table = ChildTable.create(10);
+    table = ChildTable.put(table, 7, child(7));
+    table = ChildTable.put(table, 2, child(2));
+    assertEquals(INLINE, ChildTable.getMemoryFootprint(table));
+    table = ChildTable.put(table, 9, child(9));
+    assertEquals(16 + 4 * 10, ChildTable.getMemoryFootprint(table));
+    assertEquals(Arrays.asList(2, 7, 9), choices(table));
+  }
+
+  @Test
+  public void replacingAChildKeepsTheLayout() {
+    Object table = ChildTable.create(WIDE);
+    table = ChildTable.put(table, 50, child(50));
+    table = ChildTable.put(table, 60, child(60));
+    table = ChildTable.put(table, 60, "other");
+    table = ChildTable.put(table, 50, "another");
+    assertEquals(INLINE, ChildTable.getMemoryFootprint(table));
+    assertEquals("another", ChildTable.get(table, 50));
+    assertEquals("other", ChildTable.get(table, 60));
+    assertEquals(2, ChildTable.size(table));
+  }
+
+  @Test
+  public void removeFromEachLayout() {
+    Object dense = ChildTable.create(3);
+    dense = ChildTable.put(dense, 0, child(0));
+    dense = ChildTable.put(dense, 2, child(2));
+    dense = ChildTable.remove(dense, 0);
+    assertEquals(Arrays.asList(2), choices(dense));
+    assertNull(ChildTable.remove(dense, 2));
+
+    Object inline = ChildTable.create(WIDE);
+    inline = ChildTable.put(inline, 10, child(10));
+    inline = ChildTable.put(inline, 20, child(20));
+    inline = ChildTable.remove(inline, 10);
+    assertEquals(Arrays.asList(20), choices(inline));
+    // The freed slot is reused without migrating
+    inline = ChildTable.put(inline, 30, child(30));
+    assertEquals(INLINE, ChildTable.getMemoryFootprint(inline));
+    assertEquals(Arrays.asList(20, 30), choices(inline));
+    inline = ChildTable.remove(inline, 20);
+    assertNull(ChildTable.remove(inline, 30));
+
+    Object sorted = ChildTable.create(WIDE);
+    for(int choice : new int[] {5, 15, 25, 35}) {
+      sorted = ChildTable.put(sorted, choice, child(choice));
+    }
+    sorted = ChildTable.remove(sorted, 15);
+    sorted = ChildTable.remove(sorted, 16);
+    assertEquals(Arrays.asList(5, 25, 35), choices(sorted));
+    assertEquals(25, ChildTable.next(sorted, 6));
+    assertEquals(child(25), ChildTable.get(sorted, 25));
+    assertNull(ChildTable.get(sorted, 15));
+    sorted = ChildTable.remove(sorted, 5);
+    sorted = ChildTable.remove(sorted, 35);
+    assertNull(ChildTable.remove(sorted, 25));
+  }
+
+  @Test
+  public void ensureChoicesWidensTheTable() {
+    Object table = ChildTable.create(2);
+    table = ChildTable.put(table, 0, child(0));
+    table = ChildTable.put(table, 1, child(1));
+    assertSame(table, ChildTable.ensureChoices(table, 2));
+
+    Object wider = ChildTable.ensureChoices(table, WIDE);
+    assertEquals(WIDE, ChildTable.getNumberOfChoices(wider));
+    assertEquals(Arrays.asList(0, 1), choices(wider));
+    assertEquals(child(1), ChildTable.get(wider, 1));
+    wider = ChildTable.put(wider, 70, child(70));
+    assertEquals(Arrays.asList(0, 1, 70), choices(wider));
+
+    assertEquals(3, ChildTable.getNumberOfChoices(ChildTable.ensureChoices(null, 3)));
+  }
+}